@@ -0,0 +1,52 @@
+package com.lemmingapex.trilateration;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link FixedDimensionSolver} on the same scenarios as
+ * {@link NonLinearLeastSquaresSolverBenchmark}. The GC profiler should
+ * report no allocation per operation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FixedDimensionSolverBenchmark {
+
+	@Param({"LEVENBERG_MARQUARDT", "GAUSS_NEWTON"})
+	public FixedDimensionSolver.Method method;
+
+	private FixedDimensionSolver solver;
+	private SolverWorkspace workspace;
+	private double[] positions;
+	private double[] result;
+
+	@Setup(Level.Trial)
+	public void setUp(TrilaterationScenario scenario) {
+		solver = new FixedDimensionSolver(method);
+		workspace = new SolverWorkspace();
+		positions = FixedDimensionSolver.pack(scenario.positions);
+		result = new double[scenario.dimension];
+	}
+
+	@Benchmark
+	public double[] solve(TrilaterationScenario scenario) {
+		solver.solve(scenario.dimension, positions, scenario.distances, null, 0, scenario.anchors, null, result, 0, workspace);
+		return result;
+	}
+}
@@ -0,0 +1,47 @@
+package com.lemmingapex.trilateration;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.linear.RealVector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link LinearLeastSquaresSolver#solve()}, including the
+ * construction of the solver as done for every fix, against solving with a
+ * {@link PreparedAnchorSet} factored once per trial.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LinearLeastSquaresSolverBenchmark {
+
+	private PreparedAnchorSet prepared;
+
+	@Setup(Level.Trial)
+	public void setUp(TrilaterationScenario scenario) {
+		prepared = new PreparedAnchorSet(scenario.positions);
+	}
+
+	@Benchmark
+	public RealVector solve(TrilaterationScenario scenario) {
+		return new LinearLeastSquaresSolver(scenario.function).solve();
+	}
+
+	@Benchmark
+	public RealVector prepared(TrilaterationScenario scenario) {
+		return prepared.solve(scenario.distances);
+	}
+}
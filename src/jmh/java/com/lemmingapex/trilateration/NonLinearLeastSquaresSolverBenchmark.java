@@ -0,0 +1,47 @@
+package com.lemmingapex.trilateration;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.fitting.leastsquares.GaussNewtonOptimizer;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link NonLinearLeastSquaresSolver#solve()} with the optimizers
+ * shipped by commons-math.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NonLinearLeastSquaresSolverBenchmark {
+
+	@Benchmark
+	public Optimum levenbergMarquardt(TrilaterationScenario scenario) {
+		return new NonLinearLeastSquaresSolver(scenario.function, new LevenbergMarquardtOptimizer()).solve();
+	}
+
+	@Benchmark
+	public Optimum levenbergMarquardtFromLinearEstimate(TrilaterationScenario scenario) {
+		return new NonLinearLeastSquaresSolver(scenario.function, new LevenbergMarquardtOptimizer()).solveFromLinearEstimate(0.0);
+	}
+
+	/**
+	 * {@link GaussNewtonOptimizer} refuses to run without a convergence
+	 * checker, which only the {@link SolveOptions} entry points supply.
+	 * Without the damping of Levenberg-Marquardt the 3 anchor / 3D problems
+	 * are singular at the centroid and that combination reports an error.
+	 */
+	@Benchmark
+	public Optimum gaussNewton(TrilaterationScenario scenario) {
+		return new NonLinearLeastSquaresSolver(scenario.function, new GaussNewtonOptimizer()).solve(SolveOptions.DEFAULT);
+	}
+}
@@ -0,0 +1,44 @@
+package com.lemmingapex.trilateration;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.util.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks a single evaluation of the residuals and the Jacobian, which
+ * is what the optimizers pay for on every iteration.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TrilaterationFunctionBenchmark {
+
+	private RealVector point;
+
+	@Setup(Level.Trial)
+	public void setUp(TrilaterationScenario scenario) {
+		point = new ArrayRealVector(scenario.centroid(), false);
+	}
+
+	@Benchmark
+	public Pair<RealVector, RealMatrix> value(TrilaterationScenario scenario) {
+		return scenario.function.value(point);
+	}
+}
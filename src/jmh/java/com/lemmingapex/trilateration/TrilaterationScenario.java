@@ -0,0 +1,83 @@
+package com.lemmingapex.trilateration;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark state describing a single trilateration problem. Anchors are
+ * spread uniformly over a square field of side {@link #FIELD_SIZE}, in the
+ * spirit of the fixtures in TrilaterationTestCases, and the measured ranges
+ * optionally carry gaussian noise.
+ *
+ * A fixed seed keeps the problems identical between runs so that results
+ * can be compared across commits.
+ */
+@State(Scope.Thread)
+public class TrilaterationScenario {
+
+	public static final double FIELD_SIZE = 100.0;
+
+	private static final long SEED = 42L;
+
+	@Param({"1", "2", "3"})
+	public int dimension;
+
+	@Param({"3", "10", "100", "1000"})
+	public int anchors;
+
+	/**
+	 * Standard deviation of the range noise, in field units
+	 */
+	@Param({"0.0", "1.0"})
+	public double noise;
+
+	public double[][] positions;
+	public double[] distances;
+	public double[] expectedPosition;
+	public TrilaterationFunction function;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random random = new Random(SEED);
+
+		expectedPosition = new double[dimension];
+		for (int j = 0; j < dimension; j++) {
+			expectedPosition[j] = FIELD_SIZE * (0.25 + 0.5 * random.nextDouble());
+		}
+
+		positions = new double[anchors][dimension];
+		distances = new double[anchors];
+		for (int i = 0; i < anchors; i++) {
+			double distanceSquared = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				positions[i][j] = FIELD_SIZE * random.nextDouble();
+				double delta = positions[i][j] - expectedPosition[j];
+				distanceSquared += delta * delta;
+			}
+			distances[i] = Math.max(0.0, Math.sqrt(distanceSquared) + noise * random.nextGaussian());
+		}
+
+		function = new TrilaterationFunction(positions, distances);
+	}
+
+	/**
+	 * @return the centroid of the anchors, the same starting point {@link NonLinearLeastSquaresSolver#solve()} uses
+	 */
+	public double[] centroid() {
+		double[] centroid = new double[dimension];
+		for (int i = 0; i < anchors; i++) {
+			for (int j = 0; j < dimension; j++) {
+				centroid[j] += positions[i][j];
+			}
+		}
+		for (int j = 0; j < dimension; j++) {
+			centroid[j] /= anchors;
+		}
+		return centroid;
+	}
+}
@@ -0,0 +1,315 @@
+package com.lemmingapex.trilateration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+
+/**
+ * Quality of an anchor configuration, independent of the ranges: the
+ * dimension of the affine hull of the anchors and the geometric dilution of
+ * precision (GDOP) at their centroid.
+ *
+ * Anchors whose hull has a lower dimension than the positions do not
+ * determine a position: the target can be mirrored across the hull without
+ * changing any range. With too few anchors, at most one more than the
+ * dimension, that is unavoidable and the iterative solvers settle on one of
+ * the mirrored solutions. Enough anchors that still fail to span all
+ * dimensions, collinear anchors in 2D or coplanar anchors in 3D, are
+ * degenerate: what they determine is the projection of the target onto
+ * their hull, which {@link #solveReduced(double[], double[])} computes in
+ * closed form instead of letting an iterative solver wander in the
+ * undetermined directions, and the distance of the target to the hull, which
+ * {@link #solveOffHull(double[], double[], double[])} adds on the side of a
+ * given point.
+ *
+ * Instances are immutable. {@link AnchorSet#getGeometry()} computes the
+ * geometry of a set once and caches it, the geometry of raw positions is
+ * cached by value in a small shared cache, see {@link #of(int, double[])}.
+ */
+public final class AnchorGeometry {
+
+	/**
+	 * Singular values of the centered anchors below this fraction of the largest one are considered zero
+	 */
+	public static final double RANK_TOLERANCE = 1E-6;
+
+	/**
+	 * Number of raw anchor configurations whose geometry is kept
+	 */
+	static final int CACHE_CAPACITY = 256;
+
+	private static final Map<PackedPositions, AnchorGeometry> CACHE = new LinkedHashMap<PackedPositions, AnchorGeometry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<PackedPositions, AnchorGeometry> eldest) {
+			return size() > CACHE_CAPACITY;
+		}
+	};
+
+	private final int dimension;
+	private final int size;
+	private final int rank;
+	private final double gdop;
+
+	/**
+	 * Centroid of the anchors, origin of the hull coordinates
+	 */
+	private final double[] centroid;
+
+	/**
+	 * Orthonormal basis of the hull, row k at basis[k * dimension], principal axes first
+	 */
+	private final double[] basis;
+
+	/**
+	 * Scatter of the anchors along each axis of the basis
+	 */
+	private final double[] scatter;
+
+	/**
+	 * Hull coordinates of the anchors, coordinate k of anchor i at hull[i * rank + k], and their squared norms
+	 */
+	private final double[] hull;
+	private final double[] hullNormsSquared;
+
+	/**
+	 * Returns the geometry of positions, computing it only if the same
+	 * positions were not analyzed recently. Solves against raw positions
+	 * rather than an {@link AnchorSet} go through here, so that fixes against
+	 * fixed anchors do not pay an eigen decomposition each.
+	 *
+	 * @param packed positions packed row by row, not modified
+	 */
+	static AnchorGeometry of(int dimension, double[] packed) {
+		PackedPositions key = new PackedPositions(dimension, packed);
+		synchronized (CACHE) {
+			AnchorGeometry cached = CACHE.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		// analyze outside of the lock, if two threads race the first one wins
+		AnchorGeometry geometry = new AnchorGeometry(dimension, packed);
+		synchronized (CACHE) {
+			AnchorGeometry existing = CACHE.get(key);
+			if (existing != null) {
+				return existing;
+			}
+			CACHE.put(new PackedPositions(dimension, packed.clone()), geometry);
+			return geometry;
+		}
+	}
+
+	AnchorGeometry(int dimension, double[] packed) {
+		this.dimension = dimension;
+		size = packed.length / dimension;
+		centroid = new double[dimension];
+		FixedDimensionSolver.centroid(dimension, packed, 0, size, centroid);
+
+		double[][] covariance = new double[dimension][dimension];
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < dimension; j++) {
+				double deltaj = packed[i * dimension + j] - centroid[j];
+				for (int k = 0; k < dimension; k++) {
+					covariance[j][k] += deltaj * (packed[i * dimension + k] - centroid[k]);
+				}
+			}
+		}
+		EigenDecomposition eigen = new EigenDecomposition(new Array2DRowRealMatrix(covariance, false));
+		double[] eigenvalues = eigen.getRealEigenvalues();
+		int[] order = new int[dimension];
+		for (int k = 0; k < dimension; k++) {
+			order[k] = k;
+		}
+		// principal axes first
+		for (int k = 1; k < dimension; k++) {
+			for (int m = k; m > 0 && eigenvalues[order[m]] > eigenvalues[order[m - 1]]; m--) {
+				int swap = order[m];
+				order[m] = order[m - 1];
+				order[m - 1] = swap;
+			}
+		}
+
+		double largest = Math.max(eigenvalues[order[0]], 0.0);
+		int r = 0;
+		while (r < dimension && eigenvalues[order[r]] > RANK_TOLERANCE * RANK_TOLERANCE * largest && eigenvalues[order[r]] > 0.0) {
+			r++;
+		}
+		rank = r;
+		basis = new double[rank * dimension];
+		scatter = new double[rank];
+		for (int k = 0; k < rank; k++) {
+			scatter[k] = eigenvalues[order[k]];
+			for (int j = 0; j < dimension; j++) {
+				basis[k * dimension + j] = eigen.getEigenvector(order[k]).getEntry(j);
+			}
+		}
+
+		hull = new double[size * rank];
+		hullNormsSquared = new double[size];
+		for (int i = 0; i < size; i++) {
+			for (int k = 0; k < rank; k++) {
+				double coordinate = 0.0;
+				for (int j = 0; j < dimension; j++) {
+					coordinate += basis[k * dimension + j] * (packed[i * dimension + j] - centroid[j]);
+				}
+				hull[i * rank + k] = coordinate;
+				hullNormsSquared[i] += coordinate * coordinate;
+			}
+		}
+
+		gdop = rank < dimension ? Double.POSITIVE_INFINITY : gdop(packed, size);
+	}
+
+	/**
+	 * @return the dimension of the positions
+	 */
+	public int getDimension() {
+		return dimension;
+	}
+
+	/**
+	 * @return the dimension of the affine hull of the anchors, 0 when they all coincide
+	 */
+	public int getRank() {
+		return rank;
+	}
+
+	/**
+	 * @return true if the hull of the anchors spans all dimensions
+	 */
+	public boolean isFullRank() {
+		return rank == dimension;
+	}
+
+	/**
+	 * @return true if there are enough anchors to span all dimensions, yet their hull does not
+	 */
+	public boolean isDegenerate() {
+		return rank < dimension && size > rank + 1;
+	}
+
+	/**
+	 * @return the geometric dilution of precision at the centroid of the anchors, infinity when not full rank
+	 */
+	public double getGDOP() {
+		return gdop;
+	}
+
+	/**
+	 * Least squares estimate of the projection of the target onto the affine
+	 * hull of the anchors. Only the differences between squared ranges are
+	 * used, so the estimate is exact for exact ranges whatever the distance
+	 * of the target to the hull. For a non degenerate configuration the hull
+	 * is the whole space and this is a linear position estimate.
+	 *
+	 * @param distances measured distances, indexed like the anchors, extra entries are ignored
+	 * @param result receives the estimate
+	 */
+	public void solveReduced(double[] distances, double[] result) {
+		System.arraycopy(centroid, 0, result, 0, dimension);
+		for (int k = 0; k < rank; k++) {
+			// the hull coordinates are centered and their axes uncorrelated, so the normal matrix is diagonal
+			double sum = 0.0;
+			for (int i = 0; i < hullNormsSquared.length; i++) {
+				sum += hull[i * rank + k] * (distances[i] * distances[i] - hullNormsSquared[i]);
+			}
+			double coordinate = -sum / (2.0 * scatter[k]);
+			for (int j = 0; j < dimension; j++) {
+				result[j] += coordinate * basis[k * dimension + j];
+			}
+		}
+	}
+
+	/**
+	 * Estimate of the target on the side of the hull of the anchors where
+	 * near lies: the projection of {@link #solveReduced(double[], double[])},
+	 * moved away from the hull by the part of the ranges the projection does
+	 * not explain. The mirror image of the estimate across the hull fits the
+	 * ranges equally well, the anchors cannot tell them apart.
+	 *
+	 * @param distances measured distances, indexed like the anchors, extra entries are ignored
+	 * @param near point choosing the side of the hull. If it lies on the hull, the result is the projection.
+	 * @param result receives the estimate
+	 * @return the estimated distance of the target to the hull
+	 */
+	public double solveOffHull(double[] distances, double[] near, double[] result) {
+		solveReduced(distances, result);
+
+		// mean squared range left over by the projection, hull coordinates of the projection recomputed for each anchor to avoid scratch memory
+		double offsetSquared = 0.0;
+		for (int i = 0; i < hullNormsSquared.length; i++) {
+			double projectedSquared = 0.0;
+			for (int k = 0; k < rank; k++) {
+				double coordinate = 0.0;
+				for (int j = 0; j < dimension; j++) {
+					coordinate += basis[k * dimension + j] * (result[j] - centroid[j]);
+				}
+				double delta = coordinate - hull[i * rank + k];
+				projectedSquared += delta * delta;
+			}
+			offsetSquared += distances[i] * distances[i] - projectedSquared;
+		}
+		double offset = Math.sqrt(Math.max(offsetSquared / hullNormsSquared.length, 0.0));
+
+		// the component of near - centroid orthogonal to the hull gives the direction
+		double normSquared = 0.0;
+		for (int j = 0; j < dimension; j++) {
+			double orthogonal = orthogonal(near, j);
+			normSquared += orthogonal * orthogonal;
+		}
+		if (normSquared == 0.0) {
+			return offset;
+		}
+		double scale = offset / Math.sqrt(normSquared);
+		for (int j = 0; j < dimension; j++) {
+			result[j] += scale * orthogonal(near, j);
+		}
+		return offset;
+	}
+
+	/**
+	 * @return coordinate j of the component of point - centroid orthogonal to the hull
+	 */
+	private double orthogonal(double[] point, int j) {
+		double component = point[j] - centroid[j];
+		for (int k = 0; k < rank; k++) {
+			double coordinate = 0.0;
+			for (int m = 0; m < dimension; m++) {
+				coordinate += basis[k * dimension + m] * (point[m] - centroid[m]);
+			}
+			component -= coordinate * basis[k * dimension + j];
+		}
+		return component;
+	}
+
+	private double gdop(double[] packed, int size) {
+		double[] information = new double[dimension * dimension];
+		double[] unit = new double[dimension];
+		for (int i = 0; i < size; i++) {
+			double norm = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				unit[j] = packed[i * dimension + j] - centroid[j];
+				norm += unit[j] * unit[j];
+			}
+			if (norm == 0.0) {
+				continue;
+			}
+			norm = Math.sqrt(norm);
+			for (int j = 0; j < dimension; j++) {
+				for (int k = 0; k <= j; k++) {
+					information[j * dimension + k] += unit[j] * unit[k] / (norm * norm);
+				}
+			}
+		}
+		double[] factor = new double[dimension * dimension];
+		if (!SmallMatrix.cholesky(information, dimension, factor)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return Math.sqrt(SmallMatrix.choleskyInverseTrace(factor, dimension, new double[dimension]));
+	}
+}
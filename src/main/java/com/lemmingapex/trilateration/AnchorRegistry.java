@@ -0,0 +1,380 @@
+package com.lemmingapex.trilateration;
+
+/**
+ * Registry of all the anchors of a deployment, indexed by a k-d tree, used to
+ * pick a small, well spread subset of the anchors that heard a target before
+ * building a {@link TrilaterationFunction}. Solver time then depends on the
+ * size of the subset rather than on the number of anchors heard.
+ *
+ * Subsets are chosen greedily to minimize the geometric dilution of
+ * precision (GDOP) at a coarse position of the target. The candidates
+ * considered are limited to the {@link #CANDIDATE_FACTOR} times requested
+ * count anchors closest to the target, so selection cost does not grow with
+ * the size of the deployment either.
+ *
+ * Anchors are identified by their index in the positions given to the
+ * constructor. Instances are immutable and may be shared between threads.
+ */
+public class AnchorRegistry {
+
+	/**
+	 * Number of candidates considered per anchor selected
+	 */
+	public static final int CANDIDATE_FACTOR = 4;
+
+	/**
+	 * Regularization of the GDOP while the selected anchors do not yet span all dimensions
+	 */
+	private static final double GDOP_REGULARIZATION = 1E-6;
+
+	protected final int dimension;
+
+	/**
+	 * Anchor positions, packed row by row
+	 */
+	protected final double[] positions;
+
+	/**
+	 * Anchor indices in k-d tree order, the node of the range [lo, hi) sits at (lo + hi) / 2
+	 */
+	private final int[] tree;
+
+	/**
+	 * Coordinate each node splits on, indexed like tree
+	 */
+	private final byte[] splitDimensions;
+
+	public AnchorRegistry(double[][] positions) {
+		if (positions.length < 1) {
+			throw new IllegalArgumentException("Need at least one position.");
+		}
+		this.positions = FixedDimensionSolver.pack(positions);
+		this.dimension = positions[0].length;
+		if (dimension > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("The dimension of the positions is too large.");
+		}
+
+		tree = new int[positions.length];
+		for (int i = 0; i < tree.length; i++) {
+			tree[i] = i;
+		}
+		splitDimensions = new byte[positions.length];
+		build(0, tree.length);
+	}
+
+	public int size() {
+		return tree.length;
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	public double[] getPosition(int anchor) {
+		double[] position = new double[dimension];
+		System.arraycopy(positions, anchor * dimension, position, 0, dimension);
+		return position;
+	}
+
+	/**
+	 * @return up to count anchors closest to point, closest first
+	 */
+	public int[] nearest(double[] point, int count) {
+		count = Math.min(count, tree.length);
+		int[] nearest = new int[count];
+		double[] distancesSquared = new double[count];
+		int found = search(point, 0, tree.length, nearest, distancesSquared, 0);
+		if (found < count) {
+			int[] trimmed = new int[found];
+			System.arraycopy(nearest, 0, trimmed, 0, found);
+			return trimmed;
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return the anchors, among all of the registry, best suited to locate a target near coarsePosition
+	 */
+	public int[] selectAnchors(double[] coarsePosition, int count) {
+		return selectAnchors(coarsePosition, nearest(coarsePosition, CANDIDATE_FACTOR * count), count);
+	}
+
+	/**
+	 * Picks, greedily, the count candidates that minimize the GDOP at coarsePosition.
+	 *
+	 * @param candidates anchors to choose from
+	 * @return the selected anchors, in the order they were picked
+	 */
+	public int[] selectAnchors(double[] coarsePosition, int[] candidates, int count) {
+		count = Math.min(count, candidates.length);
+		double[] unitVectors = unitVectors(coarsePosition, candidates);
+		boolean[] taken = new boolean[candidates.length];
+		int[] selected = new int[count];
+
+		double[] information = new double[dimension * dimension];
+		double[] factor = new double[dimension * dimension];
+		double[] scratch = new double[dimension];
+		for (int s = 0; s < count; s++) {
+			int best = -1;
+			double bestGdop = Double.POSITIVE_INFINITY;
+			for (int c = 0; c < candidates.length; c++) {
+				if (taken[c]) {
+					continue;
+				}
+				double gdop = regularizedGdop(information, unitVectors, c, factor, scratch);
+				if (gdop < bestGdop || best < 0) {
+					bestGdop = gdop;
+					best = c;
+				}
+			}
+			taken[best] = true;
+			selected[s] = candidates[best];
+			addOuterProduct(information, unitVectors, best);
+		}
+		return selected;
+	}
+
+	/**
+	 * Chooses anchors from the ones that heard a target, using the anchors
+	 * with the smallest ranges to get a coarse position of the target.
+	 *
+	 * @param heard anchors that measured the target
+	 * @param ranges measured ranges, indexed like heard
+	 * @return indices into heard of the selected anchors
+	 */
+	public int[] selectAnchors(int[] heard, double[] ranges, int count) {
+		if (heard.length != ranges.length) {
+			throw new IllegalArgumentException("The number of anchors, " + heard.length + ", does not match the number of ranges, " + ranges.length + ".");
+		}
+		int[] closest = smallestRanges(ranges, Math.min(heard.length, CANDIDATE_FACTOR * count));
+		int[] candidates = new int[closest.length];
+		for (int c = 0; c < closest.length; c++) {
+			candidates[c] = heard[closest[c]];
+		}
+
+		// coarse position, weighted centroid of the closest anchors
+		double[] coarsePosition = new double[dimension];
+		double totalWeight = 0.0;
+		for (int c = 0; c < Math.min(closest.length, dimension + 1); c++) {
+			double weight = 1.0 / Math.max(ranges[closest[c]], TrilaterationFunction.epsilon);
+			for (int j = 0; j < dimension; j++) {
+				coarsePosition[j] += weight * positions[candidates[c] * dimension + j];
+			}
+			totalWeight += weight;
+		}
+		for (int j = 0; j < dimension; j++) {
+			coarsePosition[j] /= totalWeight;
+		}
+
+		int[] selected = selectAnchors(coarsePosition, candidates, count);
+		// map back from anchors to slots of heard
+		int[] slots = new int[selected.length];
+		for (int s = 0; s < selected.length; s++) {
+			for (int c = 0; c < candidates.length; c++) {
+				if (candidates[c] == selected[s]) {
+					slots[s] = closest[c];
+					break;
+				}
+			}
+		}
+		return slots;
+	}
+
+	/**
+	 * Builds the function of the count anchors selected from the ones that heard a target.
+	 */
+	public TrilaterationFunction createFunction(int[] heard, double[] ranges, int count) {
+		int[] slots = selectAnchors(heard, ranges, count);
+		double[][] selectedPositions = new double[slots.length][];
+		double[] selectedRanges = new double[slots.length];
+		for (int s = 0; s < slots.length; s++) {
+			selectedPositions[s] = getPosition(heard[slots[s]]);
+			selectedRanges[s] = ranges[slots[s]];
+		}
+		return new TrilaterationFunction(selectedPositions, selectedRanges);
+	}
+
+	/**
+	 * Geometric dilution of precision of ranging from anchors to a target at point.
+	 *
+	 * @return infinity if the anchors do not determine the position
+	 */
+	public double gdop(double[] point, int[] anchors) {
+		double[] unitVectors = unitVectors(point, anchors);
+		double[] information = new double[dimension * dimension];
+		for (int a = 0; a < anchors.length; a++) {
+			addOuterProduct(information, unitVectors, a);
+		}
+		double[] factor = new double[dimension * dimension];
+		if (!SmallMatrix.cholesky(information, dimension, factor)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return Math.sqrt(SmallMatrix.choleskyInverseTrace(factor, dimension, new double[dimension]));
+	}
+
+	private double regularizedGdop(double[] information, double[] unitVectors, int candidate, double[] factor, double[] scratch) {
+		for (int i = 0; i < dimension; i++) {
+			for (int j = 0; j <= i; j++) {
+				factor[i * dimension + j] = information[i * dimension + j] + unitVectors[candidate * dimension + i] * unitVectors[candidate * dimension + j];
+			}
+			factor[i * dimension + i] += GDOP_REGULARIZATION;
+		}
+		if (!SmallMatrix.cholesky(factor, dimension, factor)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return Math.sqrt(SmallMatrix.choleskyInverseTrace(factor, dimension, scratch));
+	}
+
+	private void addOuterProduct(double[] information, double[] unitVectors, int row) {
+		for (int i = 0; i < dimension; i++) {
+			for (int j = 0; j < dimension; j++) {
+				information[i * dimension + j] += unitVectors[row * dimension + i] * unitVectors[row * dimension + j];
+			}
+		}
+	}
+
+	/**
+	 * @return packed unit vectors from each anchor towards point, zero for an anchor at point
+	 */
+	private double[] unitVectors(double[] point, int[] anchors) {
+		double[] unitVectors = new double[anchors.length * dimension];
+		for (int a = 0; a < anchors.length; a++) {
+			double norm = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				double delta = point[j] - positions[anchors[a] * dimension + j];
+				unitVectors[a * dimension + j] = delta;
+				norm += delta * delta;
+			}
+			norm = Math.sqrt(norm);
+			for (int j = 0; j < dimension; j++) {
+				unitVectors[a * dimension + j] = norm > 0.0 ? unitVectors[a * dimension + j] / norm : 0.0;
+			}
+		}
+		return unitVectors;
+	}
+
+	/**
+	 * @return indices of the count smallest ranges, smallest first
+	 */
+	private static int[] smallestRanges(double[] ranges, int count) {
+		int[] smallest = new int[count];
+		int found = 0;
+		for (int i = 0; i < ranges.length; i++) {
+			if (found == count && ranges[i] >= ranges[smallest[count - 1]]) {
+				continue;
+			}
+			int k = found < count ? found++ : count - 1;
+			while (k > 0 && ranges[smallest[k - 1]] > ranges[i]) {
+				smallest[k] = smallest[k - 1];
+				k--;
+			}
+			smallest[k] = i;
+		}
+		return smallest;
+	}
+
+	private void build(int lo, int hi) {
+		if (hi - lo <= 1) {
+			return;
+		}
+		// split on the coordinate with the largest spread
+		int splitDimension = 0;
+		double largestSpread = -1.0;
+		for (int j = 0; j < dimension; j++) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = lo; i < hi; i++) {
+				double value = positions[tree[i] * dimension + j];
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			if (max - min > largestSpread) {
+				largestSpread = max - min;
+				splitDimension = j;
+			}
+		}
+
+		int middle = (lo + hi) >>> 1;
+		select(lo, hi - 1, middle, splitDimension);
+		splitDimensions[middle] = (byte) splitDimension;
+		build(lo, middle);
+		build(middle + 1, hi);
+	}
+
+	/**
+	 * Quickselect, partitions tree[lo..hi] so that tree[k] holds the anchor of rank k along coordinate
+	 */
+	private void select(int lo, int hi, int k, int coordinate) {
+		while (lo < hi) {
+			double pivot = positions[tree[(lo + hi) >>> 1] * dimension + coordinate];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (positions[tree[i] * dimension + coordinate] < pivot) {
+					i++;
+				}
+				while (positions[tree[j] * dimension + coordinate] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int swap = tree[i];
+					tree[i] = tree[j];
+					tree[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Collects the nearest anchors of the subtree [lo, hi) into the sorted arrays nearest and distancesSquared.
+	 *
+	 * @return number of anchors collected so far
+	 */
+	private int search(double[] point, int lo, int hi, int[] nearest, double[] distancesSquared, int found) {
+		if (lo >= hi || nearest.length == 0) {
+			return found;
+		}
+		int middle = (lo + hi) >>> 1;
+		int anchor = tree[middle];
+
+		double distanceSquared = 0.0;
+		for (int j = 0; j < dimension; j++) {
+			double delta = point[j] - positions[anchor * dimension + j];
+			distanceSquared += delta * delta;
+		}
+		if (found < nearest.length || distanceSquared < distancesSquared[found - 1]) {
+			int k = found < nearest.length ? found++ : found - 1;
+			while (k > 0 && distancesSquared[k - 1] > distanceSquared) {
+				nearest[k] = nearest[k - 1];
+				distancesSquared[k] = distancesSquared[k - 1];
+				k--;
+			}
+			nearest[k] = anchor;
+			distancesSquared[k] = distanceSquared;
+		}
+
+		int splitDimension = splitDimensions[middle];
+		double offset = point[splitDimension] - positions[anchor * dimension + splitDimension];
+		if (offset < 0) {
+			found = search(point, lo, middle, nearest, distancesSquared, found);
+			if (found < nearest.length || offset * offset < distancesSquared[found - 1]) {
+				found = search(point, middle + 1, hi, nearest, distancesSquared, found);
+			}
+		} else {
+			found = search(point, middle + 1, hi, nearest, distancesSquared, found);
+			if (found < nearest.length || offset * offset < distancesSquared[found - 1]) {
+				found = search(point, lo, middle, nearest, distancesSquared, found);
+			}
+		}
+		return found;
+	}
+}
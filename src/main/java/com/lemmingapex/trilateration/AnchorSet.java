@@ -0,0 +1,113 @@
+package com.lemmingapex.trilateration;
+
+/**
+ * Immutable set of anchor positions, validated once and meant to be shared
+ * by all the threads solving against the same anchors. Ranges are supplied
+ * per request, either to {@link #createFunction(double[])} or directly to
+ * {@link FixedDimensionSolver#solve(AnchorSet, double[], double[], double[])}.
+ *
+ * The positions are copied on construction and kept packed row by row, as
+ * used by {@link FixedDimensionSolver} and {@link TrilaterationFunction}.
+ */
+public final class AnchorSet {
+
+	private final int dimension;
+	private final int size;
+
+	/**
+	 * Coordinate j of anchor i is at packed[i * dimension + j]
+	 */
+	final double[] packed;
+
+	/**
+	 * One array per anchor, shared by the functions created from this set and never modified
+	 */
+	final double[][] rows;
+
+	/**
+	 * Computed on first use, racing threads compute equal values
+	 */
+	private volatile AnchorGeometry geometry;
+
+	public AnchorSet(double[][] positions) {
+		if (positions.length < 1) {
+			throw new IllegalArgumentException("Need at least one position.");
+		}
+		dimension = positions[0].length;
+		if (dimension < 1) {
+			throw new IllegalArgumentException("The dimension should be positive.");
+		}
+		size = positions.length;
+		packed = FixedDimensionSolver.pack(positions);
+		rows = new double[size][];
+		for (int i = 0; i < size; i++) {
+			rows[i] = positions[i].clone();
+			for (int j = 0; j < dimension; j++) {
+				double coordinate = rows[i][j];
+				if (Double.isNaN(coordinate) || Double.isInfinite(coordinate)) {
+					throw new IllegalArgumentException("The coordinates of position " + i + " should be finite.");
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	public double getCoordinate(int anchor, int j) {
+		return packed[anchor * dimension + j];
+	}
+
+	/**
+	 * Copies the position of an anchor to the beginning of result.
+	 */
+	public void getPosition(int anchor, double[] result) {
+		System.arraycopy(packed, anchor * dimension, result, 0, dimension);
+	}
+
+	/**
+	 * @return a copy of the positions
+	 */
+	public double[][] getPositions() {
+		double[][] positions = new double[size][];
+		for (int i = 0; i < size; i++) {
+			positions[i] = rows[i].clone();
+		}
+		return positions;
+	}
+
+	/**
+	 * @return a copy of the positions packed row by row
+	 */
+	public double[] getPackedPositions() {
+		return packed.clone();
+	}
+
+	/**
+	 * @return the rank and GDOP of the anchors, computed once
+	 */
+	public AnchorGeometry getGeometry() {
+		AnchorGeometry result = geometry;
+		if (result == null) {
+			result = new AnchorGeometry(dimension, packed);
+			geometry = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @param distances measured distances, indexed like the anchors. The array is copied, not modified.
+	 */
+	public TrilaterationFunction createFunction(double[] distances) {
+		return new TrilaterationFunction(this, distances);
+	}
+
+	public TrilaterationFunction createFunction(double[] distances, RangeWeighting weighting) {
+		return new TrilaterationFunction(this, distances, weighting);
+	}
+}
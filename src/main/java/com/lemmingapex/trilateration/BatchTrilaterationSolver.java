@@ -0,0 +1,142 @@
+package com.lemmingapex.trilateration;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Solves many Trilateration problems at once with a
+ * {@link FixedDimensionSolver}, splitting the work across a
+ * {@link ForkJoinPool}.
+ *
+ * Problems are described as flat arrays rather than one
+ * {@link TrilaterationFunction} per problem. Anchors of all problems are
+ * packed back to back in positions and distances, problem p owns anchors
+ * offsets[p] to offsets[p + 1] - 1, so offsets holds one more entry than
+ * there are problems. Results are written to arrays supplied by the caller,
+ * the position of problem p occupies results[p * dimension] to
+ * results[p * dimension + dimension - 1].
+ */
+public class BatchTrilaterationSolver {
+
+	/**
+	 * Number of problems below which a task is no longer split
+	 */
+	public static final int DEFAULT_GRANULARITY = 64;
+
+	protected final FixedDimensionSolver solver;
+	protected final ForkJoinPool pool;
+	protected final int granularity;
+
+	public BatchTrilaterationSolver() {
+		this(new FixedDimensionSolver(), ForkJoinPool.commonPool());
+	}
+
+	public BatchTrilaterationSolver(FixedDimensionSolver solver, ForkJoinPool pool) {
+		this(solver, pool, DEFAULT_GRANULARITY);
+	}
+
+	public BatchTrilaterationSolver(FixedDimensionSolver solver, ForkJoinPool pool, int granularity) {
+		if (granularity < 1) {
+			throw new IllegalArgumentException("The granularity should be positive.");
+		}
+		this.solver = solver;
+		this.pool = pool;
+		this.granularity = granularity;
+	}
+
+	public void solve(int dimension, double[] positions, double[] distances, int[] offsets,
+			double[] results, int[] iterations, boolean[] converged) {
+		solve(dimension, positions, distances, null, offsets, results, iterations, converged);
+	}
+
+	/**
+	 * Solves every problem of the batch, blocking until all of them are done.
+	 *
+	 * @param positions packed positions of the anchors of all problems
+	 * @param distances measured distances, indexed like the anchors
+	 * @param weights weight of each distance, indexed like the anchors, or null to use the inverse square law
+	 * @param offsets index of the first anchor of each problem, followed by the total number of anchors
+	 * @param results receives the position of each problem
+	 * @param iterations receives the number of iterations of each problem, may be null
+	 * @param converged receives whether each problem converged, may be null
+	 */
+	public void solve(int dimension, double[] positions, double[] distances, double[] weights, int[] offsets,
+			double[] results, int[] iterations, boolean[] converged) {
+
+		int numberOfProblems = offsets.length - 1;
+		if (numberOfProblems < 0) {
+			throw new IllegalArgumentException("The offsets should hold at least the total number of anchors.");
+		}
+		int numberOfAnchors = offsets[numberOfProblems];
+		if (positions.length < numberOfAnchors * dimension || distances.length < numberOfAnchors || (weights != null && weights.length < numberOfAnchors)) {
+			throw new IllegalArgumentException("The positions and distances provided do not hold " + numberOfAnchors + " anchors.");
+		}
+		if (results.length < numberOfProblems * dimension || (iterations != null && iterations.length < numberOfProblems)
+				|| (converged != null && converged.length < numberOfProblems)) {
+			throw new IllegalArgumentException("The result arrays provided cannot hold " + numberOfProblems + " results.");
+		}
+
+		BatchTask task = new BatchTask(dimension, positions, distances, weights, offsets, results, iterations, converged, 0, numberOfProblems);
+		if (numberOfProblems <= granularity) {
+			task.solveRange();
+		} else {
+			pool.invoke(task);
+		}
+	}
+
+	private final class BatchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int dimension;
+		private final double[] positions;
+		private final double[] distances;
+		private final double[] weights;
+		private final int[] offsets;
+		private final double[] results;
+		private final int[] iterations;
+		private final boolean[] converged;
+		private final int from;
+		private final int to;
+
+		BatchTask(int dimension, double[] positions, double[] distances, double[] weights, int[] offsets,
+				double[] results, int[] iterations, boolean[] converged, int from, int to) {
+			this.dimension = dimension;
+			this.positions = positions;
+			this.distances = distances;
+			this.weights = weights;
+			this.offsets = offsets;
+			this.results = results;
+			this.iterations = iterations;
+			this.converged = converged;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= granularity) {
+				solveRange();
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new BatchTask(dimension, positions, distances, weights, offsets, results, iterations, converged, from, middle),
+					new BatchTask(dimension, positions, distances, weights, offsets, results, iterations, converged, middle, to));
+		}
+
+		void solveRange() {
+			SolverWorkspace workspace = SolverWorkspace.current();
+			for (int p = from; p < to; p++) {
+				int offset = offsets[p];
+				boolean problemConverged = solver.solve(dimension, positions, distances, weights, offset, offsets[p + 1] - offset,
+						null, results, p * dimension, workspace);
+				if (iterations != null) {
+					iterations[p] = workspace.getIterations();
+				}
+				if (converged != null) {
+					converged[p] = problemConverged;
+				}
+			}
+		}
+	}
+}
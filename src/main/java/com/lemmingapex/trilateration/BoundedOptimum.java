@@ -0,0 +1,106 @@
+package com.lemmingapex.trilateration;
+
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresProblem.Evaluation;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Result of a solve bounded by {@link SolveOptions}. When a limit was hit,
+ * this is the evaluation at the best point found before stopping.
+ */
+public class BoundedOptimum implements Optimum {
+
+	public enum Status {
+		/**
+		 * The convergence criteria were met
+		 */
+		CONVERGED,
+		MAX_ITERATIONS,
+		MAX_EVALUATIONS,
+		DEADLINE,
+		/**
+		 * The anchors do not determine a position, the point is the projection of the target onto their hull
+		 */
+		REDUCED_DIMENSION,
+		/**
+		 * The anchors do not span all dimensions, the point is one of two mirror images across their hull that fit equally well, the one on the side of the initial point
+		 */
+		AMBIGUOUS
+	}
+
+	protected final Evaluation evaluation;
+	protected final int evaluations;
+	protected final int iterations;
+	protected final Status status;
+
+	public BoundedOptimum(Evaluation evaluation, int evaluations, int iterations, Status status) {
+		this.evaluation = evaluation;
+		this.evaluations = evaluations;
+		this.iterations = iterations;
+		this.status = status;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return true if the point is a solution, either converged or reduced to the hull of the anchors
+	 */
+	public boolean isConverged() {
+		return status == Status.CONVERGED || status == Status.REDUCED_DIMENSION;
+	}
+
+	/**
+	 * @return the covariance and error ellipse of the point, computed in closed form from the Jacobian
+	 */
+	public PositionUncertainty getUncertainty() {
+		return PositionUncertainty.of(this);
+	}
+
+	@Override
+	public int getEvaluations() {
+		return evaluations;
+	}
+
+	@Override
+	public int getIterations() {
+		return iterations;
+	}
+
+	@Override
+	public RealMatrix getCovariances(double threshold) {
+		return evaluation.getCovariances(threshold);
+	}
+
+	@Override
+	public RealVector getSigma(double covarianceSingularityThreshold) {
+		return evaluation.getSigma(covarianceSingularityThreshold);
+	}
+
+	@Override
+	public double getRMS() {
+		return evaluation.getRMS();
+	}
+
+	@Override
+	public RealMatrix getJacobian() {
+		return evaluation.getJacobian();
+	}
+
+	@Override
+	public double getCost() {
+		return evaluation.getCost();
+	}
+
+	@Override
+	public RealVector getResiduals() {
+		return evaluation.getResiduals();
+	}
+
+	@Override
+	public RealVector getPoint() {
+		return evaluation.getPoint();
+	}
+}
@@ -0,0 +1,298 @@
+package com.lemmingapex.trilateration;
+
+/**
+ * Direct solutions of the minimal Trilateration problems, without iterating.
+ *
+ * With one more anchor than the dimension, 2 anchors in 1D, 3 in 2D or 4 in
+ * 3D, subtracting the equation of the first anchor from the others leaves a
+ * square linear system, solved here by Cramer's rule. With as many anchors as
+ * the dimension, 2 in 2D or 3 in 3D, the circles or spheres intersect in two
+ * points mirrored across the anchors, {@link #intersect} returns both.
+ *
+ * The solvers dispatch to these when a problem has exactly these anchor
+ * counts and the ranges are consistent, see {@link #solveExact}. Positions are
+ * packed as in {@link FixedDimensionSolver}. The variants taking a scratch
+ * array do not allocate, {@link SolverWorkspace} holds one large enough.
+ */
+public final class ClosedFormSolver {
+
+	/**
+	 * Largest residual of a range, relative to the range, for which a closed form solution is considered exact
+	 */
+	public static final double EXACT_TOLERANCE = 1E-9;
+
+	/**
+	 * Ratio of the determinant to the product of the row norms below which the anchors are considered singular
+	 */
+	private static final double SINGULARITY_THRESHOLD = 1E-12;
+
+	private ClosedFormSolver() {
+	}
+
+	/**
+	 * Solves the dimension + 1 anchors from offset, in 1, 2 or 3 dimensions.
+	 * The solution is exact for consistent ranges and a least squares
+	 * compromise otherwise.
+	 *
+	 * @param result receives the solution
+	 * @return false if the anchors are singular, collinear in 2D or coplanar in 3D
+	 */
+	public static boolean solve(int dimension, double[] positions, double[] distances, int offset, double[] result) {
+		return solve(dimension, positions, distances, offset, result, new double[scratchLength(dimension)]);
+	}
+
+	/**
+	 * @param scratch at least {@link #scratchLength(int)} entries
+	 * @see #solve(int, double[], double[], int, double[])
+	 */
+	public static boolean solve(int dimension, double[] positions, double[] distances, int offset, double[] result, double[] scratch) {
+		if (dimension < 1 || dimension > 3) {
+			throw new IllegalArgumentException("Only 1, 2 and 3 dimensions have a closed form solution.");
+		}
+		int reference = offset * dimension;
+		double r0 = distances[offset];
+		double r0squared = r0 * r0;
+
+		// rows (p_i - p_0) in a, right hand side 0.5 * (|p_i - p_0|^2 - r_i^2 + r_0^2) in b
+		double[] a = scratch;
+		int b = dimension * dimension;
+		double rowNormProduct = 1.0;
+		for (int i = 0; i < dimension; i++) {
+			int anchor = (offset + 1 + i) * dimension;
+			double normSquared = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				double delta = positions[anchor + j] - positions[reference + j];
+				a[i * dimension + j] = delta;
+				normSquared += delta * delta;
+			}
+			double ri = distances[offset + 1 + i];
+			scratch[b + i] = 0.5 * (normSquared - ri * ri + r0squared);
+			rowNormProduct *= Math.sqrt(normSquared);
+		}
+
+		switch (dimension) {
+		case 1: {
+			if (!(Math.abs(a[0]) > 0.0)) {
+				return false;
+			}
+			result[0] = positions[reference] + scratch[b] / a[0];
+			return true;
+		}
+		case 2: {
+			double determinant = a[0] * a[3] - a[1] * a[2];
+			if (!(Math.abs(determinant) > SINGULARITY_THRESHOLD * rowNormProduct)) {
+				return false;
+			}
+			double b0 = scratch[b];
+			double b1 = scratch[b + 1];
+			result[0] = positions[reference] + (b0 * a[3] - a[1] * b1) / determinant;
+			result[1] = positions[reference + 1] + (a[0] * b1 - b0 * a[2]) / determinant;
+			return true;
+		}
+		default: {
+			double c00 = a[4] * a[8] - a[5] * a[7];
+			double c01 = a[5] * a[6] - a[3] * a[8];
+			double c02 = a[3] * a[7] - a[4] * a[6];
+			double determinant = a[0] * c00 + a[1] * c01 + a[2] * c02;
+			if (!(Math.abs(determinant) > SINGULARITY_THRESHOLD * rowNormProduct)) {
+				return false;
+			}
+			// Cramer's rule, each coordinate is the determinant with its column replaced by b
+			double b0 = scratch[b];
+			double b1 = scratch[b + 1];
+			double b2 = scratch[b + 2];
+			double x = b0 * c00 + a[1] * (a[5] * b2 - b1 * a[8]) + a[2] * (b1 * a[7] - a[4] * b2);
+			double y = a[0] * (b1 * a[8] - a[5] * b2) + b0 * c01 + a[2] * (a[3] * b2 - b1 * a[6]);
+			double z = a[0] * (a[4] * b2 - b1 * a[7]) + a[1] * (b1 * a[6] - a[3] * b2) + b0 * c02;
+			result[0] = positions[reference] + x / determinant;
+			result[1] = positions[reference + 1] + y / determinant;
+			result[2] = positions[reference + 2] + z / determinant;
+			return true;
+		}
+		}
+	}
+
+	/**
+	 * Intersects the circles, or spheres, of the dimension anchors from
+	 * offset, 1 anchor in 1D, 2 in 2D or 3 in 3D.
+	 *
+	 * @param first receives the first candidate
+	 * @param second receives the second candidate, its mirror across the anchors
+	 * @return 2 if the ranges intersect in two points, 1 if they touch or miss
+	 *         each other, first is then the point of the hull of the anchors
+	 *         closest to the ranges, 0 if the anchors are singular
+	 */
+	public static int intersect(int dimension, double[] positions, double[] distances, int offset, double[] first, double[] second) {
+		return intersect(dimension, positions, distances, offset, first, second, new double[scratchLength(dimension)]);
+	}
+
+	/**
+	 * @param scratch at least {@link #scratchLength(int)} entries
+	 * @see #intersect(int, double[], double[], int, double[], double[])
+	 */
+	public static int intersect(int dimension, double[] positions, double[] distances, int offset, double[] first, double[] second, double[] scratch) {
+		int p0 = offset * dimension;
+		double r0 = distances[offset];
+		double heightSquared;
+		switch (dimension) {
+		case 1: {
+			first[0] = positions[p0] + r0;
+			second[0] = positions[p0] - r0;
+			return r0 > 0.0 ? 2 : 1;
+		}
+		case 2: {
+			int p1 = p0 + 2;
+			double ex = positions[p1] - positions[p0];
+			double ey = positions[p1 + 1] - positions[p0 + 1];
+			double d = Math.sqrt(ex * ex + ey * ey);
+			if (!(d > 0.0)) {
+				return 0;
+			}
+			ex /= d;
+			ey /= d;
+			double r1 = distances[offset + 1];
+			double along = (r0 * r0 - r1 * r1 + d * d) / (2.0 * d);
+			heightSquared = r0 * r0 - along * along;
+			double height = heightSquared > 0.0 ? Math.sqrt(heightSquared) : 0.0;
+			first[0] = positions[p0] + along * ex - height * ey;
+			first[1] = positions[p0 + 1] + along * ey + height * ex;
+			second[0] = positions[p0] + along * ex + height * ey;
+			second[1] = positions[p0 + 1] + along * ey - height * ex;
+			break;
+		}
+		case 3: {
+			int p1 = p0 + 3;
+			int p2 = p0 + 6;
+			// unit vectors of the frame of the anchors, ex toward the second, ey toward the third in their plane, ez normal to it
+			int ex = 0;
+			int ey = 3;
+			int ez = 6;
+			int toThird = 9;
+			double d = 0.0;
+			for (int j = 0; j < 3; j++) {
+				scratch[ex + j] = positions[p1 + j] - positions[p0 + j];
+				scratch[toThird + j] = positions[p2 + j] - positions[p0 + j];
+				d += scratch[ex + j] * scratch[ex + j];
+			}
+			d = Math.sqrt(d);
+			if (!(d > 0.0)) {
+				return 0;
+			}
+			double i = 0.0;
+			for (int j = 0; j < 3; j++) {
+				scratch[ex + j] /= d;
+				i += scratch[ex + j] * scratch[toThird + j];
+			}
+			double jNorm = 0.0;
+			for (int j = 0; j < 3; j++) {
+				scratch[ey + j] = scratch[toThird + j] - i * scratch[ex + j];
+				jNorm += scratch[ey + j] * scratch[ey + j];
+			}
+			jNorm = Math.sqrt(jNorm);
+			if (!(jNorm > SINGULARITY_THRESHOLD * d)) {
+				return 0;
+			}
+			for (int j = 0; j < 3; j++) {
+				scratch[ey + j] /= jNorm;
+			}
+			for (int j = 0; j < 3; j++) {
+				int k = (j + 1) % 3;
+				int m = (j + 2) % 3;
+				scratch[ez + j] = scratch[ex + k] * scratch[ey + m] - scratch[ex + m] * scratch[ey + k];
+			}
+
+			double r1 = distances[offset + 1];
+			double r2 = distances[offset + 2];
+			double x = (r0 * r0 - r1 * r1 + d * d) / (2.0 * d);
+			double y = (r0 * r0 - r2 * r2 + i * i + jNorm * jNorm) / (2.0 * jNorm) - i * x / jNorm;
+			heightSquared = r0 * r0 - x * x - y * y;
+			double height = heightSquared > 0.0 ? Math.sqrt(heightSquared) : 0.0;
+			for (int j = 0; j < 3; j++) {
+				double inPlane = positions[p0 + j] + x * scratch[ex + j] + y * scratch[ey + j];
+				first[j] = inPlane + height * scratch[ez + j];
+				second[j] = inPlane - height * scratch[ez + j];
+			}
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("Only 1, 2 and 3 dimensions have a closed form solution.");
+		}
+		return heightSquared > 0.0 ? 2 : 1;
+	}
+
+	/**
+	 * @return true if every range of the count anchors from offset matches the distance of point to its anchor within {@link #EXACT_TOLERANCE}
+	 */
+	public static boolean isExact(int dimension, double[] positions, double[] distances, int offset, int count, double[] point) {
+		for (int i = offset; i < offset + count; i++) {
+			double distanceSquared = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				double delta = point[j] - positions[i * dimension + j];
+				distanceSquared += delta * delta;
+			}
+			double range = Math.max(distances[i], TrilaterationFunction.epsilon);
+			// |d^2 - r^2| = |d - r| (d + r), compared to the tolerance on |d - r|
+			if (!(Math.abs(distanceSquared - range * range) <= EXACT_TOLERANCE * range * (Math.sqrt(distanceSquared) + range))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Looks for the exact solution of a minimal problem: dimension + 1
+	 * anchors, or dimension anchors when the ranges touch in a single point
+	 * or when near picks one of the two intersections.
+	 *
+	 * @param near point used to choose between two intersections, may be null
+	 * @param result receives the solution
+	 * @param second at least dimension entries, receives the other intersection
+	 * @return false if the problem is not minimal, not in 1 to 3 dimensions, singular or has inconsistent ranges
+	 */
+	public static boolean solveExact(int dimension, double[] positions, double[] distances, int offset, int count, double[] near, double[] result, double[] second) {
+		return solveExact(dimension, positions, distances, offset, count, near, result, second, new double[scratchLength(dimension)]);
+	}
+
+	/**
+	 * @param scratch at least {@link #scratchLength(int)} entries
+	 * @see #solveExact(int, double[], double[], int, int, double[], double[], double[])
+	 */
+	public static boolean solveExact(int dimension, double[] positions, double[] distances, int offset, int count, double[] near, double[] result, double[] second,
+			double[] scratch) {
+		if (dimension > 3) {
+			return false;
+		}
+		if (count == dimension + 1) {
+			return solve(dimension, positions, distances, offset, result, scratch) && isExact(dimension, positions, distances, offset, count, result);
+		}
+		if (count != dimension) {
+			return false;
+		}
+		int candidates = intersect(dimension, positions, distances, offset, result, second, scratch);
+		if (candidates == 2) {
+			if (near == null) {
+				return false;
+			}
+			if (squaredDistance(dimension, second, near) < squaredDistance(dimension, result, near)) {
+				System.arraycopy(second, 0, result, 0, dimension);
+			}
+		}
+		return candidates > 0 && isExact(dimension, positions, distances, offset, count, result);
+	}
+
+	/**
+	 * @return the number of scratch entries the solvers need in this dimension
+	 */
+	public static int scratchLength(int dimension) {
+		return dimension * (dimension + 1);
+	}
+
+	private static double squaredDistance(int dimension, double[] a, double[] b) {
+		double sum = 0.0;
+		for (int j = 0; j < dimension; j++) {
+			double delta = a[j] - b[j];
+			sum += delta * delta;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,21 @@
+package com.lemmingapex.trilateration;
+
+/**
+ * Thrown when the anchors of a problem do not determine a position well
+ * enough for the {@link SolveOptions} of the solve.
+ */
+public class DegenerateGeometryException extends IllegalArgumentException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final AnchorGeometry geometry;
+
+	public DegenerateGeometryException(String message, AnchorGeometry geometry) {
+		super(message);
+		this.geometry = geometry;
+	}
+
+	public AnchorGeometry getGeometry() {
+		return geometry;
+	}
+}
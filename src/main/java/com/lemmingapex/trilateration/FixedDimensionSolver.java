@@ -0,0 +1,434 @@
+package com.lemmingapex.trilateration;
+
+/**
+ * Solves the same weighted least squares formulation as
+ * {@link NonLinearLeastSquaresSolver} with {@link TrilaterationFunction}, but
+ * directly on primitive arrays. The residual and Jacobian evaluation is
+ * specialized for 2D and 3D and folds straight into the normal equations, so
+ * no matrices are materialized. All scratch memory comes from a
+ * {@link SolverWorkspace}, so a warm solver does not allocate.
+ *
+ * Anchor positions are packed row by row, the position of anchor i occupies
+ * positions[i * dimension] to positions[i * dimension + dimension - 1].
+ *
+ * Instances are immutable and may be shared between threads, as long as each
+ * thread uses its own workspace.
+ */
+public class FixedDimensionSolver {
+
+	public enum Method {
+		LEVENBERG_MARQUARDT, GAUSS_NEWTON
+	}
+
+	public static final double DEFAULT_COST_RELATIVE_TOLERANCE = 1E-10;
+	public static final double DEFAULT_PARAMETER_RELATIVE_TOLERANCE = 1E-10;
+
+	/**
+	 * Initial damping, relative to the largest diagonal entry of the normal matrix
+	 */
+	private static final double INITIAL_DAMPING = 1E-3;
+
+	protected final Method method;
+	protected final int maxIterations;
+	protected final double costRelativeTolerance;
+	protected final double parameterRelativeTolerance;
+
+	public FixedDimensionSolver() {
+		this(Method.LEVENBERG_MARQUARDT);
+	}
+
+	public FixedDimensionSolver(Method method) {
+		this(method, NonLinearLeastSquaresSolver.MAXNUMBEROFITERATIONS, DEFAULT_COST_RELATIVE_TOLERANCE, DEFAULT_PARAMETER_RELATIVE_TOLERANCE);
+	}
+
+	public FixedDimensionSolver(Method method, int maxIterations, double costRelativeTolerance, double parameterRelativeTolerance) {
+		if (maxIterations < 1) {
+			throw new IllegalArgumentException("The maximum number of iterations should be positive.");
+		}
+		this.method = method;
+		this.maxIterations = maxIterations;
+		this.costRelativeTolerance = costRelativeTolerance;
+		this.parameterRelativeTolerance = parameterRelativeTolerance;
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	/**
+	 * Solves using all anchors, inverse square law weights and the workspace of the calling thread.
+	 *
+	 * @param initialPoint starting point, or null to start at the centroid of the anchors
+	 * @param result receives the solution
+	 * @return whether the solve converged
+	 */
+	public boolean solve(int dimension, double[] positions, double[] distances, double[] initialPoint, double[] result) {
+		return solve(dimension, positions, distances, null, 0, distances.length, initialPoint, result, 0, SolverWorkspace.current());
+	}
+
+	/**
+	 * Solves against shared anchors, with inverse square law weights and the
+	 * workspace of the calling thread. When the anchors do not determine a
+	 * position, the solution is computed in closed form instead of iterating,
+	 * see {@link AnchorGeometry}: the projection of the target onto their hull
+	 * without initial point, the estimate on the side of the initial point
+	 * otherwise.
+	 *
+	 * @param distances measured distances, indexed like the anchors
+	 * @param initialPoint starting point, or null to start at the centroid of the anchors
+	 * @param result receives the solution
+	 * @return whether the solve converged, false when the solution on the side of initialPoint is only one of two mirror images
+	 */
+	public boolean solve(AnchorSet anchors, double[] distances, double[] initialPoint, double[] result) {
+		return solve(anchors, distances, initialPoint, result, 0, SolverWorkspace.current());
+	}
+
+	boolean solve(AnchorSet anchors, double[] distances, double[] initialPoint, double[] result, int resultOffset, SolverWorkspace workspace) {
+		int dimension = anchors.getDimension();
+		AnchorGeometry geometry = anchors.getGeometry();
+		if (!geometry.isDegenerate()) {
+			return solve(dimension, anchors.packed, distances, null, 0, anchors.size(), initialPoint, result, resultOffset, workspace);
+		}
+		if (distances.length < anchors.size()) {
+			throw new IllegalArgumentException("The distances provided do not hold " + anchors.size() + " anchors.");
+		}
+
+		workspace.ensureCapacity(dimension);
+		if (initialPoint == null) {
+			geometry.solveReduced(distances, workspace.point);
+		} else {
+			geometry.solveOffHull(distances, initialPoint, workspace.point);
+		}
+		System.arraycopy(workspace.point, 0, result, resultOffset, dimension);
+		workspace.dimension = dimension;
+		workspace.iterations = 0;
+		workspace.evaluations = 1;
+		workspace.chiSquare = evaluate(dimension, anchors.packed, distances, null, 0, anchors.size(), workspace.point, workspace.normal, workspace.gradient);
+		workspace.observations = anchors.size();
+		workspace.converged = initialPoint == null;
+		return workspace.converged;
+	}
+
+	/**
+	 * Solves the problem formed by anchors offset to offset + count - 1.
+	 * Iteration statistics are left in the workspace.
+	 *
+	 * @param positions packed anchor positions
+	 * @param distances measured distances, indexed like the anchors. Values are bounded to a strictly positive domain, the array is not modified.
+	 * @param weights weight of each distance, indexed like the anchors, or null to use the inverse square law
+	 * @param initialPoint starting point, or null to start at the centroid of the anchors
+	 * @param result receives the solution at resultOffset, may be the same array as initialPoint
+	 * @return whether the solve converged
+	 */
+	public boolean solve(int dimension, double[] positions, double[] distances, double[] weights, int offset, int count,
+			double[] initialPoint, double[] result, int resultOffset, SolverWorkspace workspace) {
+
+		if (dimension < 1) {
+			throw new IllegalArgumentException("The dimension should be positive.");
+		}
+		if (count < 1 || positions.length < (offset + count) * dimension || distances.length < offset + count) {
+			throw new IllegalArgumentException("The positions and distances provided do not hold " + count + " anchors at offset " + offset + ".");
+		}
+
+		workspace.ensureCapacity(dimension);
+		double[] point = workspace.point;
+
+		// minimal problems with consistent ranges are solved directly, otherwise their closed form is a better start than the centroid
+		boolean closedForm = count == dimension + 1 && dimension <= 3 && ClosedFormSolver.solve(dimension, positions, distances, offset, point, workspace.closedForm);
+		boolean exact = closedForm ? ClosedFormSolver.isExact(dimension, positions, distances, offset, count, point)
+				: count == dimension && ClosedFormSolver.solveExact(dimension, positions, distances, offset, count, initialPoint, point, workspace.trial, workspace.closedForm);
+		if (exact) {
+			System.arraycopy(point, 0, result, resultOffset, dimension);
+			workspace.dimension = dimension;
+			workspace.iterations = 0;
+			workspace.evaluations = 1;
+			workspace.chiSquare = evaluate(dimension, positions, distances, weights, offset, count, point, workspace.normal, workspace.gradient);
+			workspace.observations = count;
+			workspace.converged = true;
+			return true;
+		}
+		if (initialPoint != null) {
+			System.arraycopy(initialPoint, 0, point, 0, dimension);
+		} else if (!closedForm) {
+			centroid(dimension, positions, offset, count, point);
+		}
+
+		boolean levenbergMarquardt = method == Method.LEVENBERG_MARQUARDT;
+		double[] trial = workspace.trial;
+		double[] step = workspace.step;
+		double[] factor = workspace.factor;
+
+		double chiSquare = evaluate(dimension, positions, distances, weights, offset, count, point, workspace.normal, workspace.gradient);
+		int evaluations = 1;
+		int iterations = 0;
+		boolean converged = false;
+
+		double damping = 0.0;
+		double dampingGrowth = 2.0;
+		if (levenbergMarquardt) {
+			double maxDiagonal = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				maxDiagonal = Math.max(maxDiagonal, workspace.normal[j * dimension + j]);
+			}
+			damping = INITIAL_DAMPING * (maxDiagonal > 0.0 ? maxDiagonal : 1.0);
+		}
+
+		while (iterations < maxIterations) {
+			if (chiSquare == 0.0) {
+				converged = true;
+				break;
+			}
+			iterations++;
+
+			double[] normal = workspace.normal;
+			double[] gradient = workspace.gradient;
+
+			// damped normal equations, (J^T W J + damping I) step = -J^T W r
+			for (int i = 0; i < dimension; i++) {
+				for (int j = 0; j <= i; j++) {
+					factor[i * dimension + j] = normal[i * dimension + j];
+				}
+				factor[i * dimension + i] += damping;
+			}
+			if (!SmallMatrix.cholesky(factor, dimension, factor)) {
+				if (!levenbergMarquardt || Double.isInfinite(damping)) {
+					break;
+				}
+				damping *= dampingGrowth;
+				dampingGrowth *= 2.0;
+				continue;
+			}
+			SmallMatrix.choleskySolve(factor, dimension, gradient, step);
+
+			double stepNorm = 0.0;
+			double pointNorm = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				step[j] = -step[j];
+				trial[j] = point[j] + step[j];
+				stepNorm += step[j] * step[j];
+				pointNorm += point[j] * point[j];
+			}
+			stepNorm = Math.sqrt(stepNorm);
+			pointNorm = Math.sqrt(pointNorm);
+			if (stepNorm <= parameterRelativeTolerance * (pointNorm + parameterRelativeTolerance)) {
+				converged = true;
+				break;
+			}
+
+			// the candidate gets evaluated into the spare buffers, they are swapped in if the step is accepted
+			double[] trialNormal = workspace.trialNormal;
+			double[] trialGradient = workspace.trialGradient;
+			double trialChiSquare = evaluate(dimension, positions, distances, weights, offset, count, trial, trialNormal, trialGradient);
+			evaluations++;
+
+			double reduction = chiSquare - trialChiSquare;
+			if (levenbergMarquardt) {
+				double predictedReduction = 0.0;
+				for (int j = 0; j < dimension; j++) {
+					predictedReduction += step[j] * (damping * step[j] - gradient[j]);
+				}
+				double ratio = predictedReduction > 0.0 ? reduction / predictedReduction : -1.0;
+				if (!(ratio > 0.0)) {
+					damping *= dampingGrowth;
+					dampingGrowth *= 2.0;
+					continue;
+				}
+				double shrink = 2.0 * ratio - 1.0;
+				damping *= Math.max(1.0 / 3.0, 1.0 - shrink * shrink * shrink);
+				dampingGrowth = 2.0;
+			}
+
+			workspace.trial = point;
+			workspace.point = trial;
+			workspace.trialNormal = normal;
+			workspace.normal = trialNormal;
+			workspace.trialGradient = gradient;
+			workspace.gradient = trialGradient;
+			point = trial;
+			trial = workspace.trial;
+
+			double previousChiSquare = chiSquare;
+			chiSquare = trialChiSquare;
+			if (Math.abs(reduction) <= costRelativeTolerance * previousChiSquare) {
+				converged = true;
+				break;
+			}
+		}
+
+		System.arraycopy(point, 0, result, resultOffset, dimension);
+		workspace.dimension = dimension;
+		workspace.iterations = iterations;
+		workspace.evaluations = evaluations;
+		workspace.chiSquare = chiSquare;
+		workspace.observations = count;
+		workspace.converged = converged;
+		return converged;
+	}
+
+	/**
+	 * Packs positions row by row into the layout used by this solver.
+	 */
+	public static double[] pack(double[][] positions) {
+		int positionDimension = positions[0].length;
+		double[] packed = new double[positions.length * positionDimension];
+		for (int i = 0; i < positions.length; i++) {
+			if (positions[i].length != positionDimension) {
+				throw new IllegalArgumentException("The dimension of all positions should be the same.");
+			}
+			System.arraycopy(positions[i], 0, packed, i * positionDimension, positionDimension);
+		}
+		return packed;
+	}
+
+	static void centroid(int dimension, double[] positions, int offset, int count, double[] centroid) {
+		for (int j = 0; j < dimension; j++) {
+			centroid[j] = 0.0;
+		}
+		for (int i = offset; i < offset + count; i++) {
+			for (int j = 0; j < dimension; j++) {
+				centroid[j] += positions[i * dimension + j];
+			}
+		}
+		for (int j = 0; j < dimension; j++) {
+			centroid[j] /= count;
+		}
+	}
+
+	/**
+	 * Accumulates J^T W J and J^T W r at point, where r[i] = |point - position[i]|^2 - distance[i]^2 and J[i] = 2 (point - position[i]).
+	 *
+	 * @return the weighted sum of squared residuals, r^T W r
+	 */
+	static double evaluate(int dimension, double[] positions, double[] distances, double[] weights, int offset, int count,
+			double[] point, double[] normal, double[] gradient) {
+		switch (dimension) {
+		case 2:
+			return evaluate2D(positions, distances, weights, offset, count, point, normal, gradient);
+		case 3:
+			return evaluate3D(positions, distances, weights, offset, count, point, normal, gradient);
+		default:
+			return evaluateND(dimension, positions, distances, weights, offset, count, point, normal, gradient);
+		}
+	}
+
+	private static double evaluate2D(double[] positions, double[] distances, double[] weights, int offset, int count,
+			double[] point, double[] normal, double[] gradient) {
+		double x = point[0];
+		double y = point[1];
+		double chiSquare = 0.0;
+		double gx = 0.0, gy = 0.0;
+		double nxx = 0.0, nxy = 0.0, nyy = 0.0;
+		for (int i = offset, end = offset + count; i < end; i++) {
+			double dx = x - positions[2 * i];
+			double dy = y - positions[2 * i + 1];
+			double distance = Math.max(distances[i], TrilaterationFunction.epsilon);
+			double distanceSquared = distance * distance;
+			double weight = weights == null ? 1.0 / distanceSquared : weights[i];
+			double residual = dx * dx + dy * dy - distanceSquared;
+			double jx = 2.0 * dx;
+			double jy = 2.0 * dy;
+			double weightedResidual = weight * residual;
+			chiSquare += weightedResidual * residual;
+			gx += weightedResidual * jx;
+			gy += weightedResidual * jy;
+			nxx += weight * jx * jx;
+			nxy += weight * jx * jy;
+			nyy += weight * jy * jy;
+		}
+		gradient[0] = gx;
+		gradient[1] = gy;
+		normal[0] = nxx;
+		normal[1] = nxy;
+		normal[2] = nxy;
+		normal[3] = nyy;
+		return chiSquare;
+	}
+
+	private static double evaluate3D(double[] positions, double[] distances, double[] weights, int offset, int count,
+			double[] point, double[] normal, double[] gradient) {
+		double x = point[0];
+		double y = point[1];
+		double z = point[2];
+		double chiSquare = 0.0;
+		double gx = 0.0, gy = 0.0, gz = 0.0;
+		double nxx = 0.0, nxy = 0.0, nxz = 0.0, nyy = 0.0, nyz = 0.0, nzz = 0.0;
+		for (int i = offset, end = offset + count; i < end; i++) {
+			double dx = x - positions[3 * i];
+			double dy = y - positions[3 * i + 1];
+			double dz = z - positions[3 * i + 2];
+			double distance = Math.max(distances[i], TrilaterationFunction.epsilon);
+			double distanceSquared = distance * distance;
+			double weight = weights == null ? 1.0 / distanceSquared : weights[i];
+			double residual = dx * dx + dy * dy + dz * dz - distanceSquared;
+			double jx = 2.0 * dx;
+			double jy = 2.0 * dy;
+			double jz = 2.0 * dz;
+			double weightedResidual = weight * residual;
+			chiSquare += weightedResidual * residual;
+			gx += weightedResidual * jx;
+			gy += weightedResidual * jy;
+			gz += weightedResidual * jz;
+			nxx += weight * jx * jx;
+			nxy += weight * jx * jy;
+			nxz += weight * jx * jz;
+			nyy += weight * jy * jy;
+			nyz += weight * jy * jz;
+			nzz += weight * jz * jz;
+		}
+		gradient[0] = gx;
+		gradient[1] = gy;
+		gradient[2] = gz;
+		normal[0] = nxx;
+		normal[1] = nxy;
+		normal[2] = nxz;
+		normal[3] = nxy;
+		normal[4] = nyy;
+		normal[5] = nyz;
+		normal[6] = nxz;
+		normal[7] = nyz;
+		normal[8] = nzz;
+		return chiSquare;
+	}
+
+	private static double evaluateND(int dimension, double[] positions, double[] distances, double[] weights, int offset, int count,
+			double[] point, double[] normal, double[] gradient) {
+		for (int j = 0; j < dimension; j++) {
+			gradient[j] = 0.0;
+			for (int k = 0; k < dimension; k++) {
+				normal[j * dimension + k] = 0.0;
+			}
+		}
+		double chiSquare = 0.0;
+		for (int i = offset, end = offset + count; i < end; i++) {
+			int base = i * dimension;
+			double residual = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				double delta = point[j] - positions[base + j];
+				residual += delta * delta;
+			}
+			double distance = Math.max(distances[i], TrilaterationFunction.epsilon);
+			double distanceSquared = distance * distance;
+			double weight = weights == null ? 1.0 / distanceSquared : weights[i];
+			residual -= distanceSquared;
+			double weightedResidual = weight * residual;
+			chiSquare += weightedResidual * residual;
+			for (int j = 0; j < dimension; j++) {
+				double jj = 2.0 * (point[j] - positions[base + j]);
+				gradient[j] += weightedResidual * jj;
+				for (int k = 0; k <= j; k++) {
+					normal[j * dimension + k] += weight * jj * 2.0 * (point[k] - positions[base + k]);
+				}
+			}
+		}
+		for (int j = 0; j < dimension; j++) {
+			for (int k = 0; k < j; k++) {
+				normal[k * dimension + j] = normal[j * dimension + k];
+			}
+		}
+		return chiSquare;
+	}
+}
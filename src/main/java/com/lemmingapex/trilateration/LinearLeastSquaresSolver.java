@@ -12,14 +12,24 @@ import org.apache.commons.math3.linear.*;
 public class LinearLeastSquaresSolver {
 
     protected final TrilaterationFunction function;
+    protected final SolverListener listener;
 
     public LinearLeastSquaresSolver(TrilaterationFunction function) {
+        this(function, SolverListener.NONE);
+    }
+
+    /**
+     * @param listener notified of the outcome of every solve
+     */
+    public LinearLeastSquaresSolver(TrilaterationFunction function, SolverListener listener) {
         this.function = function;
+        this.listener = listener;
     }
 
     public RealVector solve(boolean debugInfo) {
-        int numberOfPositions = function.getPositions().length;
-        int positionDimension = function.getPositions()[0].length;
+        long start = System.nanoTime();
+        int numberOfPositions = function.positions.length;
+        int positionDimension = function.positions[0].length;
 
         double[][] Ad = new double[numberOfPositions - 1][positionDimension];
 
@@ -28,7 +38,7 @@ public class LinearLeastSquaresSolver {
         for (int i = 1; i < numberOfPositions; i++) {
             double[] Adi = new double[positionDimension];
             for (int j = 0; j < positionDimension; j++) {
-                Adi[j] = function.getPositions()[i][j] - function.getPositions()[0][j];
+                Adi[j] = function.positions[i][j] - function.positions[0][j];
             }
             Ad[i - 1] = Adi;
         }
@@ -36,18 +46,18 @@ public class LinearLeastSquaresSolver {
             System.out.println(new Array2DRowRealMatrix(Ad));
         }
 
-        // reference point is function.getPositions()[0], with distance function.getDistances()[0]
-        double referenceDistance = function.getDistances()[0];
+        // reference point is function.positions[0], with distance function.distances[0]
+        double referenceDistance = function.distances[0];
         double r0squared = referenceDistance * referenceDistance;
         double[] bd = new double[numberOfPositions - 1];
         for (int i = 1; i < numberOfPositions; i++) {
-            double ri = function.getDistances()[i];
+            double ri = function.distances[i];
             double risquared = ri * ri;
 
             // find distance between ri and r0
             double di0squared = 0;
             for (int j = 0; j < positionDimension; j++) {
-                double dij0j = function.getPositions()[i][j] - function.getPositions()[0][j];
+                double dij0j = function.positions[i][j] - function.positions[0][j];
                 di0squared += dij0j * dij0j;
             }
             bd[i - 1] = 0.5 * (r0squared - risquared + di0squared);
@@ -59,15 +69,40 @@ public class LinearLeastSquaresSolver {
         RealMatrix A = new Array2DRowRealMatrix(Ad, false);
         RealVector b = new ArrayRealVector(bd, false);
         DecompositionSolver solver = new QRDecomposition(A).getSolver();
-        RealVector x;
+        RealVector position;
         if(!solver.isNonSingular()) {
-            // bummer...
-            x = new ArrayRealVector(new double[positionDimension]);
+            // the anchors do not determine a position, estimate its projection onto their hull instead
+            double[] reduced = new double[positionDimension];
+            function.getGeometry().solveReduced(function.distances, reduced);
+            position = new ArrayRealVector(reduced, false);
+            listener.singularMatrixFallback();
         } else {
-             x = solver.solve(b);
+            position = solver.solve(b).add(new ArrayRealVector(function.positions[0]));
         }
 
-        return x.add(new ArrayRealVector(function.getPositions()[0]));
+        if (listener != SolverListener.NONE) {
+            listener.solveCompleted(System.nanoTime() - start, 0, 1, rms(position), true);
+        }
+        return position;
+    }
+
+    /**
+     * @return root mean square of the residuals of the nonlinear formulation, weighted like those of the function
+     */
+    private double rms(RealVector position) {
+        double[][] positions = function.positions;
+        double[] distances = function.distances;
+        double sum = 0;
+        for (int i = 0; i < positions.length; i++) {
+            double residual = -distances[i] * distances[i];
+            for (int j = 0; j < positions[i].length; j++) {
+                double delta = position.getEntry(j) - positions[i][j];
+                residual += delta * delta;
+            }
+            residual *= function.sqrtWeights[i];
+            sum += residual * residual;
+        }
+        return Math.sqrt(sum / positions.length);
     }
 
     public RealVector solve() {
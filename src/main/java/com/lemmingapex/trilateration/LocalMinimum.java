@@ -0,0 +1,52 @@
+package com.lemmingapex.trilateration;
+
+/**
+ * A distinct solution found by {@link MultiStartSolver}.
+ */
+public final class LocalMinimum {
+
+	private final double[] position;
+	private final double rms;
+	private final boolean converged;
+	private int seeds;
+
+	LocalMinimum(double[] position, double rms, boolean converged) {
+		this.position = position;
+		this.rms = rms;
+		this.converged = converged;
+		this.seeds = 1;
+	}
+
+	/**
+	 * @return a copy of the position
+	 */
+	public double[] getPosition() {
+		return position.clone();
+	}
+
+	public double getCoordinate(int j) {
+		return position[j];
+	}
+
+	/**
+	 * @return root mean square of the weighted residuals at the position
+	 */
+	public double getRMS() {
+		return rms;
+	}
+
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/**
+	 * @return number of seeds whose local solve ended at this minimum
+	 */
+	public int getSeeds() {
+		return seeds;
+	}
+
+	void merge() {
+		seeds++;
+	}
+}
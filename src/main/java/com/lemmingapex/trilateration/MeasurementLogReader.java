@@ -0,0 +1,159 @@
+package com.lemmingapex.trilateration;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams the records of a log written by {@link MeasurementLogWriter},
+ * through read only memory mapped regions. Records are read in place, the
+ * reader does not allocate per record. Only the records committed by the
+ * last {@link MeasurementLogWriter#flush()} are read, so a log left by a
+ * writer that crashed ends at its last flush rather than in its zero filled
+ * tail.
+ *
+ * <pre>
+ * while (reader.next()) {
+ *     reader.getValues(values);
+ *     ...
+ * }
+ * </pre>
+ *
+ * Not thread safe.
+ */
+public class MeasurementLogReader implements Closeable {
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+
+	/**
+	 * Committed length of the log, the offset where its records end
+	 */
+	private final long size;
+	private final long regionSize;
+
+	private MappedByteBuffer region;
+	private long regionStart;
+
+	/**
+	 * File offset of the next record
+	 */
+	private long position;
+
+	private long anchorSetId;
+	private long timestamp;
+	private int count;
+	private int valuesIndex;
+
+	public MeasurementLogReader(File path) throws IOException {
+		this(path, MeasurementLogWriter.DEFAULT_REGION_SIZE);
+	}
+
+	MeasurementLogReader(File path, long regionSize) throws IOException {
+		this.regionSize = regionSize;
+		this.file = new RandomAccessFile(path, "r");
+		this.channel = file.getChannel();
+		try {
+			long fileSize = channel.size();
+			if (fileSize < MeasurementLogWriter.FILE_HEADER_SIZE) {
+				throw new IOException(path + " is not a measurement log.");
+			}
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, MeasurementLogWriter.FILE_HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MeasurementLogWriter.MAGIC) {
+				throw new IOException(path + " is not a measurement log.");
+			}
+			if (header.getInt(4) != MeasurementLogWriter.VERSION) {
+				throw new IOException(path + " has unsupported version " + header.getInt(4) + ".");
+			}
+			long committed = header.getLong(MeasurementLogWriter.COMMITTED_LENGTH_OFFSET);
+			if (committed < MeasurementLogWriter.FILE_HEADER_SIZE || committed > fileSize) {
+				throw new IOException(path + " has a committed length of " + committed + " out of " + fileSize + " bytes.");
+			}
+			this.size = committed;
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		position = MeasurementLogWriter.FILE_HEADER_SIZE;
+	}
+
+	/**
+	 * Moves to the next record.
+	 *
+	 * @return false at the end of the log
+	 */
+	public boolean next() throws IOException {
+		if (position + MeasurementLogWriter.RECORD_HEADER_SIZE > size) {
+			if (position != size) {
+				throw new IOException("Truncated record at offset " + position + ".");
+			}
+			return false;
+		}
+		int index = map(position, MeasurementLogWriter.RECORD_HEADER_SIZE);
+		anchorSetId = region.getLong(index);
+		timestamp = region.getLong(index + 8);
+		count = region.getInt(index + 16);
+
+		long recordSize = MeasurementLogWriter.RECORD_HEADER_SIZE + 8L * count;
+		if (count < 0 || position + recordSize > size) {
+			throw new IOException("Truncated record at offset " + position + ".");
+		}
+		valuesIndex = map(position, recordSize) + MeasurementLogWriter.RECORD_HEADER_SIZE;
+		position += recordSize;
+		return true;
+	}
+
+	public long getAnchorSetId() {
+		return anchorSetId;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return number of values of the current record
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public double getValue(int i) {
+		return region.getDouble(valuesIndex + 8 * i);
+	}
+
+	/**
+	 * Copies the values of the current record to the beginning of values.
+	 */
+	public void getValues(double[] values) {
+		for (int i = 0; i < count; i++) {
+			values[i] = region.getDouble(valuesIndex + 8 * i);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		region = null;
+		file.close();
+	}
+
+	/**
+	 * Makes sure length bytes from the file offset start are mapped.
+	 *
+	 * @return the index of start in the region
+	 */
+	private int map(long start, long length) throws IOException {
+		if (region == null || start < regionStart || start + length > regionStart + region.capacity()) {
+			regionStart = start;
+			long mappedLength = Math.min(Math.max(regionSize, length), size - start);
+			region = channel.map(FileChannel.MapMode.READ_ONLY, start, mappedLength);
+			region.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return (int) (start - regionStart);
+	}
+}
@@ -0,0 +1,157 @@
+package com.lemmingapex.trilateration;
+
+import java.io.IOException;
+
+/**
+ * Solves every record of a measurement log and writes one fix record per
+ * solved record, in the same format, with the anchor set id and timestamp of
+ * the measurement and the coordinates of the fix as values.
+ *
+ * {@link AnchorSet}s are registered up front by id, the ranges of a record
+ * are indexed like the anchors of its set. Records are read in place into a
+ * reused buffer and solved with a {@link FixedDimensionSolver}, so streaming
+ * a log does not allocate per record. Records whose anchor set is unknown,
+ * or whose number of ranges does not match the set, are skipped.
+ *
+ * Not thread safe, use one instance per log.
+ */
+public class MeasurementLogSolver {
+
+	protected final FixedDimensionSolver solver;
+
+	/**
+	 * Open addressing table of the anchor sets, keyed by id, so the lookup of every record does not box the id
+	 */
+	private long[] ids = new long[16];
+	private AnchorSet[] entries = new AnchorSet[16];
+	private int numberOfAnchorSets;
+
+	private double[] ranges = new double[16];
+	private double[] fix = new double[3];
+
+	private long solved;
+	private long converged;
+	private long skipped;
+
+	public MeasurementLogSolver() {
+		this(new FixedDimensionSolver());
+	}
+
+	public MeasurementLogSolver(FixedDimensionSolver solver) {
+		this.solver = solver;
+	}
+
+	public void registerAnchorSet(long id, double[][] positions) {
+		registerAnchorSet(id, new AnchorSet(positions));
+	}
+
+	/**
+	 * Registers, or replaces, the anchor set with the given id.
+	 */
+	public void registerAnchorSet(long id, AnchorSet anchors) {
+		if (2 * (numberOfAnchorSets + 1) > ids.length) {
+			grow();
+		}
+		if (put(ids, entries, id, anchors)) {
+			numberOfAnchorSets++;
+		}
+		if (fix.length < anchors.getDimension()) {
+			fix = new double[anchors.getDimension()];
+		}
+		if (ranges.length < anchors.size()) {
+			ranges = new double[anchors.size()];
+		}
+	}
+
+	/**
+	 * Solves the records of reader until its end, appending the fixes to writer.
+	 *
+	 * @return the number of fixes written
+	 */
+	public long solve(MeasurementLogReader reader, MeasurementLogWriter writer) throws IOException {
+		long written = 0;
+		SolverWorkspace workspace = SolverWorkspace.current();
+		while (reader.next()) {
+			AnchorSet anchors = get(reader.getAnchorSetId());
+			int count = reader.getCount();
+			if (anchors == null || count != anchors.size()) {
+				skipped++;
+				continue;
+			}
+			reader.getValues(ranges);
+			if (solver.solve(anchors, ranges, null, fix, 0, workspace)) {
+				converged++;
+			}
+			solved++;
+			writer.write(reader.getAnchorSetId(), reader.getTimestamp(), fix, 0, anchors.getDimension());
+			written++;
+		}
+		return written;
+	}
+
+	/**
+	 * @return number of records solved so far
+	 */
+	public long getSolved() {
+		return solved;
+	}
+
+	/**
+	 * @return number of records solved so far whose solve converged
+	 */
+	public long getConverged() {
+		return converged;
+	}
+
+	/**
+	 * @return number of records skipped so far, for an unknown anchor set or a mismatched number of ranges
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	private AnchorSet get(long id) {
+		int mask = ids.length - 1;
+		for (int slot = hash(id) & mask; entries[slot] != null; slot = (slot + 1) & mask) {
+			if (ids[slot] == id) {
+				return entries[slot];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if the id was not already present
+	 */
+	private static boolean put(long[] ids, AnchorSet[] entries, long id, AnchorSet entry) {
+		int mask = ids.length - 1;
+		int slot = hash(id) & mask;
+		while (entries[slot] != null) {
+			if (ids[slot] == id) {
+				entries[slot] = entry;
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		ids[slot] = id;
+		entries[slot] = entry;
+		return true;
+	}
+
+	private void grow() {
+		long[] newIds = new long[2 * ids.length];
+		AnchorSet[] newEntries = new AnchorSet[2 * entries.length];
+		for (int slot = 0; slot < entries.length; slot++) {
+			if (entries[slot] != null) {
+				put(newIds, newEntries, ids[slot], entries[slot]);
+			}
+		}
+		ids = newIds;
+		entries = newEntries;
+	}
+
+	private static int hash(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,139 @@
+package com.lemmingapex.trilateration;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a measurement log, a compact binary file of records made of an
+ * anchor set id, a timestamp and a list of doubles. The doubles are the
+ * ranges measured by the anchors of the set, in the order of the set, or the
+ * coordinates of a fix for a log of fixes.
+ *
+ * The file starts with the int {@link #MAGIC}, the int {@link #VERSION}
+ * and the long committed length, the number of bytes of the file holding
+ * complete records. Each record is then the long anchor set id, the long
+ * timestamp, the int number of doubles and the doubles, all little endian.
+ *
+ * The file is written through memory mapped regions, so appending a record
+ * is a handful of stores. Regions are extended ahead of the records and the
+ * file is only trimmed on {@link #close()}, so after a crash its tail is
+ * zeros. The committed length, updated by {@link #flush()}, tells readers
+ * where the records forced to the device end. Not thread safe.
+ */
+public class MeasurementLogWriter implements Closeable {
+
+	public static final int MAGIC = 0x4C495254;
+	public static final int VERSION = 2;
+
+	static final int FILE_HEADER_SIZE = 16;
+
+	/**
+	 * Offset of the committed length in the file header
+	 */
+	static final int COMMITTED_LENGTH_OFFSET = 8;
+	static final int RECORD_HEADER_SIZE = 20;
+
+	static final long DEFAULT_REGION_SIZE = 64L << 20;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long regionSize;
+
+	private final MappedByteBuffer header;
+
+	private MappedByteBuffer region;
+	private long regionStart;
+	private long position;
+
+	/**
+	 * Creates, or truncates, the log at path.
+	 */
+	public MeasurementLogWriter(File path) throws IOException {
+		this(path, DEFAULT_REGION_SIZE);
+	}
+
+	MeasurementLogWriter(File path, long regionSize) throws IOException {
+		this.regionSize = regionSize;
+		this.file = new RandomAccessFile(path, "rw");
+		this.channel = file.getChannel();
+		channel.truncate(0);
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0, MAGIC);
+		header.putInt(4, VERSION);
+		header.putLong(COMMITTED_LENGTH_OFFSET, FILE_HEADER_SIZE);
+		header.force();
+		position = FILE_HEADER_SIZE;
+	}
+
+	public void write(long anchorSetId, long timestamp, double[] values) throws IOException {
+		write(anchorSetId, timestamp, values, 0, values.length);
+	}
+
+	/**
+	 * Appends a record holding values[offset] to values[offset + count - 1].
+	 */
+	public void write(long anchorSetId, long timestamp, double[] values, int offset, int count) throws IOException {
+		int recordSize = RECORD_HEADER_SIZE + 8 * count;
+		ensureMapped(recordSize);
+		region.putLong(anchorSetId);
+		region.putLong(timestamp);
+		region.putInt(count);
+		for (int i = offset; i < offset + count; i++) {
+			region.putDouble(values[i]);
+		}
+		position += recordSize;
+	}
+
+	/**
+	 * @return the number of bytes written so far
+	 */
+	public long size() {
+		return position;
+	}
+
+	/**
+	 * Forces the data written so far to the storage device, then commits it:
+	 * readers of the file see the records written before the last flush.
+	 */
+	public void flush() {
+		if (region != null) {
+			region.force();
+		}
+		// the records are on the device before the length that covers them
+		header.putLong(COMMITTED_LENGTH_OFFSET, position);
+		header.force();
+	}
+
+	/**
+	 * Trims the file to the data written and closes it.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			region = null;
+			channel.truncate(position);
+		} finally {
+			file.close();
+		}
+	}
+
+	private void ensureMapped(int size) throws IOException {
+		if (region != null && region.remaining() >= size) {
+			return;
+		}
+		if (region != null) {
+			// the region is dropped, a later flush could not force it
+			region.force();
+		}
+		regionStart = position;
+		region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(regionSize, size));
+		region.order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,351 @@
+package com.lemmingapex.trilateration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs local solves of a {@link FixedDimensionSolver} from several seeds and
+ * returns the distinct minima they end in, best first. A single start
+ * converges to whichever local minimum is closest, which for mirror
+ * ambiguous anchors, as many anchors as dimensions or all anchors on a line
+ * in 2D, is an arbitrary one of the two mirrored solutions.
+ *
+ * The default start, the closed form solution or the centroid of the
+ * anchors, is solved first. When the anchors span all dimensions and that
+ * solution reaches the noise floor, it is the global minimum and is returned
+ * alone, so the common case costs a single solve. Otherwise the solution is
+ * mirrored across the hull of the anchors, and seeds are generated from the
+ * intersections of the ranges of the closest anchors and from samples around
+ * the anchors. Their local solves run in parallel and stop early once a
+ * solution of a full rank problem reaches the noise floor. Seeds ending at
+ * the same point are merged.
+ *
+ * The noise floor follows from the standard deviation of the range errors,
+ * see {@link #noiseFloor(double)}: with noisy ranges even the global minimum
+ * leaves residuals, so a floor meant for exact ranges would never stop the
+ * search.
+ */
+public class MultiStartSolver {
+
+	public static final int DEFAULT_MAX_SEEDS = 16;
+
+	/**
+	 * Root mean square of the weighted residuals below which a solution fits the ranges exactly, the noise floor of exact ranges
+	 */
+	public static final double EXACT_NOISE_FLOOR = 1E-9;
+
+	/**
+	 * Number of standard deviations of the weighted residuals a solution may leave and still be consistent with the noise
+	 */
+	public static final double NOISE_BOUND = 3.0;
+
+	/**
+	 * Distance between two solutions, relative to the extent of the anchors, below which they are the same minimum
+	 */
+	private static final double MERGE_TOLERANCE = 1E-6;
+
+	protected final FixedDimensionSolver solver;
+	protected final ForkJoinPool pool;
+	protected final int maxSeeds;
+	protected final double noiseFloor;
+
+	/**
+	 * @param rangeDeviation standard deviation of the range errors, 0 for exact ranges, see {@link #noiseFloor(double)}
+	 */
+	public MultiStartSolver(double rangeDeviation) {
+		this(new FixedDimensionSolver(), ForkJoinPool.commonPool(), DEFAULT_MAX_SEEDS, noiseFloor(rangeDeviation));
+	}
+
+	/**
+	 * @param pool runs the local solves, null to run them on the calling thread
+	 * @param maxSeeds maximum number of seeds besides the default start
+	 * @param noiseFloor root mean square of the weighted residuals at which a solution is good enough to stop
+	 */
+	public MultiStartSolver(FixedDimensionSolver solver, ForkJoinPool pool, int maxSeeds, double noiseFloor) {
+		if (maxSeeds < 0 || noiseFloor < 0.0) {
+			throw new IllegalArgumentException("The number of seeds and the noise floor should not be negative.");
+		}
+		this.solver = solver;
+		this.pool = pool;
+		this.maxSeeds = maxSeeds;
+		this.noiseFloor = noiseFloor;
+	}
+
+	/**
+	 * Noise floor of ranges whose errors have standard deviation
+	 * rangeDeviation. With the inverse square weights of the solvers, such an
+	 * error makes the weighted residual |x - p_i|^2 / d_i - d_i vary by about
+	 * 2 rangeDeviation, see {@link RangeWeighting}. With a weighting that
+	 * divides by the variance of each range, like
+	 * {@link RangeWeighting#perAnchorVariance(double[])}, the weighted
+	 * residuals are already in standard deviations, pass 1.
+	 *
+	 * @return {@link #NOISE_BOUND} standard deviations of the weighted residuals, at least {@link #EXACT_NOISE_FLOOR}
+	 */
+	public static double noiseFloor(double rangeDeviation) {
+		if (!(rangeDeviation >= 0.0) || Double.isInfinite(rangeDeviation)) {
+			throw new IllegalArgumentException("The standard deviation of the ranges should not be negative and be finite.");
+		}
+		return Math.max(NOISE_BOUND * 2.0 * rangeDeviation, EXACT_NOISE_FLOOR);
+	}
+
+	/**
+	 * Solves the problem of the function, with the weights of its {@link RangeWeighting}
+	 */
+	public List<LocalMinimum> solve(TrilaterationFunction function) {
+		double[][] positions = function.positions;
+		return solve(positions[0].length, FixedDimensionSolver.pack(positions), function.distances, function.getWeights(), function.getGeometry());
+	}
+
+	public List<LocalMinimum> solve(AnchorSet anchors, double[] distances) {
+		return solve(anchors.getDimension(), anchors.packed, distances, null, anchors.getGeometry());
+	}
+
+	/**
+	 * @param positions packed anchor positions
+	 * @param distances measured distances, indexed like the anchors
+	 * @return the distinct minima found, lowest root mean square first
+	 * @throws CancellationException if the calling thread is interrupted before or while the seeds are solved in parallel, the interrupt flag is then left set
+	 */
+	public List<LocalMinimum> solve(int dimension, double[] positions, double[] distances) {
+		return solve(dimension, positions, distances, null, AnchorGeometry.of(dimension, positions));
+	}
+
+	/**
+	 * @param weights weight of each distance, or null to use the inverse square law
+	 */
+	private List<LocalMinimum> solve(final int dimension, final double[] positions, final double[] distances, final double[] weights, AnchorGeometry geometry) {
+		final int count = positions.length / dimension;
+		if (distances.length != count) {
+			throw new IllegalArgumentException("The number of positions you provided, " + count + ", does not match the number of distances, " + distances.length + ".");
+		}
+		final boolean ambiguous = !geometry.isFullRank();
+		double extent = extent(dimension, positions, count);
+		double tolerance = MERGE_TOLERANCE * (1.0 + extent);
+
+		List<LocalMinimum> minima = new ArrayList<LocalMinimum>();
+		LocalMinimum first = localSolve(dimension, positions, distances, weights, count, null);
+		minima.add(first);
+		if (!ambiguous && first.getRMS() <= noiseFloor) {
+			return minima;
+		}
+
+		List<double[]> seeds = seeds(dimension, positions, distances, count, geometry, first, extent);
+		final AtomicBoolean done = new AtomicBoolean(false);
+		List<Callable<LocalMinimum>> tasks = new ArrayList<Callable<LocalMinimum>>(seeds.size());
+		for (final double[] seed : seeds) {
+			tasks.add(new Callable<LocalMinimum>() {
+				@Override
+				public LocalMinimum call() {
+					if (done.get()) {
+						return null;
+					}
+					LocalMinimum minimum = localSolve(dimension, positions, distances, weights, count, seed);
+					if (!ambiguous && minimum.getRMS() <= noiseFloor) {
+						done.set(true);
+					}
+					return minimum;
+				}
+			});
+		}
+
+		if (pool == null) {
+			for (Callable<LocalMinimum> task : tasks) {
+				add(minima, callUnchecked(task), dimension, tolerance);
+			}
+		} else {
+			// some versions of invokeAll clear the interrupt flag of the caller, check it before
+			if (Thread.currentThread().isInterrupted()) {
+				throw new CancellationException("Interrupted before solving the seeds.");
+			}
+			// an interrupted wait fails rather than returning some of the minima as if they were all
+			for (Future<LocalMinimum> future : pool.invokeAll(tasks)) {
+				try {
+					add(minima, future.get(), dimension, tolerance);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					CancellationException cancelled = new CancellationException("Interrupted while solving the seeds.");
+					cancelled.initCause(e);
+					throw cancelled;
+				} catch (ExecutionException e) {
+					throw unchecked(e.getCause());
+				}
+			}
+		}
+
+		Collections.sort(minima, new Comparator<LocalMinimum>() {
+			@Override
+			public int compare(LocalMinimum a, LocalMinimum b) {
+				return Double.compare(a.getRMS(), b.getRMS());
+			}
+		});
+		return minima;
+	}
+
+	private LocalMinimum localSolve(int dimension, double[] positions, double[] distances, double[] weights, int count, double[] seed) {
+		double[] position = new double[dimension];
+		SolverWorkspace workspace = SolverWorkspace.current();
+		boolean converged = solver.solve(dimension, positions, distances, weights, 0, count, seed, position, 0, workspace);
+		return new LocalMinimum(position, workspace.getRMS(), converged);
+	}
+
+	/**
+	 * Mirror of the first solution across the hull of the anchors, intersections of the ranges of the closest anchors, and samples around the anchors
+	 */
+	private List<double[]> seeds(int dimension, double[] positions, double[] distances, int count, AnchorGeometry geometry, LocalMinimum first, double extent) {
+		List<double[]> seeds = new ArrayList<double[]>();
+		if (!geometry.isFullRank()) {
+			double[] projection = new double[dimension];
+			geometry.solveReduced(distances, projection);
+			double[] mirror = new double[dimension];
+			for (int j = 0; j < dimension; j++) {
+				mirror[j] = 2.0 * projection[j] - first.getCoordinate(j);
+			}
+			seeds.add(mirror);
+		}
+
+		if (dimension <= 3 && count >= dimension) {
+			// tuples of the anchors closest to the target give the best intersections
+			Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++) {
+				order[i] = i;
+			}
+			final double[] ranges = distances;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(ranges[a], ranges[b]);
+				}
+			});
+
+			double[] tuplePositions = new double[dimension * dimension];
+			double[] tupleDistances = new double[dimension];
+			double[] scratch = new double[ClosedFormSolver.scratchLength(dimension)];
+			int[] tuple = new int[dimension];
+			for (int j = 0; j < dimension; j++) {
+				tuple[j] = j;
+			}
+			while (seeds.size() + 2 <= maxSeeds) {
+				for (int k = 0; k < dimension; k++) {
+					int anchor = order[tuple[k]];
+					System.arraycopy(positions, anchor * dimension, tuplePositions, k * dimension, dimension);
+					tupleDistances[k] = distances[anchor];
+				}
+				double[] a = new double[dimension];
+				double[] b = new double[dimension];
+				int candidates = ClosedFormSolver.intersect(dimension, tuplePositions, tupleDistances, 0, a, b, scratch);
+				if (candidates > 0) {
+					seeds.add(a);
+				}
+				if (candidates > 1) {
+					seeds.add(b);
+				}
+				if (!nextTuple(tuple, count)) {
+					break;
+				}
+			}
+		}
+
+		// samples on a sphere around the anchors, along each axis
+		double[] centroid = new double[dimension];
+		FixedDimensionSolver.centroid(dimension, positions, 0, count, centroid);
+		for (int j = 0; j < dimension && seeds.size() + 2 <= maxSeeds; j++) {
+			for (int sign = -1; sign <= 1; sign += 2) {
+				double[] sample = centroid.clone();
+				sample[j] += sign * Math.max(extent, 1.0);
+				seeds.add(sample);
+			}
+		}
+
+		while (seeds.size() > maxSeeds) {
+			seeds.remove(seeds.size() - 1);
+		}
+		return seeds;
+	}
+
+	/**
+	 * Advances tuple to the next combination of distinct indices below count, in lexicographic order
+	 */
+	private static boolean nextTuple(int[] tuple, int count) {
+		int k = tuple.length - 1;
+		while (k >= 0 && tuple[k] == count - tuple.length + k) {
+			k--;
+		}
+		if (k < 0) {
+			return false;
+		}
+		tuple[k]++;
+		for (int m = k + 1; m < tuple.length; m++) {
+			tuple[m] = tuple[m - 1] + 1;
+		}
+		return true;
+	}
+
+	private static void add(List<LocalMinimum> minima, LocalMinimum minimum, int dimension, double tolerance) {
+		if (minimum == null) {
+			return;
+		}
+		for (LocalMinimum existing : minima) {
+			double distanceSquared = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				double delta = existing.getCoordinate(j) - minimum.getCoordinate(j);
+				distanceSquared += delta * delta;
+			}
+			if (distanceSquared <= tolerance * tolerance) {
+				existing.merge();
+				return;
+			}
+		}
+		minima.add(minimum);
+	}
+
+	/**
+	 * @return the largest distance of an anchor to the centroid of the anchors
+	 */
+	private static double extent(int dimension, double[] positions, int count) {
+		double[] centroid = new double[dimension];
+		FixedDimensionSolver.centroid(dimension, positions, 0, count, centroid);
+		double extent = 0.0;
+		for (int i = 0; i < count; i++) {
+			double distanceSquared = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				double delta = positions[i * dimension + j] - centroid[j];
+				distanceSquared += delta * delta;
+			}
+			extent = Math.max(extent, distanceSquared);
+		}
+		return Math.sqrt(extent);
+	}
+
+	private static LocalMinimum callUnchecked(Callable<LocalMinimum> task) {
+		try {
+			return task.call();
+		} catch (Exception e) {
+			throw unchecked(e);
+		}
+	}
+
+	/**
+	 * Rethrows an error as is.
+	 *
+	 * @return a runtime exception as is, anything else wrapped with its cause kept
+	 */
+	private static RuntimeException unchecked(Throwable cause) {
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			return (RuntimeException) cause;
+		}
+		return new IllegalStateException(cause);
+	}
+}
@@ -1,11 +1,19 @@
 package com.lemmingapex.trilateration;
 
+import org.apache.commons.math3.exception.TooManyEvaluationsException;
+import org.apache.commons.math3.exception.TooManyIterationsException;
 import org.apache.commons.math3.fitting.leastsquares.LeastSquaresFactory;
 import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer;
 import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
 import org.apache.commons.math3.fitting.leastsquares.LeastSquaresProblem;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresProblem.Evaluation;
+import org.apache.commons.math3.fitting.leastsquares.MultivariateJacobianFunction;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.DiagonalMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.optim.ConvergenceChecker;
+import org.apache.commons.math3.util.Pair;
 
 /**
  * Solves a Trilateration problem with an instance of a
@@ -18,47 +26,199 @@ public class NonLinearLeastSquaresSolver {
 
 	protected final TrilaterationFunction function;
 	protected final LeastSquaresOptimizer leastSquaresOptimizer;
+	protected final SolverListener listener;
 
 	protected final static int MAXNUMBEROFITERATIONS = 1000;
 
+	/**
+	 * Linear systems of the recent raw positions seeded by {@link #solveFromLinearEstimate(SolveOptions, boolean)}, keyed by value
+	 */
+	private static final PreparedAnchorSetCache<PackedPositions> PREPARED = new PreparedAnchorSetCache<PackedPositions>(AnchorGeometry.CACHE_CAPACITY);
+
 	public NonLinearLeastSquaresSolver(TrilaterationFunction function, LeastSquaresOptimizer leastSquaresOptimizer) {
+		this(function, leastSquaresOptimizer, SolverListener.NONE);
+	}
+
+	/**
+	 * @param listener notified of the outcome of every solve
+	 */
+	public NonLinearLeastSquaresSolver(TrilaterationFunction function, LeastSquaresOptimizer leastSquaresOptimizer, SolverListener listener) {
 		this.function = function;
 		this.leastSquaresOptimizer = leastSquaresOptimizer;
+		this.listener = listener;
 	}
 
+	/**
+	 * @param weights weight of each residual, replacing the {@link RangeWeighting} of the function, or null to keep it
+	 */
 	public Optimum solve(double[] target, double[] weights, double[] initialPoint, boolean debugInfo) {
 		if (debugInfo) {
 			System.out.println("Max Number of Iterations : " + MAXNUMBEROFITERATIONS);
 		}
 
-		LeastSquaresProblem leastSquaresProblem = LeastSquaresFactory.create(
+		LeastSquaresProblem leastSquaresProblem = problem(
 				// function to be optimized
 				function,
 				// target values at optimal point in least square equation
 				// (x0+xi)^2 + (y0+yi)^2 + ri^2 = target[i]
-				new ArrayRealVector(target, false), new ArrayRealVector(initialPoint, false), new DiagonalMatrix(weights), null, MAXNUMBEROFITERATIONS, MAXNUMBEROFITERATIONS);
+				scaledTarget(target), initialPoint, relativeWeights(weights), null, MAXNUMBEROFITERATIONS, MAXNUMBEROFITERATIONS);
 
-		return leastSquaresOptimizer.optimize(leastSquaresProblem);
+		long start = System.nanoTime();
+		Optimum optimum;
+		try {
+			optimum = leastSquaresOptimizer.optimize(leastSquaresProblem);
+		} catch (RuntimeException e) {
+			listener.solveFailed(System.nanoTime() - start, e);
+			throw e;
+		}
+		completed(start, optimum, true);
+		return optimum;
 	}
 
 	public Optimum solve(double[] target, double[] weights, double[] initialPoint) {
 		return solve(target, weights, initialPoint, false);
 	}
 
+	/**
+	 * Solves from the centroid of the anchors. When the anchors do not
+	 * determine a position, returns the projection of the target onto their
+	 * hull without iterating, see {@link AnchorGeometry}. Minimal problems
+	 * with consistent ranges are solved directly by {@link ClosedFormSolver},
+	 * with inconsistent ranges they start from its solution instead of the
+	 * centroid.
+	 */
 	public Optimum solve(boolean debugInfo) {
-		int numberOfPositions = function.getPositions().length;
-		int positionDimension = function.getPositions()[0].length;
+		double[] target = new double[function.positions.length];
+		BoundedOptimum direct = presolve(target, SolveOptions.DEFAULT, null);
+		if (direct != null) {
+			return direct;
+		}
 
-		double[] initialPoint = new double[positionDimension];
-		// initial point, use average of the vertices
-		for (int i = 0; i < function.getPositions().length; i++) {
-			double[] vertex = function.getPositions()[i];
-			for (int j = 0; j < vertex.length; j++) {
-				initialPoint[j] += vertex[j];
+		double[] initialPoint = initialPoint();
+
+		if (debugInfo) {
+			StringBuilder output = new StringBuilder("initialPoint: ");
+			for (int i = 0; i < initialPoint.length; i++) {
+				output.append(initialPoint[i]).append(" ");
 			}
+			System.out.println(output.toString());
 		}
-		for (int j = 0; j < initialPoint.length; j++) {
-			initialPoint[j] /= numberOfPositions;
+
+		return solve(target, null, initialPoint, debugInfo);
+	}
+
+	/**
+	 * Solves from the centroid of the anchors within the limits of options.
+	 * Instead of throwing when a limit is hit, returns the best point found so far.
+	 */
+	public BoundedOptimum solve(SolveOptions options) {
+		return solve(null, options, false);
+	}
+
+	/**
+	 * @param initialPoint starting point, also used to pick between the two solutions of a problem with as many anchors as dimensions
+	 */
+	public BoundedOptimum solve(double[] initialPoint, SolveOptions options) {
+		return solve(initialPoint, options, false);
+	}
+
+	/**
+	 * Seeds the optimizer with the estimate of {@link LinearLeastSquaresSolver}
+	 * rather than the centroid of the anchors, falling back to the centroid
+	 * when the linear system is singular. Stops as soon as the norm of the
+	 * weighted residuals drops below residualThreshold.
+	 *
+	 * @param residualThreshold norm of the weighted residuals considered good enough, 0 to only stop at convergence
+	 */
+	public Optimum solveFromLinearEstimate(double residualThreshold, boolean debugInfo) {
+		return solveFromLinearEstimate(SolveOptions.builder().residualThreshold(residualThreshold).build(), debugInfo);
+	}
+
+	public Optimum solveFromLinearEstimate(double residualThreshold) {
+		return solveFromLinearEstimate(residualThreshold, false);
+	}
+
+	public BoundedOptimum solveFromLinearEstimate(SolveOptions options) {
+		return solveFromLinearEstimate(options, false);
+	}
+
+	public BoundedOptimum solveFromLinearEstimate(SolveOptions options, boolean debugInfo) {
+		if (function.getGeometry().isDegenerate()) {
+			return solve(null, options, debugInfo);
+		}
+		PreparedAnchorSet anchors = PREPARED.get(new PackedPositions(function.positions[0].length, FixedDimensionSolver.pack(function.positions)), function.positions);
+		double[] initialPoint;
+		if (anchors.isNonSingular()) {
+			initialPoint = anchors.solve(function.distances).toArray();
+		} else {
+			initialPoint = centroid();
+		}
+
+		if (debugInfo) {
+			System.out.println("linear estimate is singular: " + !anchors.isNonSingular());
+		}
+		if (!anchors.isNonSingular()) {
+			listener.singularMatrixFallback();
+		}
+
+		return solve(initialPoint, options, debugInfo);
+	}
+
+	/**
+	 * Solves within the limits of options. Instead of throwing when a limit
+	 * is hit, returns the evaluation at the best point found so far with a
+	 * status telling which limit stopped the solve.
+	 *
+	 * @param weights weight of each residual, replacing the {@link RangeWeighting} of the function, or null to keep it
+	 */
+	public BoundedOptimum solve(double[] target, double[] weights, double[] initialPoint, SolveOptions options) {
+		long start = System.nanoTime();
+		double[] scaledTarget = scaledTarget(target);
+		double[] relativeWeights = relativeWeights(weights);
+		BoundedModel model = new BoundedModel(function, scaledTarget, relativeWeights, options, options.deadlineFrom(start));
+
+		LeastSquaresProblem leastSquaresProblem = problem(model, scaledTarget, initialPoint, relativeWeights, model, options.getMaxEvaluations(), options.getMaxIterations());
+
+		BoundedOptimum.Status status;
+		try {
+			Optimum optimum = leastSquaresOptimizer.optimize(leastSquaresProblem);
+			completed(start, optimum, true);
+			return new BoundedOptimum(optimum, optimum.getEvaluations(), optimum.getIterations(), BoundedOptimum.Status.CONVERGED);
+		} catch (TooManyEvaluationsException e) {
+			status = BoundedOptimum.Status.MAX_EVALUATIONS;
+		} catch (TooManyIterationsException e) {
+			status = BoundedOptimum.Status.MAX_ITERATIONS;
+		} catch (DeadlineExceededException e) {
+			status = BoundedOptimum.Status.DEADLINE;
+		} catch (RuntimeException e) {
+			listener.solveFailed(System.nanoTime() - start, e);
+			throw e;
+		}
+
+		model.stop();
+		int iterations = status == BoundedOptimum.Status.MAX_ITERATIONS ? options.getMaxIterations() : model.iterations;
+		BoundedOptimum optimum = new BoundedOptimum(leastSquaresProblem.evaluate(new ArrayRealVector(model.bestPoint, false)), model.evaluations, iterations, status);
+		completed(start, optimum, false);
+		return optimum;
+	}
+
+	private void completed(long start, Optimum optimum, boolean converged) {
+		if (listener != SolverListener.NONE) {
+			listener.solveCompleted(System.nanoTime() - start, optimum.getIterations(), optimum.getEvaluations(), optimum.getRMS(), converged);
+		}
+	}
+
+	/**
+	 * @param initialPoint starting point, null for the default one
+	 */
+	private BoundedOptimum solve(double[] initialPoint, SolveOptions options, boolean debugInfo) {
+		double[] target = new double[function.positions.length];
+		BoundedOptimum direct = presolve(target, options, initialPoint);
+		if (direct != null) {
+			return direct;
+		}
+		if (initialPoint == null) {
+			initialPoint = initialPoint();
 		}
 
 		if (debugInfo) {
@@ -69,22 +229,224 @@ public class NonLinearLeastSquaresSolver {
 			System.out.println(output.toString());
 		}
 
-		double[] target = new double[numberOfPositions];
-		double[] distances = function.getDistances();
-		double[] weights = new double[target.length];
-		for (int i = 0; i < target.length; i++) {
-			target[i] = 0.0;
-			weights[i] = inverseSquareLaw(distances[i]);
+		return solve(target, null, initialPoint, options);
+	}
+
+	/**
+	 * Applies the geometry checks of options, then looks for a direct solution.
+	 *
+	 * @param near initial point of the caller, used to choose between two exact solutions, may be null
+	 * @return if the anchors are degenerate, the projection of the target onto
+	 *         their hull without near, the ambiguous solution on the side of
+	 *         near otherwise. The exact solution of a minimal problem, null
+	 *         if the solve should go ahead.
+	 * @throws DegenerateGeometryException if options reject the geometry of the anchors
+	 */
+	private BoundedOptimum presolve(double[] target, SolveOptions options, double[] near) {
+		long start = System.nanoTime();
+		AnchorGeometry geometry = function.getGeometry();
+		DegenerateGeometryException rejected = null;
+		if (geometry.isDegenerate()) {
+			if (options.getDegenerateGeometry() == SolveOptions.DegenerateGeometry.FAIL) {
+				rejected = new DegenerateGeometryException("The positions only span " + geometry.getRank() + " of " + geometry.getDimension() + " dimensions.", geometry);
+			}
+		} else if (geometry.getGDOP() > options.getMaxGDOP()) {
+			rejected = new DegenerateGeometryException("The GDOP of the positions, " + geometry.getGDOP() + ", exceeds " + options.getMaxGDOP() + ".", geometry);
+		}
+		if (rejected != null) {
+			listener.solveFailed(System.nanoTime() - start, rejected);
+			throw rejected;
+		}
+		double[] point = new double[geometry.getDimension()];
+		BoundedOptimum.Status status;
+		if (geometry.isDegenerate() && near == null) {
+			geometry.solveReduced(function.distances, point);
+			status = BoundedOptimum.Status.REDUCED_DIMENSION;
+		} else if (geometry.isDegenerate()) {
+			geometry.solveOffHull(function.distances, near, point);
+			status = BoundedOptimum.Status.AMBIGUOUS;
+		} else {
+			int numberOfPositions = function.positions.length;
+			if (numberOfPositions > point.length + 1 || !ClosedFormSolver.solveExact(point.length, FixedDimensionSolver.pack(function.positions),
+					function.distances, 0, numberOfPositions, near, point, new double[point.length])) {
+				return null;
+			}
+			status = BoundedOptimum.Status.CONVERGED;
 		}
 
-		return solve(target, weights, initialPoint, debugInfo);
+		LeastSquaresProblem leastSquaresProblem = problem(function, target, point, null, null, 1, 1);
+		BoundedOptimum optimum = new BoundedOptimum(leastSquaresProblem.evaluate(new ArrayRealVector(point, false)), 1, 0, status);
+		completed(start, optimum, optimum.isConverged());
+		return optimum;
 	}
 
-	private double inverseSquareLaw(double distance) {
-		return 1 / (distance * distance);
+	/**
+	 * @return the closed form solution of a minimal problem, the centroid of the positions otherwise
+	 */
+	private double[] initialPoint() {
+		double[][] positions = function.positions;
+		int positionDimension = positions[0].length;
+		if (positions.length == positionDimension + 1 && positionDimension <= 3) {
+			double[] point = new double[positionDimension];
+			if (ClosedFormSolver.solve(positionDimension, FixedDimensionSolver.pack(positions), function.distances, 0, point)) {
+				return point;
+			}
+		}
+		return centroid();
+	}
+
+	/**
+	 * @return the average of the positions
+	 */
+	protected double[] centroid() {
+		int numberOfPositions = function.positions.length;
+		int positionDimension = function.positions[0].length;
+
+		double[] initialPoint = new double[positionDimension];
+		// initial point, use average of the vertices
+		for (int i = 0; i < function.positions.length; i++) {
+			double[] vertex = function.positions[i];
+			for (int j = 0; j < vertex.length; j++) {
+				initialPoint[j] += vertex[j];
+			}
+		}
+		for (int j = 0; j < initialPoint.length; j++) {
+			initialPoint[j] /= numberOfPositions;
+		}
+		return initialPoint;
+	}
+
+	/**
+	 * @param weights weights of the residuals, null when the weighting of the function is kept
+	 */
+	private static LeastSquaresProblem problem(MultivariateJacobianFunction model, double[] target, double[] initialPoint, double[] weights,
+			ConvergenceChecker<Evaluation> checker, int maxEvaluations, int maxIterations) {
+		if (weights == null) {
+			return LeastSquaresFactory.create(model, new ArrayRealVector(target, false), new ArrayRealVector(initialPoint, false), checker, maxEvaluations, maxIterations);
+		}
+		return LeastSquaresFactory.create(model, new ArrayRealVector(target, false), new ArrayRealVector(initialPoint, false), new DiagonalMatrix(weights), checker,
+				maxEvaluations, maxIterations);
+	}
+
+	/**
+	 * @return the target scaled like the residuals of the function, by the square roots of its weights
+	 */
+	private double[] scaledTarget(double[] target) {
+		double[] scaled = new double[target.length];
+		for (int i = 0; i < target.length; i++) {
+			scaled[i] = function.sqrtWeights[i] * target[i];
+		}
+		return scaled;
+	}
+
+	/**
+	 * @return the weights to apply on top of the weighting of the function so that the residuals end up weighted by weights, null for null
+	 */
+	private double[] relativeWeights(double[] weights) {
+		if (weights == null) {
+			return null;
+		}
+		double[] relative = new double[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			double sqrtWeight = function.sqrtWeights[i];
+			relative[i] = sqrtWeight > 0.0 ? weights[i] / (sqrtWeight * sqrtWeight) : 0.0;
+		}
+		return relative;
 	}
 
 	public Optimum solve() {
 		return solve(false);
 	}
+
+	/**
+	 * Wraps the function to remember the best point evaluated and to enforce
+	 * the deadline, and checks convergence against the thresholds of the
+	 * options.
+	 */
+	private static class BoundedModel implements MultivariateJacobianFunction, ConvergenceChecker<Evaluation> {
+
+		private final MultivariateJacobianFunction function;
+		private final double[] target;
+		private final double[] weights;
+		private final SolveOptions options;
+		private final long deadline;
+
+		private boolean stopped;
+		int evaluations;
+		int iterations;
+		double[] bestPoint;
+		private double bestCost = Double.POSITIVE_INFINITY;
+
+		BoundedModel(MultivariateJacobianFunction function, double[] target, double[] weights, SolveOptions options, long deadline) {
+			this.function = function;
+			this.target = target;
+			this.weights = weights;
+			this.options = options;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Disables the bookkeeping, for evaluations made after the optimizer gave up
+		 */
+		void stop() {
+			stopped = true;
+		}
+
+		@Override
+		public Pair<RealVector, RealMatrix> value(RealVector point) {
+			Pair<RealVector, RealMatrix> value = function.value(point);
+			if (stopped) {
+				return value;
+			}
+
+			evaluations++;
+			RealVector values = value.getFirst();
+			double cost = 0.0;
+			for (int i = 0; i < target.length; i++) {
+				double residual = target[i] - values.getEntry(i);
+				cost += weights == null ? residual * residual : weights[i] * residual * residual;
+			}
+			if (cost < bestCost || bestPoint == null) {
+				bestCost = cost;
+				bestPoint = point.toArray();
+			}
+
+			if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+				throw new DeadlineExceededException();
+			}
+			return value;
+		}
+
+		@Override
+		public boolean converged(int iteration, Evaluation previous, Evaluation current) {
+			iterations = iteration;
+
+			double cost = current.getCost();
+			if (cost <= options.getResidualThreshold()) {
+				return true;
+			}
+			double previousCost = previous.getCost();
+			if (Math.abs(previousCost - cost) <= options.getCostRelativeTolerance() * Math.max(previousCost, cost)) {
+				return true;
+			}
+
+			RealVector point = current.getPoint();
+			RealVector previousPoint = previous.getPoint();
+			for (int j = 0; j < point.getDimension(); j++) {
+				if (Math.abs(point.getEntry(j) - previousPoint.getEntry(j)) > options.getPositionTolerance()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static class DeadlineExceededException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		DeadlineExceededException() {
+			super(null, null, false, false);
+		}
+	}
 }
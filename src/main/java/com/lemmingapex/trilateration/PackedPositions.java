@@ -0,0 +1,43 @@
+package com.lemmingapex.trilateration;
+
+import java.util.Arrays;
+
+/**
+ * Anchor positions packed row by row, compared by value. Keys the caches of
+ * the work that only depends on the anchors, so that solves against raw
+ * positions share it as long as the positions do not change.
+ *
+ * The array is not copied, callers must not modify it once the key is
+ * stored.
+ */
+final class PackedPositions {
+
+	final int dimension;
+
+	final double[] packed;
+
+	private final int hash;
+
+	PackedPositions(int dimension, double[] packed) {
+		this.dimension = dimension;
+		this.packed = packed;
+		this.hash = 31 * dimension + Arrays.hashCode(packed);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof PackedPositions)) {
+			return false;
+		}
+		PackedPositions that = (PackedPositions) other;
+		return hash == that.hash && dimension == that.dimension && Arrays.equals(packed, that.packed);
+	}
+}
@@ -0,0 +1,458 @@
+package com.lemmingapex.trilateration;
+
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Covariance of a position estimate and the axes of its error ellipse, or
+ * ellipsoid in 3D, computed in closed form from the normal matrix J^T W J
+ * the solver already has at the solution.
+ *
+ * The covariance is the inverse of the normal matrix, the same quantity as
+ * {@link Optimum#getCovariances(double)}, without another decomposition. In
+ * 1, 2 and 3 dimensions the inverse is the adjugate over the determinant,
+ * and the axes are computed in closed form.
+ * Instead of throwing on a singular normal matrix, a normal matrix whose
+ * determinant is negligible compared to its diagonal is flagged by
+ * {@link #isSingular()}, the covariance is then unbounded along the missing
+ * directions.
+ *
+ * The semi axes are one standard deviation long, scale them by the square
+ * root of the chi-square quantile of the confidence level wanted.
+ */
+public final class PositionUncertainty {
+
+	/**
+	 * Ratio of the determinant to the product of the diagonal below which the normal matrix is considered singular
+	 */
+	public static final double SINGULARITY_THRESHOLD = 1E-12;
+
+	/**
+	 * Length of the scratch of {@link #principalAxes(int, double[], double[], double[], double[])}: the rows of a
+	 * shifted matrix, a candidate vector and the two vectors spanning a plane
+	 */
+	static final int SCRATCH_LENGTH = 18;
+
+	private static final int ROWS = 0;
+	private static final int CANDIDATE = 9;
+	private static final int U = 12;
+	private static final int W = 15;
+
+	private final int dimension;
+	private final boolean singular;
+
+	/**
+	 * Row major
+	 */
+	private final double[] covariance;
+
+	/**
+	 * Semi axes of the error ellipsoid, longest first, and their directions, axis k at axes[k * dimension]
+	 */
+	private final double[] semiAxes;
+	private final double[] axes;
+
+	private PositionUncertainty(int dimension, double[] normal) {
+		this.dimension = dimension;
+		this.covariance = new double[dimension * dimension];
+		this.singular = !invert(dimension, normal, covariance);
+		this.semiAxes = new double[dimension];
+		this.axes = new double[dimension * dimension];
+		double[] scratch = dimension == 3 ? new double[SCRATCH_LENGTH] : null;
+		if (singular) {
+			// the axes follow the normal matrix, the longest one along its weakest direction
+			double[] information = new double[dimension];
+			principalAxes(dimension, normal, information, axes, scratch);
+			reverse(dimension, axes);
+			for (int k = 0; k < dimension; k++) {
+				double value = information[dimension - 1 - k];
+				semiAxes[k] = value > SINGULARITY_THRESHOLD * information[0] ? 1.0 / Math.sqrt(value) : Double.POSITIVE_INFINITY;
+			}
+			return;
+		}
+		principalAxes(dimension, covariance, semiAxes, axes, scratch);
+		for (int j = 0; j < dimension; j++) {
+			semiAxes[j] = Math.sqrt(Math.max(semiAxes[j], 0.0));
+		}
+	}
+
+	/**
+	 * Uncertainty of the last solution of a {@link FixedDimensionSolver}.
+	 */
+	public static PositionUncertainty of(SolverWorkspace workspace) {
+		return fromNormalMatrix(workspace.dimension, workspace.normal);
+	}
+
+	/**
+	 * Uncertainty of the solution of a {@link NonLinearLeastSquaresSolver}, from its weighted Jacobian.
+	 */
+	public static PositionUncertainty of(Optimum optimum) {
+		RealMatrix jacobian = optimum.getJacobian();
+		int dimension = jacobian.getColumnDimension();
+		double[] normal = new double[dimension * dimension];
+		double[] row = new double[dimension];
+		for (int i = 0; i < jacobian.getRowDimension(); i++) {
+			for (int j = 0; j < dimension; j++) {
+				row[j] = jacobian.getEntry(i, j);
+			}
+			for (int j = 0; j < dimension; j++) {
+				for (int k = 0; k <= j; k++) {
+					normal[j * dimension + k] += row[j] * row[k];
+				}
+			}
+		}
+		for (int j = 0; j < dimension; j++) {
+			for (int k = 0; k < j; k++) {
+				normal[k * dimension + j] = normal[j * dimension + k];
+			}
+		}
+		return new PositionUncertainty(dimension, normal);
+	}
+
+	/**
+	 * @param normal J^T W J at the solution, row major, only the first dimension * dimension entries are read
+	 */
+	public static PositionUncertainty fromNormalMatrix(int dimension, double[] normal) {
+		if (dimension < 1) {
+			throw new IllegalArgumentException("The dimension should be positive.");
+		}
+		double[] copy = new double[dimension * dimension];
+		System.arraycopy(normal, 0, copy, 0, copy.length);
+		return new PositionUncertainty(dimension, copy);
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	/**
+	 * @return true if the anchors do not constrain every direction, the covariance then has infinite entries
+	 */
+	public boolean isSingular() {
+		return singular;
+	}
+
+	public double getCovariance(int i, int j) {
+		return covariance[i * dimension + j];
+	}
+
+	/**
+	 * @return a copy of the covariance matrix
+	 */
+	public double[][] getCovariance() {
+		double[][] result = new double[dimension][dimension];
+		for (int i = 0; i < dimension; i++) {
+			System.arraycopy(covariance, i * dimension, result[i], 0, dimension);
+		}
+		return result;
+	}
+
+	/**
+	 * @return standard deviation along axis j
+	 */
+	public double getSigma(int j) {
+		return Math.sqrt(covariance[j * dimension + j]);
+	}
+
+	/**
+	 * @return square root of the trace of the covariance, the radius of a typical position error
+	 */
+	public double getRadius() {
+		double trace = 0.0;
+		for (int j = 0; j < dimension; j++) {
+			trace += covariance[j * dimension + j];
+		}
+		return Math.sqrt(trace);
+	}
+
+	/**
+	 * @return the length of semi axis k of the error ellipse, longest first
+	 */
+	public double getSemiAxis(int k) {
+		return semiAxes[k];
+	}
+
+	/**
+	 * Copies the unit direction of semi axis k to the beginning of result.
+	 */
+	public void getAxis(int k, double[] result) {
+		System.arraycopy(axes, k * dimension, result, 0, dimension);
+	}
+
+	/**
+	 * @return angle of the major axis of a 2D error ellipse from the first coordinate axis, in radians within (-pi/2, pi/2]
+	 */
+	public double getOrientation() {
+		if (dimension != 2) {
+			throw new IllegalStateException("The orientation is only defined in 2D, use getAxis in " + dimension + "D.");
+		}
+		double angle = Math.atan2(axes[1], axes[0]);
+		if (angle <= -Math.PI / 2) {
+			angle += Math.PI;
+		} else if (angle > Math.PI / 2) {
+			angle -= Math.PI;
+		}
+		return angle;
+	}
+
+	/**
+	 * Inverts the symmetric matrix a into inverse.
+	 *
+	 * @return false if a is numerically singular, inverse then holds infinities on its diagonal
+	 */
+	static boolean invert(int n, double[] a, double[] inverse) {
+		double diagonalProduct = 1.0;
+		for (int j = 0; j < n; j++) {
+			diagonalProduct *= Math.abs(a[j * n + j]);
+		}
+
+		double determinant;
+		switch (n) {
+		case 1:
+			determinant = a[0];
+			if (singular(determinant, diagonalProduct)) {
+				break;
+			}
+			inverse[0] = 1.0 / determinant;
+			return true;
+		case 2: {
+			determinant = a[0] * a[3] - a[1] * a[2];
+			if (singular(determinant, diagonalProduct)) {
+				break;
+			}
+			inverse[0] = a[3] / determinant;
+			inverse[1] = -a[1] / determinant;
+			inverse[2] = -a[2] / determinant;
+			inverse[3] = a[0] / determinant;
+			return true;
+		}
+		case 3: {
+			double c00 = a[4] * a[8] - a[5] * a[7];
+			double c01 = a[5] * a[6] - a[3] * a[8];
+			double c02 = a[3] * a[7] - a[4] * a[6];
+			determinant = a[0] * c00 + a[1] * c01 + a[2] * c02;
+			if (singular(determinant, diagonalProduct)) {
+				break;
+			}
+			inverse[0] = c00 / determinant;
+			inverse[1] = (a[2] * a[7] - a[1] * a[8]) / determinant;
+			inverse[2] = (a[1] * a[5] - a[2] * a[4]) / determinant;
+			inverse[3] = c01 / determinant;
+			inverse[4] = (a[0] * a[8] - a[2] * a[6]) / determinant;
+			inverse[5] = (a[2] * a[3] - a[0] * a[5]) / determinant;
+			inverse[6] = c02 / determinant;
+			inverse[7] = (a[1] * a[6] - a[0] * a[7]) / determinant;
+			inverse[8] = (a[0] * a[4] - a[1] * a[3]) / determinant;
+			return true;
+		}
+		default: {
+			double[] factor = new double[n * n];
+			if (!SmallMatrix.cholesky(a, n, factor)) {
+				break;
+			}
+			determinant = 1.0;
+			for (int j = 0; j < n; j++) {
+				determinant *= factor[j * n + j] * factor[j * n + j];
+			}
+			if (singular(determinant, diagonalProduct)) {
+				break;
+			}
+			double[] column = new double[n];
+			for (int j = 0; j < n; j++) {
+				for (int i = 0; i < n; i++) {
+					column[i] = i == j ? 1.0 : 0.0;
+				}
+				SmallMatrix.choleskySolve(factor, n, column, column);
+				for (int i = 0; i < n; i++) {
+					inverse[i * n + j] = column[i];
+				}
+			}
+			return true;
+		}
+		}
+
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				inverse[i * n + j] = i == j ? Double.POSITIVE_INFINITY : 0.0;
+			}
+		}
+		return false;
+	}
+
+	private static boolean singular(double determinant, double diagonalProduct) {
+		return !(determinant > SINGULARITY_THRESHOLD * diagonalProduct);
+	}
+
+	/**
+	 * Eigenvalues of the symmetric matrix a, largest first, and the matching
+	 * unit eigenvectors, in closed form up to 3D and with an
+	 * {@link EigenDecomposition} above.
+	 *
+	 * @param scratch at least {@link #SCRATCH_LENGTH} doubles, used in 3D
+	 */
+	static void principalAxes(int n, double[] a, double[] values, double[] vectors, double[] scratch) {
+		switch (n) {
+		case 1:
+			values[0] = a[0];
+			vectors[0] = 1.0;
+			return;
+		case 2:
+			principalAxes2D(a[0], a[1], a[3], values, vectors, 0, null, 0, 0);
+			return;
+		case 3:
+			principalAxes3D(a, values, vectors, scratch);
+			return;
+		default: {
+			double[][] matrix = new double[n][n];
+			for (int i = 0; i < n; i++) {
+				System.arraycopy(a, i * n, matrix[i], 0, n);
+			}
+			EigenDecomposition eigen = new EigenDecomposition(new Array2DRowRealMatrix(matrix, false));
+			double[] eigenvalues = eigen.getRealEigenvalues();
+			int[] order = new int[n];
+			for (int k = 0; k < n; k++) {
+				order[k] = k;
+			}
+			// largest first
+			for (int k = 1; k < n; k++) {
+				for (int m = k; m > 0 && eigenvalues[order[m]] > eigenvalues[order[m - 1]]; m--) {
+					int swap = order[m];
+					order[m] = order[m - 1];
+					order[m - 1] = swap;
+				}
+			}
+			for (int k = 0; k < n; k++) {
+				values[k] = eigenvalues[order[k]];
+				for (int j = 0; j < n; j++) {
+					vectors[k * n + j] = eigen.getEigenvector(order[k]).getEntry(j);
+				}
+			}
+			return;
+		}
+		}
+	}
+
+	/**
+	 * Eigen decomposition of the symmetric 2x2 matrix [[a, b], [b, c]]. When
+	 * plane is given, the matrix is expressed in the plane spanned by the
+	 * unit vectors at plane[u] and plane[w] and the eigenvectors are mapped
+	 * back to 3D.
+	 */
+	private static void principalAxes2D(double a, double b, double c, double[] values, double[] vectors, int index, double[] plane, int u, int w) {
+		double mean = 0.5 * (a + c);
+		double radius = Math.hypot(0.5 * (a - c), b);
+		values[index] = mean + radius;
+		values[index + 1] = mean - radius;
+		double angle = 0.5 * Math.atan2(2.0 * b, a - c);
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		if (plane == null) {
+			vectors[0] = cos;
+			vectors[1] = sin;
+			vectors[2] = -sin;
+			vectors[3] = cos;
+			return;
+		}
+		for (int j = 0; j < 3; j++) {
+			vectors[index * 3 + j] = cos * plane[u + j] + sin * plane[w + j];
+			vectors[(index + 1) * 3 + j] = -sin * plane[u + j] + cos * plane[w + j];
+		}
+	}
+
+	private static void principalAxes3D(double[] a, double[] values, double[] vectors, double[] scratch) {
+		// eigenvalues of a symmetric 3x3 matrix by the trigonometric method
+		double offDiagonal = a[1] * a[1] + a[2] * a[2] + a[5] * a[5];
+		double mean = (a[0] + a[4] + a[8]) / 3.0;
+		double d0 = a[0] - mean;
+		double d1 = a[4] - mean;
+		double d2 = a[8] - mean;
+		double p = Math.sqrt((d0 * d0 + d1 * d1 + d2 * d2 + 2.0 * offDiagonal) / 6.0);
+		if (p == 0.0 || Double.isNaN(p) || Double.isInfinite(p)) {
+			for (int j = 0; j < 3; j++) {
+				values[j] = a[4 * j];
+				vectors[4 * j] = 1.0;
+			}
+			return;
+		}
+		double b00 = d0 / p, b11 = d1 / p, b22 = d2 / p;
+		double b01 = a[1] / p, b02 = a[2] / p, b12 = a[5] / p;
+		double halfDeterminant = 0.5 * (b00 * (b11 * b22 - b12 * b12) - b01 * (b01 * b22 - b12 * b02) + b02 * (b01 * b12 - b11 * b02));
+		double phi = Math.acos(Math.max(-1.0, Math.min(1.0, halfDeterminant))) / 3.0;
+		values[0] = mean + 2.0 * p * Math.cos(phi);
+		values[2] = mean + 2.0 * p * Math.cos(phi + 2.0 * Math.PI / 3.0);
+		values[1] = 3.0 * mean - values[0] - values[2];
+
+		// the eigenvector of the most isolated eigenvalue is the widest cross product of two rows of a - value I
+		int isolated = values[0] - values[1] >= values[1] - values[2] ? 0 : 2;
+		System.arraycopy(a, 0, scratch, ROWS, 9);
+		for (int j = 0; j < 3; j++) {
+			scratch[ROWS + 4 * j] -= values[isolated];
+		}
+		int v = isolated * 3;
+		double best = -1.0;
+		for (int i = 0; i < 3; i++) {
+			cross(scratch, ROWS + 3 * i, scratch, ROWS + 3 * ((i + 1) % 3), scratch, CANDIDATE);
+			double norm = dot(scratch, CANDIDATE, scratch, CANDIDATE);
+			if (norm > best) {
+				best = norm;
+				System.arraycopy(scratch, CANDIDATE, vectors, v, 3);
+			}
+		}
+		normalize(vectors, v);
+
+		// the two other eigenvectors solve the 2x2 problem in the plane orthogonal to v, they do not overlap v in vectors
+		int smallest = Math.abs(vectors[v]) <= Math.abs(vectors[v + 1]) ? (Math.abs(vectors[v]) <= Math.abs(vectors[v + 2]) ? 0 : 2)
+				: (Math.abs(vectors[v + 1]) <= Math.abs(vectors[v + 2]) ? 1 : 2);
+		for (int j = 0; j < 3; j++) {
+			scratch[CANDIDATE + j] = j == smallest ? 1.0 : 0.0;
+		}
+		cross(vectors, v, scratch, CANDIDATE, scratch, U);
+		normalize(scratch, U);
+		cross(vectors, v, scratch, U, scratch, W);
+		int other = isolated == 0 ? 1 : 0;
+		principalAxes2D(quadratic(a, scratch, U, U), quadratic(a, scratch, U, W), quadratic(a, scratch, W, W), values, vectors, other, scratch, U, W);
+	}
+
+	/**
+	 * Reverses the order of the axes, for a matrix whose eigenvalues are inverse to the ones wanted
+	 */
+	private static void reverse(int n, double[] vectors) {
+		for (int k = 0; k < n / 2; k++) {
+			for (int j = 0; j < n; j++) {
+				double swap = vectors[k * n + j];
+				vectors[k * n + j] = vectors[(n - 1 - k) * n + j];
+				vectors[(n - 1 - k) * n + j] = swap;
+			}
+		}
+	}
+
+	private static void cross(double[] a, int i, double[] b, int j, double[] result, int k) {
+		result[k] = a[i + 1] * b[j + 2] - a[i + 2] * b[j + 1];
+		result[k + 1] = a[i + 2] * b[j] - a[i] * b[j + 2];
+		result[k + 2] = a[i] * b[j + 1] - a[i + 1] * b[j];
+	}
+
+	private static double dot(double[] a, int i, double[] b, int j) {
+		return a[i] * b[j] + a[i + 1] * b[j + 1] + a[i + 2] * b[j + 2];
+	}
+
+	private static void normalize(double[] v, int i) {
+		double norm = Math.sqrt(dot(v, i, v, i));
+		for (int j = 0; j < 3; j++) {
+			v[i + j] /= norm;
+		}
+	}
+
+	/**
+	 * @return x^T a y for the 3D vectors at x[i] and x[j]
+	 */
+	private static double quadratic(double[] a, double[] x, int i, int j) {
+		double sum = 0.0;
+		for (int r = 0; r < 3; r++) {
+			sum += x[i + r] * (a[3 * r] * x[j] + a[3 * r + 1] * x[j + 1] + a[3 * r + 2] * x[j + 2]);
+		}
+		return sum;
+	}
+}
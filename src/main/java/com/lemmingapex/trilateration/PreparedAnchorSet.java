@@ -0,0 +1,108 @@
+package com.lemmingapex.trilateration;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * The linear formulation of {@link LinearLeastSquaresSolver} with the work
+ * that only depends on the anchor positions done once. The matrix A is
+ * factored up front and the squared distances of the anchors to the
+ * reference anchor are cached, so solving for a new set of distances is a
+ * single back substitution.
+ *
+ * Instances are immutable and may be shared between threads. For anchors
+ * that change often, see {@link UpdatableLinearSystem}.
+ */
+public class PreparedAnchorSet {
+
+	protected final int positionDimension;
+
+	/**
+	 * Position of the reference anchor, index 0
+	 */
+	protected final double[] reference;
+
+	/**
+	 * Squared distance between each anchor and the reference anchor, index i holds anchor i + 1
+	 */
+	protected final double[] referenceDistancesSquared;
+
+	protected final DecompositionSolver solver;
+
+	/**
+	 * Geometry of the anchors, only computed when they are singular
+	 */
+	protected final AnchorGeometry geometry;
+
+	public PreparedAnchorSet(double[][] positions) {
+		if (positions.length < 2) {
+			throw new IllegalArgumentException("Need at least two positions.");
+		}
+
+		int numberOfPositions = positions.length;
+		positionDimension = positions[0].length;
+		reference = positions[0].clone();
+		referenceDistancesSquared = new double[numberOfPositions - 1];
+
+		double[][] Ad = new double[numberOfPositions - 1][positionDimension];
+		for (int i = 1; i < numberOfPositions; i++) {
+			if (positions[i].length != positionDimension) {
+				throw new IllegalArgumentException("The dimension of all positions should be the same.");
+			}
+			double di0squared = 0;
+			for (int j = 0; j < positionDimension; j++) {
+				double dij0j = positions[i][j] - reference[j];
+				Ad[i - 1][j] = dij0j;
+				di0squared += dij0j * dij0j;
+			}
+			referenceDistancesSquared[i - 1] = di0squared;
+		}
+
+		solver = new QRDecomposition(new Array2DRowRealMatrix(Ad, false)).getSolver();
+		geometry = solver.isNonSingular() ? null : AnchorGeometry.of(positionDimension, FixedDimensionSolver.pack(positions));
+	}
+
+	public int size() {
+		return referenceDistancesSquared.length + 1;
+	}
+
+	public int getDimension() {
+		return positionDimension;
+	}
+
+	/**
+	 * @return false if the anchors do not determine a unique position, in which case {@link #solve(double[])} returns the projection of the target onto their hull
+	 */
+	public boolean isNonSingular() {
+		return solver.isNonSingular();
+	}
+
+	/**
+	 * @param distances distances from the anchors, in the order the positions were given
+	 * @return the linear least squares position estimate
+	 */
+	public RealVector solve(double[] distances) {
+		if (distances.length != size()) {
+			throw new IllegalArgumentException("The number of positions, " + size() + ", does not match the number of distances, " + distances.length + ".");
+		}
+
+		if (!solver.isNonSingular()) {
+			double[] reduced = new double[positionDimension];
+			geometry.solveReduced(distances, reduced);
+			return new ArrayRealVector(reduced, false);
+		}
+
+		double r0squared = distances[0] * distances[0];
+		double[] bd = new double[referenceDistancesSquared.length];
+		for (int i = 0; i < bd.length; i++) {
+			double ri = distances[i + 1];
+			bd[i] = 0.5 * (r0squared - ri * ri + referenceDistancesSquared[i]);
+		}
+		RealVector x = solver.solve(new ArrayRealVector(bd, false));
+
+		return x.add(new ArrayRealVector(reference, false));
+	}
+}
@@ -0,0 +1,78 @@
+package com.lemmingapex.trilateration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, least recently used cache of {@link PreparedAnchorSet}s, for
+ * deployments with many sites whose anchors rarely move. Entries are keyed by
+ * an identifier of the anchor set chosen by the caller, for instance a site
+ * id. When the anchors of a site change, {@link #invalidate(Object)} it.
+ *
+ * @param <K> type of the anchor set identifiers
+ */
+public class PreparedAnchorSetCache<K> {
+
+	protected final int capacity;
+
+	private final LinkedHashMap<K, PreparedAnchorSet> entries;
+
+	public PreparedAnchorSetCache(final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity should be positive.");
+		}
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<K, PreparedAnchorSet>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, PreparedAnchorSet> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @return the cached anchor set, or null if there is none for this key
+	 */
+	public synchronized PreparedAnchorSet get(K key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Returns the cached anchor set, preparing it from positions if there is none for this key.
+	 */
+	public PreparedAnchorSet get(K key, double[][] positions) {
+		PreparedAnchorSet prepared = get(key);
+		if (prepared != null) {
+			return prepared;
+		}
+
+		// factor outside of the lock, if two threads race the first one wins
+		prepared = new PreparedAnchorSet(positions);
+		synchronized (this) {
+			PreparedAnchorSet existing = entries.get(key);
+			if (existing != null) {
+				return existing;
+			}
+			entries.put(key, prepared);
+			return prepared;
+		}
+	}
+
+	public synchronized void invalidate(K key) {
+		entries.remove(key);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+}
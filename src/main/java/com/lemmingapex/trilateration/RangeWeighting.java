@@ -0,0 +1,86 @@
+package com.lemmingapex.trilateration;
+
+/**
+ * Noise model of the measured ranges, giving the weight of each residual of
+ * {@link TrilaterationFunction}. The residual of anchor i is
+ * |x - p_i|^2 - d_i^2, so a range error of standard deviation sigma_i
+ * makes it vary by about 2 d_i sigma_i, and its weight, the inverse of its
+ * variance up to a common factor, is 1 / (d_i^2 sigma_i^2).
+ *
+ * The square roots of the weights are computed once per function and folded
+ * into its residuals and Jacobian, so the optimizer needs no weight matrix.
+ */
+public interface RangeWeighting {
+
+	/**
+	 * Ranges with the same standard deviation, weights 1 / d^2. The default of the solvers.
+	 */
+	RangeWeighting INVERSE_SQUARE = new RangeWeighting() {
+		@Override
+		public double weight(int anchor, double distance) {
+			return 1 / (distance * distance);
+		}
+	};
+
+	/**
+	 * Unweighted residuals, ranges whose standard deviation shrinks with the distance
+	 */
+	RangeWeighting CONSTANT = new RangeWeighting() {
+		@Override
+		public double weight(int anchor, double distance) {
+			return 1.0;
+		}
+	};
+
+	/**
+	 * @param anchor index of the anchor measured
+	 * @param distance measured distance, bounded to a strictly positive domain
+	 * @return weight of the residual of the anchor, not negative
+	 */
+	double weight(int anchor, double distance);
+
+	/**
+	 * Ranges whose variance depends on the anchor, e.g. on its type or calibration.
+	 *
+	 * @param variances variance of the range of each anchor, indexed like the anchors
+	 */
+	static RangeWeighting perAnchorVariance(final double[] variances) {
+		for (double variance : variances) {
+			if (!(variance > 0.0) || Double.isInfinite(variance)) {
+				throw new IllegalArgumentException("The variances should be positive and finite.");
+			}
+		}
+		final double[] copy = variances.clone();
+		return new RangeWeighting() {
+			@Override
+			public double weight(int anchor, double distance) {
+				return 1 / (distance * distance * copy[anchor]);
+			}
+		};
+	}
+
+	/**
+	 * Ranges derived from received signal strength with the log distance
+	 * path loss model. Shadowing of standard deviation shadowingDeviation dB
+	 * makes the range error proportional to the range, sigma = k d with
+	 * k = ln(10) shadowingDeviation / (10 pathLossExponent), so the weights are
+	 * 1 / (k^2 d^4).
+	 *
+	 * @param pathLossExponent exponent of the path loss, 2 in free space
+	 * @param shadowingDeviation standard deviation of the received signal strength, in dB
+	 */
+	static RangeWeighting rssi(double pathLossExponent, double shadowingDeviation) {
+		if (!(pathLossExponent > 0.0) || !(shadowingDeviation > 0.0)) {
+			throw new IllegalArgumentException("The path loss exponent and the shadowing deviation should be positive.");
+		}
+		double k = Math.log(10.0) * shadowingDeviation / (10.0 * pathLossExponent);
+		final double inverseKSquared = 1 / (k * k);
+		return new RangeWeighting() {
+			@Override
+			public double weight(int anchor, double distance) {
+				double distanceSquared = distance * distance;
+				return inverseKSquared / (distanceSquared * distanceSquared);
+			}
+		};
+	}
+}
@@ -0,0 +1,62 @@
+package com.lemmingapex.trilateration;
+
+/**
+ * Outcome of a {@link RobustSolver} solve: the fix refined on the inliers
+ * and which ranges were kept.
+ */
+public final class RobustFix {
+
+	private final BoundedOptimum optimum;
+	private final boolean[] inliers;
+	private final int inlierCount;
+	private final int hypotheses;
+	private final boolean confident;
+
+	RobustFix(BoundedOptimum optimum, boolean[] inliers, int inlierCount, int hypotheses, boolean confident) {
+		this.optimum = optimum;
+		this.inliers = inliers;
+		this.inlierCount = inlierCount;
+		this.hypotheses = hypotheses;
+		this.confident = confident;
+	}
+
+	/**
+	 * @return the nonlinear refinement on the inliers, its residuals are indexed like the inliers
+	 */
+	public BoundedOptimum getOptimum() {
+		return optimum;
+	}
+
+	public double[] getPosition() {
+		return optimum.getPoint().toArray();
+	}
+
+	/**
+	 * @return a copy of the inlier mask, indexed like the anchors
+	 */
+	public boolean[] getInliers() {
+		return inliers.clone();
+	}
+
+	public boolean isInlier(int i) {
+		return inliers[i];
+	}
+
+	public int getInlierCount() {
+		return inlierCount;
+	}
+
+	/**
+	 * @return number of minimal subsets drawn, 0 if there were too few anchors to sample
+	 */
+	public int getHypotheses() {
+		return hypotheses;
+	}
+
+	/**
+	 * @return true if sampling stopped because the confidence target was met, false if a cap on hypotheses or time stopped it
+	 */
+	public boolean isConfident() {
+		return confident;
+	}
+}
@@ -0,0 +1,481 @@
+package com.lemmingapex.trilateration;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+
+/**
+ * Solves Trilateration problems whose ranges may contain outliers, such as
+ * multipath reflections, which would otherwise pull the least squares
+ * solution away and can keep the optimizer iterating to its limits.
+ *
+ * Hypotheses are drawn from random minimal subsets of dimension + 1 anchors,
+ * solved directly by {@link ClosedFormSolver} in 1 to 3 dimensions or by the
+ * linear formulation otherwise, and scored against every range in one pass
+ * over the packed positions:
+ * <ul>
+ * <li>RANSAC counts the ranges within the inlier threshold of a hypothesis,
+ * ties broken by the sum of the squared range errors truncated at the
+ * threshold (MSAC);</li>
+ * <li>Least median of squares (LMedS) keeps the hypothesis with the smallest
+ * median squared range error and needs no threshold, it tolerates up to half
+ * the ranges being outliers.</li>
+ * </ul>
+ *
+ * Sampling stops once N = log(1 - confidence) / log(1 - w^s) hypotheses have
+ * been drawn, s being the subset size and w the inlier ratio, that of the
+ * best hypothesis so far for RANSAC and the worst case of one half for
+ * LMedS, or when the caps on hypotheses or time are hit, so the latency is
+ * bounded whatever the data. The best hypothesis is then refined
+ * by {@link NonLinearLeastSquaresSolver#solve(double[], SolveOptions)} on its
+ * inliers, within whatever the timeout leaves after sampling.
+ *
+ * Instances are immutable and may be shared between threads, create them
+ * with {@link #builder()}.
+ */
+public class RobustSolver {
+
+	public enum Method {
+		RANSAC, LEAST_MEDIAN_OF_SQUARES
+	}
+
+	public static final double DEFAULT_CONFIDENCE = 0.99;
+	public static final int DEFAULT_MAX_HYPOTHESES = 500;
+
+	/**
+	 * Number of robust standard deviations from the LMedS fit beyond which a range is an outlier
+	 */
+	private static final double LMEDS_INLIER_SIGMAS = 2.5;
+
+	private final Method method;
+	private final double inlierThreshold;
+	private final double confidence;
+	private final int maxHypotheses;
+	private final long timeoutNanos;
+	private final long seed;
+	private final boolean seeded;
+	private final SolveOptions refineOptions;
+	private final LeastSquaresOptimizer optimizer;
+
+	private RobustSolver(Builder builder) {
+		this.method = builder.method;
+		this.inlierThreshold = builder.inlierThreshold;
+		this.confidence = builder.confidence;
+		this.maxHypotheses = builder.maxHypotheses;
+		this.timeoutNanos = builder.timeoutNanos;
+		this.seed = builder.seed;
+		this.seeded = builder.seeded;
+		this.refineOptions = builder.refineOptions;
+		this.optimizer = builder.optimizer;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public RobustFix solve(double[][] positions, double[] distances) {
+		return solve(new TrilaterationFunction(positions, distances));
+	}
+
+	/**
+	 * @param function positions, distances and weighting of the problem, the weighting also applies to the refinement on the inliers
+	 */
+	public RobustFix solve(TrilaterationFunction function) {
+		long start = System.nanoTime();
+		double[][] positions = function.positions;
+		double[] distances = function.distances;
+		int count = positions.length;
+		int dimension = positions[0].length;
+		int sampleSize = dimension + 1;
+
+		long deadline = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : start + timeoutNanos;
+		// the refinement gets what is left of the timeout
+		SolveOptions options = deadline == Long.MAX_VALUE ? refineOptions : refineOptions.withDeadline(deadline);
+
+		boolean[] inliers = new boolean[count];
+		if (count <= sampleSize) {
+			// no redundancy to tell outliers apart
+			Arrays.fill(inliers, true);
+			BoundedOptimum optimum = new NonLinearLeastSquaresSolver(function, optimizer).solve(options);
+			return new RobustFix(optimum, inliers, count, 0, false);
+		}
+
+		double[] packed = FixedDimensionSolver.pack(positions);
+		Random random = seeded ? new Random(seed) : ThreadLocalRandom.current();
+
+		int[] indices = new int[count];
+		for (int i = 0; i < count; i++) {
+			indices[i] = i;
+		}
+		double[] samplePositions = new double[sampleSize * dimension];
+		double[] sampleDistances = new double[sampleSize];
+		double[] hypothesis = new double[dimension];
+		double[] best = new double[dimension];
+		double[] errors = new double[count];
+		double[] scratch = new double[Math.max(count, dimension * dimension + dimension)];
+
+		// rounding keeps exact ranges from having exactly zero errors
+		double maxDistance = 0.0;
+		for (int i = 0; i < count; i++) {
+			maxDistance = Math.max(maxDistance, distances[i]);
+		}
+		double floorSquared = ClosedFormSolver.EXACT_TOLERANCE * maxDistance * ClosedFormSolver.EXACT_TOLERANCE * maxDistance;
+
+		boolean found = false;
+		int bestInliers = 0;
+		double bestScore = Double.POSITIVE_INFINITY;
+		// the threshold of LMedS grows with the error of a bad hypothesis, so its inliers say nothing about the inlier ratio, assume its breakdown point instead
+		double requiredHypotheses = method == Method.RANSAC ? maxHypotheses : requiredHypotheses(0.5, sampleSize);
+		int hypotheses = 0;
+		while (hypotheses < maxHypotheses && hypotheses < requiredHypotheses) {
+			if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+				break;
+			}
+			hypotheses++;
+
+			// partial Fisher-Yates shuffle, the sample is the first sampleSize indices
+			for (int k = 0; k < sampleSize; k++) {
+				int swap = k + random.nextInt(count - k);
+				int index = indices[swap];
+				indices[swap] = indices[k];
+				indices[k] = index;
+				System.arraycopy(packed, index * dimension, samplePositions, k * dimension, dimension);
+				sampleDistances[k] = distances[index];
+			}
+			if (!solveMinimal(dimension, samplePositions, sampleDistances, hypothesis, scratch)) {
+				continue;
+			}
+
+			rangeErrors(dimension, packed, distances, count, hypothesis, errors);
+			int hypothesisInliers;
+			double score;
+			if (method == Method.RANSAC) {
+				double thresholdSquared = inlierThreshold * inlierThreshold;
+				hypothesisInliers = 0;
+				score = 0.0;
+				for (int i = 0; i < count; i++) {
+					double errorSquared = errors[i];
+					if (errorSquared <= thresholdSquared) {
+						hypothesisInliers++;
+						score += errorSquared;
+					} else {
+						score += thresholdSquared;
+					}
+				}
+			} else {
+				System.arraycopy(errors, 0, scratch, 0, count);
+				score = select(scratch, count, count / 2);
+				double thresholdSquared = lmedsThresholdSquared(score, count, sampleSize, floorSquared);
+				hypothesisInliers = 0;
+				for (int i = 0; i < count; i++) {
+					if (errors[i] <= thresholdSquared) {
+						hypothesisInliers++;
+					}
+				}
+			}
+
+			// RANSAC prefers more inliers, then a lower truncated cost
+			boolean better = method == Method.RANSAC ? hypothesisInliers > bestInliers || (hypothesisInliers == bestInliers && score < bestScore) : score < bestScore;
+			if (!found || better) {
+				found = true;
+				bestScore = score;
+				bestInliers = hypothesisInliers;
+				System.arraycopy(hypothesis, 0, best, 0, dimension);
+				if (method == Method.RANSAC) {
+					requiredHypotheses = requiredHypotheses((double) bestInliers / count, sampleSize);
+				}
+			}
+		}
+		boolean confident = found && hypotheses >= requiredHypotheses;
+
+		if (!found) {
+			// every sample was degenerate, fall back to all the ranges
+			Arrays.fill(inliers, true);
+			BoundedOptimum optimum = new NonLinearLeastSquaresSolver(function, optimizer).solve(options);
+			return new RobustFix(optimum, inliers, count, hypotheses, false);
+		}
+
+		double thresholdSquared = method == Method.RANSAC ? inlierThreshold * inlierThreshold : lmedsThresholdSquared(bestScore, count, sampleSize, floorSquared);
+		int inlierCount = markInliers(dimension, packed, distances, count, best, thresholdSquared, errors, inliers);
+		if (inlierCount < sampleSize) {
+			// too few inliers to determine a position, refine on all the ranges instead
+			Arrays.fill(inliers, true);
+			inlierCount = count;
+		}
+		BoundedOptimum optimum = refine(function, inliers, inlierCount, best, options);
+
+		// the refined fix may move ranges across the threshold, refine once more if it does
+		boolean[] refined = new boolean[count];
+		double[] point = optimum.getPoint().toArray();
+		int refinedCount = markInliers(dimension, packed, distances, count, point, thresholdSquared, errors, refined);
+		if (refinedCount >= sampleSize && !Arrays.equals(refined, inliers)) {
+			optimum = refine(function, refined, refinedCount, point, options);
+			inliers = refined;
+			inlierCount = refinedCount;
+		}
+		return new RobustFix(optimum, inliers, inlierCount, hypotheses, confident);
+	}
+
+	/**
+	 * Robust estimate of the standard deviation from the median squared error,
+	 * 1.4826 (1 + 5 / (n - s)) sqrt(median), as proposed by Rousseeuw
+	 *
+	 * @return the squared range error below which a range is an inlier, at least floorSquared
+	 */
+	private static double lmedsThresholdSquared(double medianSquared, int count, int sampleSize, double floorSquared) {
+		double sigma = 1.4826 * (1.0 + 5.0 / (count - sampleSize)) * Math.sqrt(medianSquared);
+		double threshold = LMEDS_INLIER_SIGMAS * sigma;
+		return Math.max(threshold * threshold, floorSquared);
+	}
+
+	/**
+	 * @return the number of hypotheses needed to draw an all inlier subset with the target confidence, infinity without inliers
+	 */
+	private double requiredHypotheses(double inlierRatio, int sampleSize) {
+		double allInliers = Math.pow(inlierRatio, sampleSize);
+		if (allInliers >= 1.0) {
+			return 1;
+		}
+		if (allInliers <= 0.0) {
+			// no number of hypotheses reaches the confidence, maxHypotheses still stops the sampling
+			return Double.POSITIVE_INFINITY;
+		}
+		return Math.ceil(Math.log(1.0 - confidence) / Math.log(1.0 - allInliers));
+	}
+
+	private BoundedOptimum refine(TrilaterationFunction function, boolean[] inliers, int inlierCount, double[] initialPoint, SolveOptions options) {
+		double[][] positions = function.positions;
+		double[] distances = function.distances;
+		double[][] inlierPositions = new double[inlierCount][];
+		double[] inlierDistances = new double[inlierCount];
+		final int[] original = new int[inlierCount];
+		int k = 0;
+		for (int i = 0; i < positions.length; i++) {
+			if (inliers[i]) {
+				inlierPositions[k] = positions[i];
+				inlierDistances[k] = distances[i];
+				original[k] = i;
+				k++;
+			}
+		}
+		// the weighting is indexed like the original anchors
+		final RangeWeighting weighting = function.getWeighting();
+		RangeWeighting inlierWeighting = new RangeWeighting() {
+			@Override
+			public double weight(int anchor, double distance) {
+				return weighting.weight(original[anchor], distance);
+			}
+		};
+		TrilaterationFunction inlierFunction = new TrilaterationFunction(inlierPositions, inlierDistances, inlierWeighting);
+		return new NonLinearLeastSquaresSolver(inlierFunction, optimizer).solve(initialPoint, options);
+	}
+
+	/**
+	 * Solves dimension + 1 anchors, by {@link ClosedFormSolver} up to 3 dimensions and by the normal equations of the linear formulation above
+	 *
+	 * @param scratch at least dimension * dimension + dimension entries
+	 */
+	private static boolean solveMinimal(int dimension, double[] positions, double[] distances, double[] result, double[] scratch) {
+		if (dimension <= 3) {
+			return ClosedFormSolver.solve(dimension, positions, distances, 0, result, scratch);
+		}
+		// rows (p_i - p_0), right hand side 0.5 * (|p_i - p_0|^2 - r_i^2 + r_0^2), A^T A y = A^T b
+		double[] normal = scratch;
+		double[] rhs = result;
+		Arrays.fill(normal, 0, dimension * dimension, 0.0);
+		Arrays.fill(rhs, 0.0);
+		double r0squared = distances[0] * distances[0];
+		for (int i = 1; i <= dimension; i++) {
+			double normSquared = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				double delta = positions[i * dimension + j] - positions[j];
+				normSquared += delta * delta;
+			}
+			double b = 0.5 * (normSquared - distances[i] * distances[i] + r0squared);
+			for (int j = 0; j < dimension; j++) {
+				double aj = positions[i * dimension + j] - positions[j];
+				rhs[j] += aj * b;
+				for (int l = 0; l <= j; l++) {
+					normal[j * dimension + l] += aj * (positions[i * dimension + l] - positions[l]);
+				}
+			}
+		}
+		if (!SmallMatrix.cholesky(normal, dimension, normal)) {
+			return false;
+		}
+		SmallMatrix.choleskySolve(normal, dimension, rhs, result);
+		for (int j = 0; j < dimension; j++) {
+			result[j] += positions[j];
+		}
+		return true;
+	}
+
+	/**
+	 * @param errors receives the squared difference between the distance of point to each anchor and its range
+	 */
+	private static void rangeErrors(int dimension, double[] positions, double[] distances, int count, double[] point, double[] errors) {
+		for (int i = 0; i < count; i++) {
+			double distanceSquared = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				double delta = point[j] - positions[i * dimension + j];
+				distanceSquared += delta * delta;
+			}
+			double error = Math.sqrt(distanceSquared) - distances[i];
+			errors[i] = error * error;
+		}
+	}
+
+	private static int markInliers(int dimension, double[] positions, double[] distances, int count, double[] point, double thresholdSquared, double[] errors,
+			boolean[] inliers) {
+		rangeErrors(dimension, positions, distances, count, point, errors);
+		int inlierCount = 0;
+		for (int i = 0; i < count; i++) {
+			inliers[i] = errors[i] <= thresholdSquared;
+			if (inliers[i]) {
+				inlierCount++;
+			}
+		}
+		return inlierCount;
+	}
+
+	/**
+	 * Quickselect, reorders values
+	 *
+	 * @return the k-th smallest of the first count values
+	 */
+	static double select(double[] values, int count, int k) {
+		int left = 0;
+		int right = count - 1;
+		while (left < right) {
+			double pivot = values[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (values[i] < pivot) {
+					i++;
+				}
+				while (values[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					double swap = values[i];
+					values[i] = values[j];
+					values[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				break;
+			}
+		}
+		return values[k];
+	}
+
+	public static final class Builder {
+
+		private Method method = Method.LEAST_MEDIAN_OF_SQUARES;
+		private double inlierThreshold = Double.NaN;
+		private double confidence = DEFAULT_CONFIDENCE;
+		private int maxHypotheses = DEFAULT_MAX_HYPOTHESES;
+		private long timeoutNanos = Long.MAX_VALUE;
+		private long seed;
+		private boolean seeded;
+		private SolveOptions refineOptions = SolveOptions.DEFAULT;
+		private LeastSquaresOptimizer optimizer = new LevenbergMarquardtOptimizer();
+
+		private Builder() {
+		}
+
+		/**
+		 * Uses RANSAC, the default being least median of squares.
+		 *
+		 * @param inlierThreshold largest difference between the distance to an anchor and its range for the range to be an inlier
+		 */
+		public Builder ransac(double inlierThreshold) {
+			if (!(inlierThreshold > 0.0) || Double.isInfinite(inlierThreshold)) {
+				throw new IllegalArgumentException("The inlier threshold should be positive and finite.");
+			}
+			this.method = Method.RANSAC;
+			this.inlierThreshold = inlierThreshold;
+			return this;
+		}
+
+		public Builder leastMedianOfSquares() {
+			this.method = Method.LEAST_MEDIAN_OF_SQUARES;
+			this.inlierThreshold = Double.NaN;
+			return this;
+		}
+
+		/**
+		 * @param confidence probability of having drawn a subset of inliers at which sampling stops
+		 */
+		public Builder confidence(double confidence) {
+			if (!(confidence > 0.0 && confidence < 1.0)) {
+				throw new IllegalArgumentException("The confidence should be between 0 and 1.");
+			}
+			this.confidence = confidence;
+			return this;
+		}
+
+		public Builder maxHypotheses(int maxHypotheses) {
+			if (maxHypotheses < 1) {
+				throw new IllegalArgumentException("The maximum number of hypotheses should be positive.");
+			}
+			this.maxHypotheses = maxHypotheses;
+			return this;
+		}
+
+		/**
+		 * Bounds the time of a solve. Drawing hypotheses stops at the timeout and the refinement gets the time left, on top of the limits of {@link #refineOptions(SolveOptions)}.
+		 */
+		public Builder timeout(long duration, TimeUnit unit) {
+			if (duration < 0) {
+				throw new IllegalArgumentException("The timeout should not be negative.");
+			}
+			this.timeoutNanos = unit.toNanos(duration);
+			return this;
+		}
+
+		/**
+		 * Draws subsets from a fixed seed, for reproducible results. By default each solve draws from {@link ThreadLocalRandom}.
+		 */
+		public Builder seed(long seed) {
+			this.seed = seed;
+			this.seeded = true;
+			return this;
+		}
+
+		/**
+		 * @param refineOptions limits of the nonlinear refinement on the inliers
+		 */
+		public Builder refineOptions(SolveOptions refineOptions) {
+			this.refineOptions = refineOptions;
+			return this;
+		}
+
+		/**
+		 * @param optimizer optimizer of the refinement, must be thread safe if the solver is shared
+		 */
+		public Builder optimizer(LeastSquaresOptimizer optimizer) {
+			this.optimizer = optimizer;
+			return this;
+		}
+
+		public RobustSolver build() {
+			return new RobustSolver(this);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.lemmingapex.trilateration;
+
+/**
+ * Dense linear algebra on the tiny (dimension x dimension) symmetric systems
+ * that show up when trilaterating. Matrices are stored row major in flat
+ * arrays supplied by the caller, so nothing here allocates.
+ */
+final class SmallMatrix {
+
+	private SmallMatrix() {
+	}
+
+	/**
+	 * Cholesky factorization of the symmetric positive definite matrix a into
+	 * the lower triangular factor l, a = l * l^T.
+	 *
+	 * @return false if a is not numerically positive definite
+	 */
+	static boolean cholesky(double[] a, int n, double[] l) {
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j <= i; j++) {
+				double sum = a[i * n + j];
+				for (int k = 0; k < j; k++) {
+					sum -= l[i * n + k] * l[j * n + k];
+				}
+				if (i == j) {
+					if (!(sum > 0.0)) {
+						return false;
+					}
+					l[i * n + i] = Math.sqrt(sum);
+				} else {
+					l[i * n + j] = sum / l[j * n + j];
+				}
+			}
+			for (int j = i + 1; j < n; j++) {
+				l[i * n + j] = 0.0;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Solves l * l^T * x = b given the factor computed by {@link #cholesky(double[], int, double[])}.
+	 * b and x may be the same array.
+	 */
+	static void choleskySolve(double[] l, int n, double[] b, double[] x) {
+		// forward substitution, l * y = b
+		for (int i = 0; i < n; i++) {
+			double sum = b[i];
+			for (int k = 0; k < i; k++) {
+				sum -= l[i * n + k] * x[k];
+			}
+			x[i] = sum / l[i * n + i];
+		}
+		// back substitution, l^T * x = y
+		for (int i = n - 1; i >= 0; i--) {
+			double sum = x[i];
+			for (int k = i + 1; k < n; k++) {
+				sum -= l[k * n + i] * x[k];
+			}
+			x[i] = sum / l[i * n + i];
+		}
+	}
+
+	/**
+	 * Trace of the inverse of l * l^T, given the factor computed by {@link #cholesky(double[], int, double[])}.
+	 *
+	 * @param scratch at least n entries
+	 */
+	static double choleskyInverseTrace(double[] l, int n, double[] scratch) {
+		// trace((l l^T)^-1) = sum over j of |l^-1 e_j|^2
+		double trace = 0.0;
+		for (int j = 0; j < n; j++) {
+			for (int i = 0; i < n; i++) {
+				double sum = i == j ? 1.0 : 0.0;
+				for (int k = j; k < i; k++) {
+					sum -= l[i * n + k] * scratch[k];
+				}
+				scratch[i] = i < j ? 0.0 : sum / l[i * n + i];
+				if (i >= j) {
+					trace += scratch[i] * scratch[i];
+				}
+			}
+		}
+		return trace;
+	}
+}
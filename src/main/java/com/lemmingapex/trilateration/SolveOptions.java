@@ -0,0 +1,248 @@
+package com.lemmingapex.trilateration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per call limits and convergence thresholds for
+ * {@link NonLinearLeastSquaresSolver#solve(SolveOptions)}. When a limit is
+ * hit the solver returns the best point found so far instead of throwing,
+ * see {@link BoundedOptimum#getStatus()}.
+ *
+ * Instances are immutable, create them with {@link #builder()}.
+ */
+public final class SolveOptions {
+
+	public static final double DEFAULT_COST_RELATIVE_TOLERANCE = 1E-10;
+
+	/**
+	 * What to do when the anchors do not determine a position, see {@link AnchorGeometry}
+	 */
+	public enum DegenerateGeometry {
+		/**
+		 * Return the projection of the target onto the hull of the anchors, computed in closed form
+		 */
+		REDUCE_DIMENSION,
+		/**
+		 * Throw a {@link DegenerateGeometryException}
+		 */
+		FAIL
+	}
+
+	/**
+	 * The limits the solver has always used, without a deadline
+	 */
+	public static final SolveOptions DEFAULT = builder().build();
+
+	private final int maxIterations;
+	private final int maxEvaluations;
+	private final long timeoutNanos;
+	private final long deadlineNanos;
+	private final boolean hasDeadline;
+	private final double positionTolerance;
+	private final double costRelativeTolerance;
+	private final double residualThreshold;
+	private final DegenerateGeometry degenerateGeometry;
+	private final double maxGDOP;
+
+	private SolveOptions(Builder builder) {
+		this.maxIterations = builder.maxIterations;
+		this.maxEvaluations = builder.maxEvaluations;
+		this.timeoutNanos = builder.timeoutNanos;
+		this.deadlineNanos = builder.deadlineNanos;
+		this.hasDeadline = builder.hasDeadline;
+		this.positionTolerance = builder.positionTolerance;
+		this.costRelativeTolerance = builder.costRelativeTolerance;
+		this.residualThreshold = builder.residualThreshold;
+		this.degenerateGeometry = builder.degenerateGeometry;
+		this.maxGDOP = builder.maxGDOP;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	public int getMaxEvaluations() {
+		return maxEvaluations;
+	}
+
+	/**
+	 * @return the time a solve may take, in nanoseconds, Long.MAX_VALUE if unbounded
+	 */
+	public long getTimeoutNanos() {
+		return timeoutNanos;
+	}
+
+	/**
+	 * @return absolute deadline as a {@link System#nanoTime()} value, only meaningful if {@link #hasDeadline()}
+	 */
+	public long getDeadlineNanos() {
+		return deadlineNanos;
+	}
+
+	public boolean hasDeadline() {
+		return hasDeadline;
+	}
+
+	/**
+	 * @return largest change of any coordinate between two iterations for which the solve is considered converged
+	 */
+	public double getPositionTolerance() {
+		return positionTolerance;
+	}
+
+	/**
+	 * @return largest relative change of the cost between two iterations for which the solve is considered converged
+	 */
+	public double getCostRelativeTolerance() {
+		return costRelativeTolerance;
+	}
+
+	/**
+	 * @return norm of the weighted residuals at which the solve is considered good enough
+	 */
+	public double getResidualThreshold() {
+		return residualThreshold;
+	}
+
+	public DegenerateGeometry getDegenerateGeometry() {
+		return degenerateGeometry;
+	}
+
+	/**
+	 * @return largest GDOP of the anchors at their centroid for which a solve is attempted, infinity if unbounded
+	 */
+	public double getMaxGDOP() {
+		return maxGDOP;
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} after which a solve started at startNanos must stop, Long.MAX_VALUE if never
+	 */
+	long deadlineFrom(long startNanos) {
+		long deadline = Long.MAX_VALUE;
+		if (timeoutNanos != Long.MAX_VALUE) {
+			deadline = startNanos + timeoutNanos;
+			if (deadline < startNanos) {
+				deadline = Long.MAX_VALUE;
+			}
+		}
+		if (hasDeadline && deadlineNanos - deadline < 0) {
+			deadline = deadlineNanos;
+		}
+		return deadline;
+	}
+
+	/**
+	 * @return these options with their deadline moved up to nanoTime, this instance if they already stop earlier
+	 */
+	SolveOptions withDeadline(long nanoTime) {
+		if (hasDeadline && deadlineNanos - nanoTime <= 0) {
+			return this;
+		}
+		Builder builder = new Builder();
+		builder.maxIterations = maxIterations;
+		builder.maxEvaluations = maxEvaluations;
+		builder.timeoutNanos = timeoutNanos;
+		builder.positionTolerance = positionTolerance;
+		builder.costRelativeTolerance = costRelativeTolerance;
+		builder.residualThreshold = residualThreshold;
+		builder.degenerateGeometry = degenerateGeometry;
+		builder.maxGDOP = maxGDOP;
+		return builder.deadline(nanoTime).build();
+	}
+
+	public static final class Builder {
+
+		private int maxIterations = NonLinearLeastSquaresSolver.MAXNUMBEROFITERATIONS;
+		private int maxEvaluations = NonLinearLeastSquaresSolver.MAXNUMBEROFITERATIONS;
+		private long timeoutNanos = Long.MAX_VALUE;
+		private long deadlineNanos;
+		private boolean hasDeadline;
+		private double positionTolerance;
+		private double costRelativeTolerance = DEFAULT_COST_RELATIVE_TOLERANCE;
+		private double residualThreshold;
+		private DegenerateGeometry degenerateGeometry = DegenerateGeometry.REDUCE_DIMENSION;
+		private double maxGDOP = Double.POSITIVE_INFINITY;
+
+		private Builder() {
+		}
+
+		public Builder maxIterations(int maxIterations) {
+			if (maxIterations < 1) {
+				throw new IllegalArgumentException("The maximum number of iterations should be positive.");
+			}
+			this.maxIterations = maxIterations;
+			return this;
+		}
+
+		public Builder maxEvaluations(int maxEvaluations) {
+			if (maxEvaluations < 1) {
+				throw new IllegalArgumentException("The maximum number of evaluations should be positive.");
+			}
+			this.maxEvaluations = maxEvaluations;
+			return this;
+		}
+
+		/**
+		 * Bounds the time of a solve, measured from the moment it starts.
+		 */
+		public Builder timeout(long duration, TimeUnit unit) {
+			if (duration < 0) {
+				throw new IllegalArgumentException("The timeout should not be negative.");
+			}
+			this.timeoutNanos = unit.toNanos(duration);
+			return this;
+		}
+
+		/**
+		 * Bounds the time of a solve by an absolute deadline, expressed as a {@link System#nanoTime()} value.
+		 */
+		public Builder deadline(long nanoTime) {
+			this.deadlineNanos = nanoTime;
+			this.hasDeadline = true;
+			return this;
+		}
+
+		public Builder positionTolerance(double positionTolerance) {
+			this.positionTolerance = positionTolerance;
+			return this;
+		}
+
+		public Builder costRelativeTolerance(double costRelativeTolerance) {
+			this.costRelativeTolerance = costRelativeTolerance;
+			return this;
+		}
+
+		public Builder residualThreshold(double residualThreshold) {
+			this.residualThreshold = residualThreshold;
+			return this;
+		}
+
+		public Builder degenerateGeometry(DegenerateGeometry degenerateGeometry) {
+			if (degenerateGeometry == null) {
+				throw new IllegalArgumentException("The degenerate geometry policy should not be null.");
+			}
+			this.degenerateGeometry = degenerateGeometry;
+			return this;
+		}
+
+		/**
+		 * Makes solves of anchors whose GDOP at their centroid exceeds maxGDOP fail fast with a {@link DegenerateGeometryException}.
+		 */
+		public Builder maxGDOP(double maxGDOP) {
+			if (!(maxGDOP > 0.0)) {
+				throw new IllegalArgumentException("The maximum GDOP should be positive.");
+			}
+			this.maxGDOP = maxGDOP;
+			return this;
+		}
+
+		public SolveOptions build() {
+			return new SolveOptions(this);
+		}
+	}
+}
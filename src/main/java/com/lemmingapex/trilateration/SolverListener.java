@@ -0,0 +1,45 @@
+package com.lemmingapex.trilateration;
+
+/**
+ * Receives the outcome of every solve of the solvers it is attached to.
+ * Callbacks happen on the solving thread, so implementations must be thread
+ * safe and cheap, see {@link SolverMetrics}.
+ */
+public interface SolverListener {
+
+	/**
+	 * Listener that ignores everything, the default of the solvers
+	 */
+	SolverListener NONE = new SolverListener() {
+		@Override
+		public void solveCompleted(long elapsedNanos, int iterations, int evaluations, double rms, boolean converged) {
+		}
+
+		@Override
+		public void solveFailed(long elapsedNanos, RuntimeException cause) {
+		}
+
+		@Override
+		public void singularMatrixFallback() {
+		}
+	};
+
+	/**
+	 * A solve returned a position.
+	 *
+	 * @param elapsedNanos wall clock time of the solve
+	 * @param rms root mean square of the weighted residuals at the returned position
+	 * @param converged false if the solve stopped on a limit before converging
+	 */
+	void solveCompleted(long elapsedNanos, int iterations, int evaluations, double rms, boolean converged);
+
+	/**
+	 * A solve threw, typically because the optimizer did not converge within its limits.
+	 */
+	void solveFailed(long elapsedNanos, RuntimeException cause);
+
+	/**
+	 * The linear system was singular and a fallback position was used.
+	 */
+	void singularMatrixFallback();
+}
@@ -0,0 +1,105 @@
+package com.lemmingapex.trilateration;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link SolverListener} aggregating solves into lock free histograms and
+ * counters. One instance can be shared by any number of solvers and threads,
+ * or one can be kept per anchor set to single out problematic sites.
+ */
+public class SolverMetrics implements SolverListener {
+
+	/**
+	 * The RMS histogram records RMS * RMS_SCALE, rounded
+	 */
+	public static final double RMS_SCALE = 1E6;
+
+	private final ConcurrentHistogram latency = new ConcurrentHistogram();
+	private final ConcurrentHistogram iterations = new ConcurrentHistogram();
+	private final ConcurrentHistogram evaluations = new ConcurrentHistogram();
+	private final ConcurrentHistogram rms = new ConcurrentHistogram();
+
+	private final LongAdder notConverged = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder singularMatrixFallbacks = new LongAdder();
+
+	@Override
+	public void solveCompleted(long elapsedNanos, int iterations, int evaluations, double rms, boolean converged) {
+		latency.record(elapsedNanos);
+		this.iterations.record(iterations);
+		this.evaluations.record(evaluations);
+		if (!Double.isNaN(rms)) {
+			this.rms.record(Math.round(Math.min(rms * RMS_SCALE, Long.MAX_VALUE)));
+		}
+		if (!converged) {
+			notConverged.increment();
+		}
+	}
+
+	@Override
+	public void solveFailed(long elapsedNanos, RuntimeException cause) {
+		latency.record(elapsedNanos);
+		failures.increment();
+	}
+
+	@Override
+	public void singularMatrixFallback() {
+		singularMatrixFallbacks.increment();
+	}
+
+	/**
+	 * @return latency of all solves, in nanoseconds
+	 */
+	public ConcurrentHistogram getLatency() {
+		return latency;
+	}
+
+	public ConcurrentHistogram getIterations() {
+		return iterations;
+	}
+
+	public ConcurrentHistogram getEvaluations() {
+		return evaluations;
+	}
+
+	/**
+	 * @return final RMS of the weighted residuals of the completed solves, scaled by {@link #RMS_SCALE}
+	 */
+	public ConcurrentHistogram getRms() {
+		return rms;
+	}
+
+	/**
+	 * @return number of solves that returned a position without converging
+	 */
+	public long getNotConverged() {
+		return notConverged.sum();
+	}
+
+	/**
+	 * @return number of solves that threw
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	public long getSingularMatrixFallbacks() {
+		return singularMatrixFallbacks.sum();
+	}
+
+	public void reset() {
+		latency.reset();
+		iterations.reset();
+		evaluations.reset();
+		rms.reset();
+		notConverged.reset();
+		failures.reset();
+		singularMatrixFallbacks.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "latency (ns): " + latency + "\niterations: " + iterations + "\nevaluations: " + evaluations + "\nrms (x" + RMS_SCALE + "): " + rms
+				+ "\nnot converged: " + getNotConverged() + ", failures: " + getFailures() + ", singular matrix fallbacks: " + getSingularMatrixFallbacks();
+	}
+}
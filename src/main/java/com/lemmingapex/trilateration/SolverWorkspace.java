@@ -0,0 +1,132 @@
+package com.lemmingapex.trilateration;
+
+/**
+ * Scratch memory for {@link FixedDimensionSolver}. A workspace is sized for
+ * the largest dimension it has seen and is reused across solves, so solving
+ * does not allocate once it is warm. It also carries the statistics of the
+ * last solve.
+ *
+ * A workspace is not thread safe, use {@link #current()} to get the one
+ * belonging to the calling thread.
+ */
+public final class SolverWorkspace {
+
+	private static final ThreadLocal<SolverWorkspace> CURRENT = new ThreadLocal<SolverWorkspace>() {
+		@Override
+		protected SolverWorkspace initialValue() {
+			return new SolverWorkspace();
+		}
+	};
+
+	int capacity;
+
+	/**
+	 * Current estimate, and the candidate point a step leads to
+	 */
+	double[] point;
+	double[] trial;
+
+	double[] step;
+
+	/**
+	 * J^T * W * r at the current estimate
+	 */
+	double[] gradient;
+
+	/**
+	 * J^T * W * J at the current estimate, row major
+	 */
+	double[] normal;
+
+	/**
+	 * Gradient and normal matrix at the trial point
+	 */
+	double[] trialGradient;
+	double[] trialNormal;
+
+	/**
+	 * Cholesky factor of the damped normal matrix
+	 */
+	double[] factor;
+
+	/**
+	 * Scratch of {@link ClosedFormSolver}
+	 */
+	double[] closedForm;
+
+	int dimension;
+	int iterations;
+	int evaluations;
+	double chiSquare;
+	int observations;
+	boolean converged;
+
+	public SolverWorkspace() {
+		ensureCapacity(3);
+	}
+
+	/**
+	 * @return the workspace of the calling thread
+	 */
+	public static SolverWorkspace current() {
+		return CURRENT.get();
+	}
+
+	void ensureCapacity(int dimension) {
+		if (dimension <= capacity) {
+			return;
+		}
+		capacity = dimension;
+		point = new double[dimension];
+		trial = new double[dimension];
+		step = new double[dimension];
+		gradient = new double[dimension];
+		normal = new double[dimension * dimension];
+		trialGradient = new double[dimension];
+		trialNormal = new double[dimension * dimension];
+		factor = new double[dimension * dimension];
+		closedForm = new double[ClosedFormSolver.scratchLength(dimension)];
+	}
+
+	/**
+	 * @return number of iterations of the last solve
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return number of residual evaluations of the last solve
+	 */
+	public int getEvaluations() {
+		return evaluations;
+	}
+
+	/**
+	 * @return square root of the weighted sum of squared residuals at the last solution
+	 */
+	public double getCost() {
+		return Math.sqrt(chiSquare);
+	}
+
+	/**
+	 * @return root mean square of the weighted residuals at the last solution
+	 */
+	public double getRMS() {
+		return observations == 0 ? 0.0 : Math.sqrt(chiSquare / observations);
+	}
+
+	/**
+	 * @return the covariance and error ellipse of the last solution, from the normal matrix at that solution
+	 */
+	public PositionUncertainty getUncertainty() {
+		return PositionUncertainty.of(this);
+	}
+
+	/**
+	 * @return whether the last solve met its convergence criteria
+	 */
+	public boolean isConverged() {
+		return converged;
+	}
+}
@@ -0,0 +1,49 @@
+package com.lemmingapex.trilateration;
+
+/**
+ * Position estimated by {@link TrilaterationService}, with the statistics of the solve that produced it.
+ */
+public final class TrilaterationFix {
+
+	private final double[] position;
+	private final int iterations;
+	private final double rms;
+	private final boolean converged;
+
+	TrilaterationFix(double[] position, int iterations, double rms, boolean converged) {
+		this.position = position;
+		this.iterations = iterations;
+		this.rms = rms;
+		this.converged = converged;
+	}
+
+	/**
+	 * @return a copy of the position
+	 */
+	public double[] getPosition() {
+		return position.clone();
+	}
+
+	public double getCoordinate(int j) {
+		return position[j];
+	}
+
+	public int getDimension() {
+		return position.length;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return root mean square of the weighted residuals at the position
+	 */
+	public double getRMS() {
+		return rms;
+	}
+
+	public boolean isConverged() {
+		return converged;
+	}
+}
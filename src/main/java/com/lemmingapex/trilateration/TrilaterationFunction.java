@@ -11,6 +11,14 @@ import org.apache.commons.math3.util.Pair;
  * Models the Trilateration problem. This is a formulation for a nonlinear least
  * squares optimizer.
  *
+ * The residuals and the Jacobian are weighted by the square roots of the
+ * weights of a {@link RangeWeighting}, the inverse square law by default, so
+ * the optimizer is given no weight matrix.
+ *
+ * A function is a snapshot of its problem: the positions and distances are
+ * copied when it is created and the getters return copies, so the
+ * precomputed squared distances, weights and coordinates cannot go stale.
+ *
  * @author scott
  *
  */
@@ -28,7 +36,41 @@ public class TrilaterationFunction implements MultivariateJacobianFunction {
 	 */
 	protected final double distances[];
 
+	/**
+	 * Copy of the positions packed row by row, coordinate j of node i is at
+	 * coordinates[i * dimension + j], the order in which the evaluation
+	 * fills the residuals and the rows of the Jacobian.
+	 */
+	protected final double coordinates[];
+
+	/**
+	 * Squared distances, precomputed as the residuals only ever use them squared
+	 */
+	protected final double distancesSquared[];
+
+	/**
+	 * Square roots of the weights of the residuals
+	 */
+	protected final double sqrtWeights[];
+
+	private final RangeWeighting weighting;
+
+	/**
+	 * Anchors the function was created from, null if created from raw positions
+	 */
+	private final AnchorSet anchors;
+
+	private volatile AnchorGeometry geometry;
+
 	public TrilaterationFunction(double positions[][], double distances[]) {
+		this(positions, distances, RangeWeighting.INVERSE_SQUARE);
+	}
+
+	/**
+	 * @param positions copied, not modified
+	 * @param distances copied, not modified. The copy is bounded to a strictly positive domain.
+	 */
+	public TrilaterationFunction(double positions[][], double distances[], RangeWeighting weighting) {
 
 		if(positions.length < 2) {
 			throw new IllegalArgumentException("Need at least two positions.");
@@ -38,11 +80,6 @@ public class TrilaterationFunction implements MultivariateJacobianFunction {
 			throw new IllegalArgumentException("The number of positions you provided, " + positions.length + ", does not match the number of distances, " + distances.length + ".");
 		}
 
-		// bound distances to strictly positive domain
-		for (int i = 0; i < distances.length; i++) {
-			distances[i] = Math.max(distances[i], epsilon);
-		}
-
 		int positionDimension = positions[0].length;
 		for (int i = 1; i < positions.length; i++) {
 			if(positionDimension != positions[i].length) {
@@ -50,22 +87,123 @@ public class TrilaterationFunction implements MultivariateJacobianFunction {
 			}
 		}
 
-		this.positions = positions;
-		this.distances = distances;
+		this.positions = new double[positions.length][];
+		this.distances = new double[distances.length];
+		for (int i = 0; i < positions.length; i++) {
+			this.positions[i] = positions[i].clone();
+			// bound distances to strictly positive domain
+			this.distances[i] = Math.max(distances[i], epsilon);
+		}
+		this.anchors = null;
+		this.weighting = weighting;
+
+		int numberOfPositions = positions.length;
+		this.coordinates = new double[numberOfPositions * positionDimension];
+		this.distancesSquared = new double[numberOfPositions];
+		this.sqrtWeights = new double[numberOfPositions];
+		for (int i = 0; i < numberOfPositions; i++) {
+			for (int j = 0; j < positionDimension; j++) {
+				coordinates[i * positionDimension + j] = positions[i][j];
+			}
+			distancesSquared[i] = this.distances[i] * this.distances[i];
+			sqrtWeights[i] = sqrtWeight(weighting, i, this.distances[i]);
+		}
+	}
+
+	/**
+	 * Function of shared anchors. The distances are copied before being
+	 * bounded, as with raw positions, but the immutable positions of the
+	 * anchors are shared rather than copied and not validated again.
+	 */
+	public TrilaterationFunction(AnchorSet anchors, double distances[]) {
+		this(anchors, distances, RangeWeighting.INVERSE_SQUARE);
 	}
 
+	public TrilaterationFunction(AnchorSet anchors, double distances[], RangeWeighting weighting) {
+
+		if(anchors.size() < 2) {
+			throw new IllegalArgumentException("Need at least two positions.");
+		}
+
+		if(anchors.size() != distances.length) {
+			throw new IllegalArgumentException("The number of positions you provided, " + anchors.size() + ", does not match the number of distances, " + distances.length + ".");
+		}
+
+		this.anchors = anchors;
+		this.weighting = weighting;
+		this.positions = anchors.rows;
+		this.coordinates = anchors.packed;
+		this.distances = new double[distances.length];
+		this.distancesSquared = new double[distances.length];
+		this.sqrtWeights = new double[distances.length];
+		for (int i = 0; i < distances.length; i++) {
+			// bound distances to strictly positive domain
+			this.distances[i] = Math.max(distances[i], epsilon);
+			distancesSquared[i] = this.distances[i] * this.distances[i];
+			sqrtWeights[i] = sqrtWeight(weighting, i, this.distances[i]);
+		}
+	}
+
+	private static double sqrtWeight(RangeWeighting weighting, int anchor, double distance) {
+		double weight = weighting.weight(anchor, distance);
+		if (!(weight >= 0.0) || Double.isInfinite(weight)) {
+			throw new IllegalArgumentException("The weight of anchor " + anchor + ", " + weight + ", should be finite and not negative.");
+		}
+		return Math.sqrt(weight);
+	}
+
+	/**
+	 * @return a copy of the distances, bounded to a strictly positive domain
+	 */
 	public final double[] getDistances() {
-		return distances;
+		return distances.clone();
 	}
 
+	/**
+	 * @return a copy of the positions
+	 */
 	public final double[][] getPositions() {
-		return positions;
+		double[][] copy = new double[positions.length][];
+		for (int i = 0; i < positions.length; i++) {
+			copy[i] = positions[i].clone();
+		}
+		return copy;
+	}
+
+	public RangeWeighting getWeighting() {
+		return weighting;
+	}
+
+	/**
+	 * @return the weight of each residual, indexed like the positions, as {@link FixedDimensionSolver} takes them
+	 */
+	public double[] getWeights() {
+		double[] weights = new double[sqrtWeights.length];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = sqrtWeights[i] * sqrtWeights[i];
+		}
+		return weights;
+	}
+
+	/**
+	 * @return the rank and GDOP of the positions, shared with the {@link AnchorSet} of the function or with the recent functions of the same raw positions
+	 */
+	public AnchorGeometry getGeometry() {
+		if (anchors != null) {
+			return anchors.getGeometry();
+		}
+		AnchorGeometry result = geometry;
+		if (result == null) {
+			result = AnchorGeometry.of(positions[0].length, FixedDimensionSolver.pack(positions));
+			geometry = result;
+		}
+		return result;
 	}
 
 	/**
 	 * Calculate and return Jacobian function Actually return initialized function
 	 *
-	 * Jacobian matrix, [i][j] at
+	 * Jacobian matrix, each row scaled by the square root of its weight, [i][j] at
 	 * J[i][0] = delta_[(x0-xi)^2 + (y0-yi)^2 - ri^2]/delta_[x0] at
 	 * J[i][1] = delta_[(x0-xi)^2 + (y0-yi)^2 - ri^2]/delta_[y0] partial derivative with respect to the parameters passed to value() method
 	 *
@@ -73,38 +211,39 @@ public class TrilaterationFunction implements MultivariateJacobianFunction {
 	 * @return Jacobian matrix for point
 	 */
 	public RealMatrix jacobian(RealVector point) {
-		double[] pointArray = point.toArray();
-
-		double[][] jacobian = new double[distances.length][pointArray.length];
-		for (int i = 0; i < jacobian.length; i++) {
-			for (int j = 0; j < pointArray.length; j++) {
-				jacobian[i][j] = 2 * pointArray[j] - 2 * positions[i][j];
-			}
-		}
-
-		return new Array2DRowRealMatrix(jacobian);
+		double[][] jacobian = new double[distances.length][point.getDimension()];
+		evaluate(point, new double[distances.length], jacobian);
+		return new Array2DRowRealMatrix(jacobian, false);
 	}
 
 	@Override
 	public Pair<RealVector, RealMatrix> value(RealVector point) {
-
-		// input
-		double[] pointArray = point.toArray();
-
 		// output
 		double[] resultPoint = new double[this.distances.length];
+		double[][] jacobian = new double[this.distances.length][point.getDimension()];
 
-		// compute least squares
-		for (int i = 0; i < resultPoint.length; i++) {
-			resultPoint[i] = 0.0;
-			// calculate sum, add to overall
-			for (int j = 0; j < pointArray.length; j++) {
-				resultPoint[i] += (pointArray[j] - this.getPositions()[i][j]) * (pointArray[j] - this.getPositions()[i][j]);
+		evaluate(point, resultPoint, jacobian);
+
+		return new Pair<RealVector, RealMatrix>(new ArrayRealVector(resultPoint, false), new Array2DRowRealMatrix(jacobian, false));
+	}
+
+	/**
+	 * Computes the weighted residuals and Jacobian in a single pass over the
+	 * positions, filling one row of the Jacobian at a time.
+	 */
+	protected void evaluate(RealVector point, double[] resultPoint, double[][] jacobian) {
+		int numberOfPositions = distancesSquared.length;
+		double[] x = point.toArray();
+		for (int i = 0, offset = 0; i < numberOfPositions; i++, offset += x.length) {
+			double[] row = jacobian[i];
+			double scale = 2 * sqrtWeights[i];
+			double residual = -distancesSquared[i];
+			for (int j = 0; j < x.length; j++) {
+				double delta = x[j] - coordinates[offset + j];
+				residual += delta * delta;
+				row[j] = scale * delta;
 			}
-			resultPoint[i] -= (this.getDistances()[i]) * (this.getDistances()[i]);
+			resultPoint[i] = sqrtWeights[i] * residual;
 		}
-
-		RealMatrix jacobian = jacobian(point);
-		return new Pair<RealVector, RealMatrix>(new ArrayRealVector(resultPoint), jacobian);
 	}
 }
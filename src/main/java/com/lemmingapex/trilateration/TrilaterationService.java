@@ -0,0 +1,302 @@
+package com.lemmingapex.trilateration;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous front end of {@link FixedDimensionSolver}. Requests are put in
+ * a bounded queue and answered through a {@link CompletableFuture}, callers
+ * do not solve on their own threads.
+ *
+ * A dispatcher thread drains the queue into micro batches, groups the
+ * requests of a batch by {@link AnchorSet}, which also fixes the dimension,
+ * and hands each group to the executor as a single task. At most a given
+ * number of groups are in flight at once. When the executor is saturated the
+ * queue fills up and new requests are rejected with a
+ * {@link RejectedExecutionException} instead of piling up. Should the
+ * dispatcher stop before the queue is drained, because it was interrupted
+ * or the executor threw, the service shuts down and the requests it leaves
+ * behind fail with a {@link RejectedExecutionException}.
+ */
+public class TrilaterationService {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+	public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+	/**
+	 * How long the dispatcher waits for a request before checking for shutdown, in milliseconds
+	 */
+	private static final long POLL_MILLIS = 50L;
+
+	protected final FixedDimensionSolver solver;
+	protected final int maxBatchSize;
+
+	private final Executor executor;
+	private final boolean ownsExecutor;
+	private final Semaphore inFlight;
+	private final BlockingQueue<Request> queue;
+	private final Thread dispatcher;
+
+	private volatile boolean shutdown;
+
+	/**
+	 * Service solving on a fixed pool of one platform thread per processor.
+	 */
+	public TrilaterationService() {
+		this(Runtime.getRuntime().availableProcessors(), false, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH_SIZE);
+	}
+
+	/**
+	 * Service owning its executor.
+	 *
+	 * @param parallelism maximum number of groups solved at once
+	 * @param virtualThreads whether to solve on virtual threads, where the runtime supports them
+	 * @param queueCapacity maximum number of requests waiting to be dispatched
+	 * @param maxBatchSize maximum number of requests dispatched at once
+	 */
+	public TrilaterationService(int parallelism, boolean virtualThreads, int queueCapacity, int maxBatchSize) {
+		this(new FixedDimensionSolver(), newExecutor(parallelism, virtualThreads), true, parallelism, queueCapacity, maxBatchSize);
+	}
+
+	/**
+	 * Service solving on an executor managed by the caller, it is not shut down with the service.
+	 *
+	 * @param parallelism maximum number of groups handed to the executor at once
+	 */
+	public TrilaterationService(FixedDimensionSolver solver, Executor executor, int parallelism, int queueCapacity, int maxBatchSize) {
+		this(solver, executor, false, parallelism, queueCapacity, maxBatchSize);
+	}
+
+	private TrilaterationService(FixedDimensionSolver solver, Executor executor, boolean ownsExecutor, int parallelism, int queueCapacity, int maxBatchSize) {
+		if (parallelism < 1 || queueCapacity < 1 || maxBatchSize < 1) {
+			throw new IllegalArgumentException("The parallelism, queue capacity and batch size should be positive.");
+		}
+		this.solver = solver;
+		this.maxBatchSize = maxBatchSize;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.inFlight = new Semaphore(parallelism);
+		this.queue = new ArrayBlockingQueue<Request>(queueCapacity);
+
+		dispatcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		}, "trilateration-dispatcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * Executor running tasks on virtual threads when the runtime has them,
+	 * looked up reflectively so the library still runs on Java 8, and on a
+	 * fixed pool of daemon platform threads otherwise.
+	 */
+	public static ExecutorService newExecutor(int threads, boolean virtualThreads) {
+		if (virtualThreads) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				// not supported by this runtime
+			}
+		}
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count;
+
+			@Override
+			public synchronized Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "trilateration-solver-" + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queues the solve of a target, starting from the centroid of the anchors.
+	 *
+	 * @param distances measured distances, indexed like the anchors. The array is copied.
+	 * @throws RejectedExecutionException if the queue is full or the service is shut down
+	 */
+	public CompletableFuture<TrilaterationFix> submit(AnchorSet anchors, double[] distances) {
+		if (distances.length != anchors.size()) {
+			throw new IllegalArgumentException("The number of positions you provided, " + anchors.size() + ", does not match the number of distances, " + distances.length + ".");
+		}
+		if (shutdown) {
+			throw new RejectedExecutionException("The service is shut down.");
+		}
+		Request request = new Request(anchors, distances.clone());
+		if (!queue.offer(request)) {
+			throw new RejectedExecutionException("The queue of " + (queue.size() + queue.remainingCapacity()) + " requests is full.");
+		}
+		// the dispatcher may have drained the queue for the last time before the request got in
+		if (shutdown && queue.remove(request)) {
+			throw new RejectedExecutionException("The service is shut down.");
+		}
+		return request.future;
+	}
+
+	/**
+	 * @return the number of requests waiting to be dispatched
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * Stops accepting requests. Requests already queued are still solved.
+	 */
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	/**
+	 * Waits for the queued requests to be dispatched, and for an owned executor to finish solving them.
+	 *
+	 * @return false if the timeout elapsed first
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		TimeUnit.NANOSECONDS.timedJoin(dispatcher, Math.max(1L, deadline - System.nanoTime()));
+		if (dispatcher.isAlive()) {
+			return false;
+		}
+		if (ownsExecutor) {
+			return ((ExecutorService) executor).awaitTermination(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+		return true;
+	}
+
+	private void dispatch() {
+		List<Request> batch = new ArrayList<Request>(maxBatchSize);
+		Map<AnchorSet, List<Request>> groups = new IdentityHashMap<AnchorSet, List<Request>>();
+		Throwable failure = null;
+		try {
+			while (true) {
+				Request first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					if (shutdown) {
+						return;
+					}
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, maxBatchSize - 1);
+
+				for (int r = 0; r < batch.size(); r++) {
+					Request request = batch.get(r);
+					List<Request> group = groups.get(request.anchors);
+					if (group == null) {
+						group = new ArrayList<Request>();
+						groups.put(request.anchors, group);
+					}
+					group.add(request);
+				}
+				for (List<Request> group : groups.values()) {
+					inFlight.acquire();
+					try {
+						executor.execute(new Group(group));
+					} catch (RejectedExecutionException e) {
+						inFlight.release();
+						fail(group, e);
+					}
+					for (int r = 0; r < group.size(); r++) {
+						group.get(r).dispatched = true;
+					}
+				}
+				batch.clear();
+				groups.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure = e;
+		} catch (RuntimeException e) {
+			failure = e;
+			throw e;
+		} catch (Error e) {
+			failure = e;
+			throw e;
+		} finally {
+			// nothing else will dispatch what is left, fail it rather than leave the callers waiting
+			shutdown = true;
+			RejectedExecutionException stopped = new RejectedExecutionException("The dispatcher of the service stopped.", failure);
+			for (int r = 0; r < batch.size(); r++) {
+				if (!batch.get(r).dispatched) {
+					batch.get(r).future.completeExceptionally(stopped);
+				}
+			}
+			Request request;
+			while ((request = queue.poll()) != null) {
+				request.future.completeExceptionally(stopped);
+			}
+			if (ownsExecutor) {
+				((ExecutorService) executor).shutdown();
+			}
+		}
+	}
+
+	private static void fail(List<Request> group, Throwable cause) {
+		for (int r = 0; r < group.size(); r++) {
+			group.get(r).future.completeExceptionally(cause);
+		}
+	}
+
+	private final class Group implements Runnable {
+
+		private final List<Request> requests;
+
+		Group(List<Request> requests) {
+			this.requests = requests;
+		}
+
+		@Override
+		public void run() {
+			try {
+				SolverWorkspace workspace = SolverWorkspace.current();
+				for (int r = 0; r < requests.size(); r++) {
+					Request request = requests.get(r);
+					AnchorSet anchors = request.anchors;
+					double[] position = new double[anchors.getDimension()];
+					try {
+						boolean converged = solver.solve(anchors, request.distances, null, position, 0, workspace);
+						request.future.complete(new TrilaterationFix(position, workspace.getIterations(), workspace.getRMS(), converged));
+					} catch (RuntimeException e) {
+						request.future.completeExceptionally(e);
+					}
+				}
+			} finally {
+				inFlight.release();
+			}
+		}
+	}
+
+	private static final class Request {
+
+		final AnchorSet anchors;
+		final double[] distances;
+		final CompletableFuture<TrilaterationFix> future = new CompletableFuture<TrilaterationFix>();
+
+		/**
+		 * Set by the dispatcher once the request is handed to the executor or failed
+		 */
+		boolean dispatched;
+
+		Request(AnchorSet anchors, double[] distances) {
+			this.anchors = anchors;
+			this.distances = distances;
+		}
+	}
+}
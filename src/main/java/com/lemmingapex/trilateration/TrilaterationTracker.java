@@ -0,0 +1,283 @@
+package com.lemmingapex.trilateration;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps per target state for targets that report ranges continuously, and
+ * warm starts each solve from where the target is expected to be instead of
+ * the centroid of the anchors. Successive fixes of a moving target are close
+ * together, so a warm started solve usually needs only a couple of
+ * iterations.
+ *
+ * Optionally the fixes are smoothed by a constant velocity Kalman filter, one
+ * per axis, whose prediction is then also used as the starting point.
+ *
+ * Timestamps are in milliseconds. Tracks that have not been updated for
+ * longer than the idle timeout are dropped by {@link #evictIdle(long)}.
+ * Updates of different targets may run concurrently, updates of the same
+ * target are serialized.
+ *
+ * @param <K> type of the target identifiers
+ */
+public class TrilaterationTracker<K> {
+
+	/**
+	 * Variance of the velocity of a new track, large as nothing is known about it yet
+	 */
+	protected static final double INITIAL_VELOCITY_VARIANCE = 1E6;
+
+	protected final int dimension;
+	protected final FixedDimensionSolver solver;
+	protected final long idleTimeout;
+
+	protected final boolean filtered;
+	protected final double processNoise;
+	protected final double measurementNoise;
+
+	private final ConcurrentHashMap<K, Track> tracks = new ConcurrentHashMap<K, Track>();
+
+	/**
+	 * Tracker reporting the raw fixes, warm started from the previous fix.
+	 */
+	public TrilaterationTracker(int dimension, FixedDimensionSolver solver, long idleTimeout) {
+		this(dimension, solver, idleTimeout, false, 0.0, 0.0);
+	}
+
+	/**
+	 * Tracker smoothing the fixes with a constant velocity Kalman filter.
+	 *
+	 * @param processNoise spectral density of the acceleration, in squared units per cubed second
+	 * @param measurementNoise variance of a single fix along each axis, in squared units
+	 */
+	public TrilaterationTracker(int dimension, FixedDimensionSolver solver, long idleTimeout, double processNoise, double measurementNoise) {
+		this(dimension, solver, idleTimeout, true, processNoise, measurementNoise);
+	}
+
+	private TrilaterationTracker(int dimension, FixedDimensionSolver solver, long idleTimeout, boolean filtered, double processNoise, double measurementNoise) {
+		if (dimension < 1) {
+			throw new IllegalArgumentException("The dimension should be positive.");
+		}
+		if (filtered && !(processNoise >= 0.0 && measurementNoise > 0.0)) {
+			throw new IllegalArgumentException("The process noise should not be negative and the measurement noise should be positive.");
+		}
+		this.dimension = dimension;
+		this.solver = solver;
+		this.idleTimeout = idleTimeout;
+		this.filtered = filtered;
+		this.processNoise = processNoise;
+		this.measurementNoise = measurementNoise;
+	}
+
+	/**
+	 * Solves a new set of ranges of a target. Iteration statistics of the
+	 * solve are left in {@link SolverWorkspace#current()}.
+	 *
+	 * @param target identifier of the target
+	 * @param timestamp time of the measurement, in milliseconds
+	 * @param positions packed positions of the anchors that measured the target
+	 * @param distances measured distances, indexed like the anchors
+	 * @param result receives the estimated position of the target
+	 * @return whether the solve converged. If it did not, a filtered tracker reports its prediction.
+	 */
+	public boolean update(K target, long timestamp, double[] positions, double[] distances, double[] result) {
+		while (true) {
+			Track track = tracks.get(target);
+			if (track == null) {
+				Track created = new Track(dimension);
+				track = tracks.putIfAbsent(target, created);
+				if (track == null) {
+					track = created;
+				}
+			}
+
+			synchronized (track) {
+				if (track.removed) {
+					// removed between the lookup and the lock, the update belongs to a new track
+					continue;
+				}
+				try {
+					return update(track, timestamp, positions, distances, result);
+				} finally {
+					if (!track.initialized) {
+						// the first solve threw, drop the track rather than leaving one that is never evicted
+						track.removed = true;
+						tracks.remove(target, track);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Called with the lock of the track held
+	 */
+	private boolean update(Track track, long timestamp, double[] positions, double[] distances, double[] result) {
+		double seconds = track.initialized ? Math.max(0L, timestamp - track.timestamp) / 1000.0 : 0.0;
+		if (track.initialized && filtered) {
+			predict(track, seconds);
+		}
+
+		boolean converged = solver.solve(dimension, positions, distances, null, 0, distances.length,
+				track.initialized ? track.position : null, result, 0, SolverWorkspace.current());
+
+		if (filtered) {
+			if (!track.initialized) {
+				initialize(track, result);
+			} else if (converged) {
+				correct(track, result);
+			}
+			System.arraycopy(track.position, 0, result, 0, dimension);
+		} else if (converged || !track.initialized) {
+			System.arraycopy(result, 0, track.position, 0, dimension);
+		}
+		track.timestamp = track.initialized ? Math.max(track.timestamp, timestamp) : timestamp;
+		track.initialized = true;
+		return converged;
+	}
+
+	/**
+	 * Copies the current position estimate of a target.
+	 *
+	 * @return false if the target is not tracked
+	 */
+	public boolean getPosition(K target, double[] result) {
+		Track track = tracks.get(target);
+		if (track == null) {
+			return false;
+		}
+		synchronized (track) {
+			if (!track.initialized) {
+				return false;
+			}
+			System.arraycopy(track.position, 0, result, 0, dimension);
+			return true;
+		}
+	}
+
+	/**
+	 * Copies the current velocity estimate of a target, in units per second. Only a filtered tracker estimates velocities.
+	 *
+	 * @return false if the target is not tracked
+	 */
+	public boolean getVelocity(K target, double[] result) {
+		Track track = tracks.get(target);
+		if (track == null || !filtered) {
+			return false;
+		}
+		synchronized (track) {
+			if (!track.initialized) {
+				return false;
+			}
+			System.arraycopy(track.velocity, 0, result, 0, dimension);
+			return true;
+		}
+	}
+
+	/**
+	 * Drops the tracks that have not been updated for longer than the idle timeout.
+	 *
+	 * @param now current time, in milliseconds
+	 * @return the number of tracks dropped
+	 */
+	public int evictIdle(long now) {
+		int evicted = 0;
+		for (Iterator<Map.Entry<K, Track>> iterator = tracks.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<K, Track> entry = iterator.next();
+			Track track = entry.getValue();
+			synchronized (track) {
+				// a new track is published before its first update, it is not idle yet
+				if (track.initialized && now - track.timestamp > idleTimeout && tracks.remove(entry.getKey(), track)) {
+					track.removed = true;
+					evicted++;
+				}
+			}
+		}
+		return evicted;
+	}
+
+	public boolean remove(K target) {
+		Track track = tracks.remove(target);
+		if (track == null) {
+			return false;
+		}
+		synchronized (track) {
+			track.removed = true;
+		}
+		return true;
+	}
+
+	public int size() {
+		return tracks.size();
+	}
+
+	private void initialize(Track track, double[] fix) {
+		for (int j = 0; j < dimension; j++) {
+			track.position[j] = fix[j];
+			track.velocity[j] = 0.0;
+			track.covariance[3 * j] = measurementNoise;
+			track.covariance[3 * j + 1] = 0.0;
+			track.covariance[3 * j + 2] = INITIAL_VELOCITY_VARIANCE;
+		}
+	}
+
+	/**
+	 * Constant velocity prediction, with white noise acceleration
+	 */
+	private void predict(Track track, double seconds) {
+		double seconds2 = seconds * seconds;
+		double seconds3 = seconds2 * seconds;
+		for (int j = 0; j < dimension; j++) {
+			double p00 = track.covariance[3 * j];
+			double p01 = track.covariance[3 * j + 1];
+			double p11 = track.covariance[3 * j + 2];
+			track.position[j] += track.velocity[j] * seconds;
+			track.covariance[3 * j] = p00 + 2.0 * seconds * p01 + seconds2 * p11 + processNoise * seconds3 / 3.0;
+			track.covariance[3 * j + 1] = p01 + seconds * p11 + processNoise * seconds2 / 2.0;
+			track.covariance[3 * j + 2] = p11 + processNoise * seconds;
+		}
+	}
+
+	private void correct(Track track, double[] fix) {
+		for (int j = 0; j < dimension; j++) {
+			double p00 = track.covariance[3 * j];
+			double p01 = track.covariance[3 * j + 1];
+			double p11 = track.covariance[3 * j + 2];
+			double innovationVariance = p00 + measurementNoise;
+			double positionGain = p00 / innovationVariance;
+			double velocityGain = p01 / innovationVariance;
+			double innovation = fix[j] - track.position[j];
+			track.position[j] += positionGain * innovation;
+			track.velocity[j] += velocityGain * innovation;
+			track.covariance[3 * j] = (1.0 - positionGain) * p00;
+			track.covariance[3 * j + 1] = (1.0 - positionGain) * p01;
+			track.covariance[3 * j + 2] = p11 - velocityGain * p01;
+		}
+	}
+
+	private static final class Track {
+
+		final double[] position;
+		final double[] velocity;
+
+		/**
+		 * Per axis [var(position), cov(position, velocity), var(velocity)]
+		 */
+		final double[] covariance;
+
+		long timestamp;
+		boolean initialized;
+
+		/**
+		 * Set once the track is no longer in the map, updates that still hold it retry with a new track
+		 */
+		boolean removed;
+
+		Track(int dimension) {
+			position = new double[dimension];
+			velocity = new double[dimension];
+			covariance = new double[3 * dimension];
+		}
+	}
+}
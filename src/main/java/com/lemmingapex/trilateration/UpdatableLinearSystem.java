@@ -0,0 +1,477 @@
+package com.lemmingapex.trilateration;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * The linear formulation of {@link LinearLeastSquaresSolver} for anchors that
+ * come and go. Rather than factoring A = QR again after every change, only
+ * the triangular factor R is kept and updated with Givens rotations: adding
+ * an anchor appends a row to A, an update, removing one deletes a row, a
+ * downdate, and replacing one is a downdate and an update, each O(d^2).
+ *
+ * Changing the reference anchor, index 0, shifts every row of A by the same
+ * vector delta. With s the sum of the rows and m their number,
+ * (A + 1 delta^T)^T (A + 1 delta^T) = A^T A + u u^T - v v^T for
+ * u = s / sqrt(m) + sqrt(m) delta and v = s / sqrt(m), so the shift is a
+ * rank one update and a rank one downdate of R, also O(d^2) as the sum of
+ * the anchors is kept up to date by every change.
+ *
+ * The factor aside, removing anchor i moves the positions of the anchors
+ * after it down, an O((n - i) d) copy, so removing the first anchors of a
+ * large set costs O(n d).
+ *
+ * Without Q, solves go through the seminormal equations R^T R x = A^T b,
+ * followed by one step of iterative refinement, the corrected seminormal
+ * equations, which is as accurate as solving with Q. A downdate that would
+ * lose the positive definiteness of R^T R, when removing an anchor leaves
+ * the others singular or rounding has accumulated, refactors R from the
+ * anchors instead, see {@link #refactor()}.
+ *
+ * Anchors keep their order, removing one moves the following ones down by
+ * one index. Instances are not thread safe.
+ */
+public class UpdatableLinearSystem {
+
+	/**
+	 * Ratio of a diagonal entry of R to the largest one below which the anchors are considered singular
+	 */
+	private static final double SINGULARITY_THRESHOLD = 1E-12;
+
+	protected final int positionDimension;
+
+	/**
+	 * Packed anchor positions, the reference anchor first
+	 */
+	private double[] positions;
+
+	private int size;
+
+	/**
+	 * Sum of the positions of all the anchors, the sum of the rows of A is total - size * reference
+	 */
+	private final double[] total;
+
+	/**
+	 * Upper triangular factor of A, row major
+	 */
+	private final double[] r;
+
+	/**
+	 * Scratch row, rotations and solve vectors
+	 */
+	private final double[] row;
+	private final double[] cosines;
+	private final double[] sines;
+	private final double[] rhs;
+	private final double[] delta;
+	private final double[] u;
+	private final double[] v;
+
+	/**
+	 * Geometry of the anchors, computed when a singular system is solved
+	 */
+	private AnchorGeometry geometry;
+
+	public UpdatableLinearSystem(int dimension) {
+		if (dimension < 1) {
+			throw new IllegalArgumentException("The dimension should be positive.");
+		}
+		positionDimension = dimension;
+		positions = new double[8 * dimension];
+		total = new double[dimension];
+		r = new double[dimension * dimension];
+		row = new double[dimension];
+		cosines = new double[dimension];
+		sines = new double[dimension];
+		rhs = new double[dimension];
+		delta = new double[dimension];
+		u = new double[dimension];
+		v = new double[dimension];
+	}
+
+	public UpdatableLinearSystem(double[][] positions) {
+		this(dimensionOf(positions));
+		for (double[] position : positions) {
+			add(position);
+		}
+	}
+
+	private static int dimensionOf(double[][] positions) {
+		if (positions.length < 1) {
+			throw new IllegalArgumentException("Need at least one position.");
+		}
+		return positions[0].length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getDimension() {
+		return positionDimension;
+	}
+
+	/**
+	 * @param position receives the position of anchor i
+	 */
+	public void getPosition(int i, double[] position) {
+		checkIndex(i);
+		System.arraycopy(positions, i * positionDimension, position, 0, positionDimension);
+	}
+
+	/**
+	 * Appends an anchor, the reference anchor if it is the first one.
+	 */
+	public void add(double[] position) {
+		checkPosition(position);
+		if ((size + 1) * positionDimension > positions.length) {
+			double[] grown = new double[2 * positions.length];
+			System.arraycopy(positions, 0, grown, 0, size * positionDimension);
+			positions = grown;
+		}
+		System.arraycopy(position, 0, positions, size * positionDimension, positionDimension);
+		for (int j = 0; j < positionDimension; j++) {
+			total[j] += position[j];
+		}
+		size++;
+		if (size > 1) {
+			rowOf(size - 1, row);
+			update(row);
+		}
+		geometry = null;
+	}
+
+	/**
+	 * Removes anchor i, the anchors after it move down by one index. Removing
+	 * the reference anchor makes the next anchor the reference.
+	 */
+	public void remove(int i) {
+		checkIndex(i);
+		if (i == 0 && size > 1) {
+			setReference(1);
+			i = 1;
+		}
+		boolean downdated = true;
+		if (i > 0) {
+			rowOf(i, row);
+			downdated = downdate(row);
+		}
+		for (int j = 0; j < positionDimension; j++) {
+			total[j] -= positions[i * positionDimension + j];
+		}
+		System.arraycopy(positions, (i + 1) * positionDimension, positions, i * positionDimension, (size - i - 1) * positionDimension);
+		size--;
+		geometry = null;
+		if (!downdated) {
+			refactor();
+		}
+	}
+
+	/**
+	 * Moves anchor i to position.
+	 */
+	public void replace(int i, double[] position) {
+		checkIndex(i);
+		checkPosition(position);
+		if (i == 0) {
+			for (int j = 0; j < positionDimension; j++) {
+				delta[j] = positions[j] - position[j];
+			}
+			boolean shifted = shift(delta);
+			for (int j = 0; j < positionDimension; j++) {
+				total[j] += position[j] - positions[j];
+			}
+			System.arraycopy(position, 0, positions, 0, positionDimension);
+			geometry = null;
+			if (!shifted) {
+				refactor();
+			}
+			return;
+		}
+
+		rowOf(i, row);
+		boolean downdated = downdate(row);
+		for (int j = 0; j < positionDimension; j++) {
+			total[j] += position[j] - positions[i * positionDimension + j];
+		}
+		System.arraycopy(position, 0, positions, i * positionDimension, positionDimension);
+		geometry = null;
+		if (!downdated) {
+			refactor();
+			return;
+		}
+		rowOf(i, row);
+		update(row);
+	}
+
+	/**
+	 * Makes anchor i the reference anchor by swapping it with anchor 0.
+	 */
+	public void setReference(int i) {
+		checkIndex(i);
+		if (i == 0) {
+			return;
+		}
+		// the rows shift by delta, the row of the new reference becomes zero and the old reference gets the row delta
+		for (int j = 0; j < positionDimension; j++) {
+			delta[j] = positions[j] - positions[i * positionDimension + j];
+		}
+		boolean shifted = shift(delta);
+		for (int j = 0; j < positionDimension; j++) {
+			double swap = positions[j];
+			positions[j] = positions[i * positionDimension + j];
+			positions[i * positionDimension + j] = swap;
+		}
+		if (!shifted) {
+			refactor();
+			return;
+		}
+		update(delta);
+	}
+
+	/**
+	 * Recomputes R and the sum of the anchors from the anchors, O(n d^2).
+	 * Changes refactor on their own when a downdate fails, calling this
+	 * periodically bounds the rounding accumulated over many changes.
+	 */
+	public void refactor() {
+		Arrays.fill(total, 0.0);
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < positionDimension; j++) {
+				total[j] += positions[i * positionDimension + j];
+			}
+		}
+		Arrays.fill(r, 0.0);
+		for (int i = 1; i < size; i++) {
+			rowOf(i, row);
+			update(row);
+		}
+	}
+
+	/**
+	 * @return false if the anchors do not determine a unique position, in which case {@link #solve(double[])} returns the projection of the target onto their hull
+	 */
+	public boolean isNonSingular() {
+		double maxDiagonal = 0.0;
+		for (int j = 0; j < positionDimension; j++) {
+			maxDiagonal = Math.max(maxDiagonal, Math.abs(r[j * positionDimension + j]));
+		}
+		if (!(maxDiagonal > 0.0)) {
+			return false;
+		}
+		for (int j = 0; j < positionDimension; j++) {
+			if (!(Math.abs(r[j * positionDimension + j]) > SINGULARITY_THRESHOLD * maxDiagonal)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param distances distances from the anchors, indexed like the anchors
+	 * @return the linear least squares position estimate
+	 */
+	public RealVector solve(double[] distances) {
+		if (distances.length != size) {
+			throw new IllegalArgumentException("The number of positions, " + size + ", does not match the number of distances, " + distances.length + ".");
+		}
+		if (size < 2) {
+			throw new IllegalStateException("Need at least two positions.");
+		}
+
+		if (!isNonSingular()) {
+			if (geometry == null) {
+				double[] packed = new double[size * positionDimension];
+				System.arraycopy(positions, 0, packed, 0, packed.length);
+				geometry = new AnchorGeometry(positionDimension, packed);
+			}
+			double[] reduced = new double[positionDimension];
+			geometry.solveReduced(distances, reduced);
+			return new ArrayRealVector(reduced, false);
+		}
+
+		// b_i = 0.5 * (r_0^2 - r_i^2 + |p_i - p_0|^2)
+		double r0squared = distances[0] * distances[0];
+		double[] b = new double[size - 1];
+		for (int i = 1; i < size; i++) {
+			double di0squared = 0.0;
+			for (int j = 0; j < positionDimension; j++) {
+				double delta = positions[i * positionDimension + j] - positions[j];
+				di0squared += delta * delta;
+			}
+			b[i - 1] = 0.5 * (r0squared - distances[i] * distances[i] + di0squared);
+		}
+
+		double[] x = new double[positionDimension];
+		seminormalSolve(b, x);
+		// corrected seminormal equations, one refinement step on the residual
+		for (int i = 1; i < size; i++) {
+			double ax = 0.0;
+			for (int j = 0; j < positionDimension; j++) {
+				ax += (positions[i * positionDimension + j] - positions[j]) * x[j];
+			}
+			b[i - 1] -= ax;
+		}
+		double[] correction = new double[positionDimension];
+		seminormalSolve(b, correction);
+
+		for (int j = 0; j < positionDimension; j++) {
+			x[j] += correction[j] + positions[j];
+		}
+		return new ArrayRealVector(x, false);
+	}
+
+	/**
+	 * Solves R^T R x = A^T b
+	 */
+	private void seminormalSolve(double[] b, double[] x) {
+		int d = positionDimension;
+		Arrays.fill(rhs, 0.0);
+		for (int i = 1; i < size; i++) {
+			double bi = b[i - 1];
+			for (int j = 0; j < d; j++) {
+				rhs[j] += (positions[i * d + j] - positions[j]) * bi;
+			}
+		}
+		// R^T z = A^T b
+		for (int i = 0; i < d; i++) {
+			double sum = rhs[i];
+			for (int k = 0; k < i; k++) {
+				sum -= r[k * d + i] * x[k];
+			}
+			x[i] = sum / r[i * d + i];
+		}
+		// R x = z
+		for (int i = d - 1; i >= 0; i--) {
+			double sum = x[i];
+			for (int k = i + 1; k < d; k++) {
+				sum -= r[i * d + k] * x[k];
+			}
+			x[i] = sum / r[i * d + i];
+		}
+	}
+
+	/**
+	 * Shifts every row of A by delta, as a rank one update and downdate of
+	 * R. Called before the reference anchor moves, the rows are still relative
+	 * to the old one.
+	 *
+	 * @return false if the downdate failed and R needs refactoring
+	 */
+	private boolean shift(double[] delta) {
+		int m = size - 1;
+		if (m == 0) {
+			return true;
+		}
+		int d = positionDimension;
+		double sqrtM = Math.sqrt(m);
+		for (int j = 0; j < d; j++) {
+			// the sum of the rows is the sum of all the anchors minus size times the reference
+			v[j] = (total[j] - size * positions[j]) / sqrtM;
+			u[j] = v[j] + sqrtM * delta[j];
+		}
+		update(u);
+		return downdate(v);
+	}
+
+	/**
+	 * Appends the row x to A, updating R with Givens rotations. Overwrites x.
+	 */
+	private void update(double[] x) {
+		int d = positionDimension;
+		for (int k = 0; k < d; k++) {
+			double rkk = r[k * d + k];
+			double xk = x[k];
+			if (xk == 0.0) {
+				continue;
+			}
+			double hypot = Math.hypot(rkk, xk);
+			double c = rkk / hypot;
+			double s = xk / hypot;
+			r[k * d + k] = hypot;
+			x[k] = 0.0;
+			for (int j = k + 1; j < d; j++) {
+				double rkj = r[k * d + j];
+				double xj = x[j];
+				r[k * d + j] = c * rkj + s * xj;
+				x[j] = c * xj - s * rkj;
+			}
+		}
+	}
+
+	/**
+	 * Deletes the row x from A, downdating R as LINPACK's dchdd does. Overwrites x.
+	 *
+	 * @return false, leaving R unchanged, if R^T R - x x^T is not positive definite
+	 */
+	private boolean downdate(double[] x) {
+		int d = positionDimension;
+		// R^T s = x
+		double[] s = sines;
+		double norm = 0.0;
+		for (int i = 0; i < d; i++) {
+			double rii = r[i * d + i];
+			if (rii == 0.0) {
+				return false;
+			}
+			double sum = x[i];
+			for (int k = 0; k < i; k++) {
+				sum -= r[k * d + i] * s[k];
+			}
+			s[i] = sum / rii;
+			norm += s[i] * s[i];
+		}
+		if (!(norm < 1.0 - SINGULARITY_THRESHOLD)) {
+			return false;
+		}
+
+		double alpha = Math.sqrt(1.0 - norm);
+		for (int i = d - 1; i >= 0; i--) {
+			double scale = alpha + Math.abs(s[i]);
+			double a = alpha / scale;
+			double b = s[i] / scale;
+			double hypot = Math.sqrt(a * a + b * b);
+			cosines[i] = a / hypot;
+			s[i] = b / hypot;
+			alpha = scale * hypot;
+		}
+		for (int j = 0; j < d; j++) {
+			double xx = 0.0;
+			for (int i = j; i >= 0; i--) {
+				double t = cosines[i] * xx + s[i] * r[i * d + j];
+				r[i * d + j] = cosines[i] * r[i * d + j] - s[i] * xx;
+				xx = t;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param x receives the row of anchor i, its position relative to the reference anchor
+	 */
+	private void rowOf(int i, double[] x) {
+		for (int j = 0; j < positionDimension; j++) {
+			x[j] = positions[i * positionDimension + j] - positions[j];
+		}
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Anchor " + i + " of " + size + ".");
+		}
+	}
+
+	private void checkPosition(double[] position) {
+		if (position.length != positionDimension) {
+			throw new IllegalArgumentException("The dimension of all positions should be the same.");
+		}
+		for (double coordinate : position) {
+			if (Double.isNaN(coordinate) || Double.isInfinite(coordinate)) {
+				throw new IllegalArgumentException("The coordinates of the positions should be finite.");
+			}
+		}
+	}
+}
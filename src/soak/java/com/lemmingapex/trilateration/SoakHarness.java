@@ -0,0 +1,323 @@
+package com.lemmingapex.trilateration;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+
+/**
+ * End to end soak test: replays a {@link SoakScenario} through the solvers
+ * from N threads at a target rate and reports, for each solver and thread
+ * count, the throughput, the latency percentiles, the accuracy against the
+ * ground truth and the garbage collections during the run. Unlike the JMH
+ * benchmarks, it measures a whole service loop under sustained load, which
+ * is what capacity planning per core needs.
+ *
+ * With a target rate, each thread schedules its solves at a fixed interval
+ * and latency is measured from the scheduled start, so a stall is charged to
+ * every solve it delays rather than only to the one it hit. Without one,
+ * the threads run flat out and latency is the service time. Either way the
+ * run ends on the wall clock and the throughput is the achieved rate, which
+ * falls short of the target rate when the solvers cannot keep up.
+ *
+ * Options are given as --name=value, see {@link #main}.
+ */
+public class SoakHarness {
+
+	private interface Solve {
+		/**
+		 * Solves the frame and leaves the position in result
+		 *
+		 * @return false if the solver reports a failure
+		 */
+		boolean solve(int frame, double[] result);
+	}
+
+	private final SoakScenario scenario;
+	private final double[] packed;
+
+	public SoakHarness(SoakScenario scenario) {
+		this.scenario = scenario;
+		this.packed = FixedDimensionSolver.pack(scenario.positions);
+	}
+
+	private Solve solver(String name) {
+		if ("linear".equals(name)) {
+			return new Solve() {
+				@Override
+				public boolean solve(int frame, double[] result) {
+					TrilaterationFunction function = new TrilaterationFunction(scenario.positions, scenario.distances[frame]);
+					System.arraycopy(new LinearLeastSquaresSolver(function).solve().toArray(), 0, result, 0, result.length);
+					return true;
+				}
+			};
+		}
+		if ("nonlinear".equals(name)) {
+			return new Solve() {
+				@Override
+				public boolean solve(int frame, double[] result) {
+					TrilaterationFunction function = new TrilaterationFunction(scenario.positions, scenario.distances[frame]);
+					double[] point = new NonLinearLeastSquaresSolver(function, new LevenbergMarquardtOptimizer()).solve().getPoint().toArray();
+					System.arraycopy(point, 0, result, 0, result.length);
+					return true;
+				}
+			};
+		}
+		if ("fixed".equals(name)) {
+			final FixedDimensionSolver solver = new FixedDimensionSolver();
+			return new Solve() {
+				@Override
+				public boolean solve(int frame, double[] result) {
+					return solver.solve(scenario.dimension, packed, scenario.distances[frame], null, result);
+				}
+			};
+		}
+		throw new IllegalArgumentException("Unknown solver " + name + ", expected linear, nonlinear or fixed.");
+	}
+
+	/**
+	 * Outcome of one run of a solver at a thread count
+	 */
+	public static class Result {
+		public final String solver;
+		public final int threads;
+		public final long solves;
+		/**
+		 * Solves that threw, reported a failure or left a non finite position, not in the error histogram
+		 */
+		public final long failures;
+
+		/**
+		 * Target rate over all threads, 0 when unlimited
+		 */
+		public final double offeredRate;
+
+		/**
+		 * Wall time of the measurement
+		 */
+		public final double seconds;
+		public final ConcurrentHistogram latencyNanos;
+
+		/**
+		 * Distance to the ground truth, in millionths of a field unit
+		 */
+		public final ConcurrentHistogram errorMicros;
+		public final long gcCount;
+		public final long gcMillis;
+
+		Result(String solver, int threads, long solves, long failures, double offeredRate, double seconds, ConcurrentHistogram latencyNanos,
+				ConcurrentHistogram errorMicros, long gcCount, long gcMillis) {
+			this.solver = solver;
+			this.threads = threads;
+			this.solves = solves;
+			this.failures = failures;
+			this.offeredRate = offeredRate;
+			this.seconds = seconds;
+			this.latencyNanos = latencyNanos;
+			this.errorMicros = errorMicros;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+		}
+
+		/**
+		 * @return achieved solves per second over all threads
+		 */
+		public double getThroughput() {
+			return solves / seconds;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%-9s %7d %12.0f %12.0f %10.0f %9.1f %9.1f %9.1f %10.4f %10.4f %8d %8d %6d %8d", solver, threads, offeredRate,
+					getThroughput(), getThroughput() / threads, latencyNanos.getValueAtPercentile(50.0) / 1E3, latencyNanos.getValueAtPercentile(99.0) / 1E3,
+					latencyNanos.getValueAtPercentile(99.9) / 1E3, errorMicros.getValueAtPercentile(50.0) / 1E6, errorMicros.getValueAtPercentile(99.0) / 1E6,
+					gcCount, gcMillis, failures, solves);
+		}
+
+		public static String header() {
+			return String.format(Locale.ROOT, "%-9s %7s %12s %12s %10s %9s %9s %9s %10s %10s %8s %8s %6s %8s", "solver", "threads", "offered/s", "solves/s",
+					"per thread",
+					"p50 us", "p99 us", "p99.9 us", "error p50", "error p99", "gc count", "gc ms", "failed", "solves");
+		}
+	}
+
+	/**
+	 * Runs a solver from threads threads, for warmup then measure seconds
+	 *
+	 * @param rate total solves per second over all threads, 0 for as fast as possible
+	 */
+	public Result run(String name, final int threads, final double rate, double warmupSeconds, double measureSeconds) throws InterruptedException {
+		final long intervalNanos = rate > 0.0 ? (long) (1E9 * threads / rate) : 0L;
+		final long warmupEnd = System.nanoTime() + (long) (warmupSeconds * 1E9);
+		final long measureEnd = warmupEnd + (long) (measureSeconds * 1E9);
+		final ConcurrentHistogram latencies = new ConcurrentHistogram();
+		final ConcurrentHistogram errors = new ConcurrentHistogram();
+		final AtomicLong solves = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		final CountDownLatch finished = new CountDownLatch(threads);
+		final List<Throwable> thrown = new ArrayList<Throwable>();
+
+		for (int t = 0; t < threads; t++) {
+			final Solve solver = solver(name);
+			final int first = t;
+			Thread thread = new Thread("soak-" + name + "-" + t) {
+				@Override
+				public void run() {
+					double[] result = new double[scenario.dimension];
+					int size = scenario.size();
+					int frame = first % size;
+					long scheduled = System.nanoTime();
+					try {
+						while (true) {
+							if (intervalNanos > 0) {
+								scheduled += intervalNanos;
+								long wait;
+								while ((wait = scheduled - System.nanoTime()) > 0) {
+									LockSupport.parkNanos(wait);
+								}
+							}
+							long now = System.nanoTime();
+							if (now - measureEnd >= 0) {
+								break;
+							}
+							long start = intervalNanos > 0 ? scheduled : now;
+							boolean failed;
+							try {
+								failed = !solver.solve(frame, result) || !isFinite(result);
+							} catch (RuntimeException e) {
+								failed = true;
+							}
+							long end = System.nanoTime();
+							if (now - warmupEnd >= 0) {
+								latencies.record(end - start);
+								if (failed) {
+									failures.incrementAndGet();
+								} else {
+									errors.record((long) (1E6 * error(frame, result)));
+								}
+								solves.incrementAndGet();
+							}
+							frame = (frame + threads) % size;
+						}
+					} catch (Throwable e) {
+						synchronized (thrown) {
+							thrown.add(e);
+						}
+					} finally {
+						finished.countDown();
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		long sleep = warmupEnd - System.nanoTime();
+		if (sleep > 0) {
+			TimeUnit.NANOSECONDS.sleep(sleep);
+		}
+		long gcCountStart = gcCount();
+		long gcMillisStart = gcMillis();
+		finished.await();
+		// the last solves of each thread may run past the end of the measurement
+		double seconds = (System.nanoTime() - warmupEnd) / 1E9;
+		if (!thrown.isEmpty()) {
+			throw new IllegalStateException("A soak thread failed.", thrown.get(0));
+		}
+
+		return new Result(name, threads, solves.get(), failures.get(), rate, seconds, latencies, errors, gcCount() - gcCountStart, gcMillis() - gcMillisStart);
+	}
+
+	private static boolean isFinite(double[] result) {
+		for (double coordinate : result) {
+			if (Double.isNaN(coordinate) || Double.isInfinite(coordinate)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private double error(int frame, double[] result) {
+		double[] truth = scenario.truths[frame];
+		double sum = 0.0;
+		for (int j = 0; j < truth.length; j++) {
+			double delta = result[j] - truth[j];
+			sum += delta * delta;
+		}
+		return Math.sqrt(sum);
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, bean.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, bean.getCollectionTime());
+		}
+		return millis;
+	}
+
+	/**
+	 * Options, with their defaults:
+	 * --dimension=2 --anchors=8 --layout=UNIFORM --noise=0.5 --outliers=0.0
+	 * --trajectories=64 --frames=256 --speed=0.5 --seed=42
+	 * --solvers=linear,nonlinear,fixed --threads=1,2,4 --rate=0 (solves per second, 0 for unlimited)
+	 * --warmup=5 --duration=20 (seconds)
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		options.put("dimension", "2");
+		options.put("anchors", "8");
+		options.put("layout", "UNIFORM");
+		options.put("noise", "0.5");
+		options.put("outliers", "0.0");
+		options.put("trajectories", "64");
+		options.put("frames", "256");
+		options.put("speed", "0.5");
+		options.put("seed", "42");
+		options.put("solvers", "linear,nonlinear,fixed");
+		options.put("threads", "1,2,4");
+		options.put("rate", "0");
+		options.put("warmup", "5");
+		options.put("duration", "20");
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (!arg.startsWith("--") || equals < 0 || !options.containsKey(arg.substring(2, equals))) {
+				throw new IllegalArgumentException("Unknown option " + arg + ", expected one of --" + options.keySet() + "=value.");
+			}
+			options.put(arg.substring(2, equals), arg.substring(equals + 1));
+		}
+
+		SoakScenario scenario = new SoakScenario(Integer.parseInt(options.get("dimension")), Integer.parseInt(options.get("anchors")),
+				SoakScenario.Layout.valueOf(options.get("layout").toUpperCase(Locale.ROOT)), Double.parseDouble(options.get("noise")),
+				Double.parseDouble(options.get("outliers")), Integer.parseInt(options.get("trajectories")), Integer.parseInt(options.get("frames")),
+				Double.parseDouble(options.get("speed")), Long.parseLong(options.get("seed")));
+		SoakHarness harness = new SoakHarness(scenario);
+		double rate = Double.parseDouble(options.get("rate"));
+		double warmup = Double.parseDouble(options.get("warmup"));
+		double duration = Double.parseDouble(options.get("duration"));
+
+		System.out.println(options + ", " + Runtime.getRuntime().availableProcessors() + " processors");
+		System.out.println(Result.header());
+		for (String solver : options.get("solvers").split(",")) {
+			for (String threads : options.get("threads").split(",")) {
+				System.out.println(harness.run(solver.trim(), Integer.parseInt(threads.trim()), rate, warmup, duration));
+			}
+		}
+	}
+}
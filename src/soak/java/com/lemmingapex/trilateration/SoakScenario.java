@@ -0,0 +1,186 @@
+package com.lemmingapex.trilateration;
+
+import java.util.Random;
+
+/**
+ * Synthetic workload for {@link SoakHarness}: fixed anchors laid out over a
+ * square field of side {@link #FIELD_SIZE}, and targets moving across the
+ * field whose measured ranges carry gaussian noise and, at the outlier rate,
+ * a positive bias such as non line of sight propagation adds.
+ *
+ * Every frame of every trajectory is generated up front, so replaying the
+ * workload measures the solvers and not the generator. A fixed seed keeps
+ * the workload identical between runs.
+ */
+public class SoakScenario {
+
+	public static final double FIELD_SIZE = 100.0;
+
+	public enum Layout {
+		/**
+		 * Anchors drawn uniformly over the field
+		 */
+		UNIFORM,
+		/**
+		 * Anchors on a regular grid covering the field
+		 */
+		GRID,
+		/**
+		 * Anchors on the boundary of the field, targets inside
+		 */
+		PERIMETER,
+		/**
+		 * Anchors in a corner of the field, so targets are mostly outside their hull
+		 */
+		CLUSTERED
+	}
+
+	public final int dimension;
+	public final int anchors;
+	public final Layout layout;
+	public final double noise;
+	public final double outlierRate;
+
+	/**
+	 * Positions of the anchors, shared by every frame
+	 */
+	public final double[][] positions;
+
+	/**
+	 * Measured ranges of each frame
+	 */
+	public final double[][] distances;
+
+	/**
+	 * Ground truth position of the target of each frame
+	 */
+	public final double[][] truths;
+
+	/**
+	 * @param noise standard deviation of the range noise, in field units
+	 * @param outlierRate probability that a range is biased by an outlier
+	 * @param trajectories number of moving targets
+	 * @param frames number of positions of each target
+	 * @param speed distance a target moves between frames, in field units
+	 */
+	public SoakScenario(int dimension, int anchors, Layout layout, double noise, double outlierRate, int trajectories, int frames, double speed, long seed) {
+		if (dimension < 1 || anchors < 1 || trajectories < 1 || frames < 1) {
+			throw new IllegalArgumentException("The dimension, anchors, trajectories and frames should be positive.");
+		}
+		if (outlierRate < 0.0 || outlierRate > 1.0) {
+			throw new IllegalArgumentException("The outlier rate should be between 0 and 1.");
+		}
+		this.dimension = dimension;
+		this.anchors = anchors;
+		this.layout = layout;
+		this.noise = noise;
+		this.outlierRate = outlierRate;
+
+		Random random = new Random(seed);
+		positions = layout(random);
+		distances = new double[trajectories * frames][];
+		truths = new double[trajectories * frames][];
+
+		double[] velocity = new double[dimension];
+		for (int t = 0; t < trajectories; t++) {
+			double[] target = new double[dimension];
+			for (int j = 0; j < dimension; j++) {
+				target[j] = FIELD_SIZE * (0.1 + 0.8 * random.nextDouble());
+			}
+			heading(random, speed, velocity);
+			for (int f = 0; f < frames; f++) {
+				int frame = t * frames + f;
+				truths[frame] = target.clone();
+				distances[frame] = measure(random, target);
+
+				// mostly straight lines, turning now and then and bouncing off the edges of the field
+				if (random.nextDouble() < 0.05) {
+					heading(random, speed, velocity);
+				}
+				for (int j = 0; j < dimension; j++) {
+					target[j] += velocity[j];
+					if (target[j] < 0.0 || target[j] > FIELD_SIZE) {
+						velocity[j] = -velocity[j];
+						target[j] += 2.0 * velocity[j];
+					}
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return distances.length;
+	}
+
+	private double[][] layout(Random random) {
+		double[][] positions = new double[anchors][dimension];
+		switch (layout) {
+		case GRID: {
+			int side = (int) Math.ceil(Math.pow(anchors, 1.0 / dimension));
+			for (int i = 0; i < anchors; i++) {
+				int index = i;
+				for (int j = 0; j < dimension; j++) {
+					positions[i][j] = FIELD_SIZE * ((index % side) + 0.5) / side;
+					index /= side;
+				}
+			}
+			break;
+		}
+		case PERIMETER: {
+			for (int i = 0; i < anchors; i++) {
+				for (int j = 0; j < dimension; j++) {
+					positions[i][j] = FIELD_SIZE * random.nextDouble();
+				}
+				// pin one coordinate to a face of the field
+				positions[i][random.nextInt(dimension)] = random.nextBoolean() ? 0.0 : FIELD_SIZE;
+			}
+			break;
+		}
+		case CLUSTERED: {
+			for (int i = 0; i < anchors; i++) {
+				for (int j = 0; j < dimension; j++) {
+					positions[i][j] = 0.2 * FIELD_SIZE * random.nextDouble();
+				}
+			}
+			break;
+		}
+		default: {
+			for (int i = 0; i < anchors; i++) {
+				for (int j = 0; j < dimension; j++) {
+					positions[i][j] = FIELD_SIZE * random.nextDouble();
+				}
+			}
+		}
+		}
+		return positions;
+	}
+
+	private double[] measure(Random random, double[] target) {
+		double[] ranges = new double[anchors];
+		for (int i = 0; i < anchors; i++) {
+			double distanceSquared = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				double delta = positions[i][j] - target[j];
+				distanceSquared += delta * delta;
+			}
+			double range = Math.sqrt(distanceSquared) + noise * random.nextGaussian();
+			if (random.nextDouble() < outlierRate) {
+				range += 0.1 * FIELD_SIZE * Math.abs(random.nextGaussian());
+			}
+			ranges[i] = Math.max(0.0, range);
+		}
+		return ranges;
+	}
+
+	private void heading(Random random, double speed, double[] velocity) {
+		double norm = 0.0;
+		for (int j = 0; j < dimension; j++) {
+			velocity[j] = random.nextGaussian();
+			norm += velocity[j] * velocity[j];
+		}
+		norm = Math.sqrt(norm);
+		for (int j = 0; j < dimension; j++) {
+			velocity[j] *= norm > 0.0 ? speed / norm : 0.0;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.junit.Test;
+
+/**
+ * Checks the rank and GDOP of {@link AnchorGeometry} and how the solvers handle degenerate anchors.
+ */
+public class AnchorGeometryTest {
+
+	private static final double[][] COPLANAR = new double[][] { { 0.0, 0.0, 5.0 }, { 10.0, 0.0, 5.0 }, { 0.0, 10.0, 5.0 }, { 10.0, 10.0, 5.0 }, { 5.0, 3.0, 5.0 } };
+
+	@Test
+	public void detectsRank() {
+		AnchorGeometry square = new AnchorSet(new double[][] { { 0.0, 0.0 }, { 1.0, 0.0 }, { 1.0, 1.0 }, { 0.0, 1.0 } }).getGeometry();
+		assertEquals(2, square.getRank());
+		assertFalse(square.isDegenerate());
+		// four unit vectors along the diagonals, information matrix 2 * I
+		assertEquals(1.0, square.getGDOP(), 1E-12);
+
+		AnchorGeometry collinear = new AnchorSet(new double[][] { { 0.0, 0.0 }, { 1.0, 1.0 }, { 3.0, 3.0 } }).getGeometry();
+		assertEquals(1, collinear.getRank());
+		assertTrue(collinear.isDegenerate());
+		assertEquals(Double.POSITIVE_INFINITY, collinear.getGDOP(), 0.0);
+
+		AnchorGeometry coplanar = new AnchorSet(COPLANAR).getGeometry();
+		assertEquals(2, coplanar.getRank());
+		assertTrue(coplanar.isDegenerate());
+
+		AnchorGeometry coincident = new AnchorSet(new double[][] { { 2.0, 2.0 }, { 2.0, 2.0 }, { 2.0, 2.0 } }).getGeometry();
+		assertEquals(0, coincident.getRank());
+		assertTrue(coincident.isDegenerate());
+
+		// too few anchors to span the plane is not degenerate, only not full rank
+		AnchorGeometry pair = new AnchorSet(new double[][] { { 0.0, 0.0 }, { 1.0, 0.0 } }).getGeometry();
+		assertFalse(pair.isFullRank());
+		assertFalse(pair.isDegenerate());
+	}
+
+	@Test
+	public void reducedSolveProjectsOntoHull() {
+		AnchorSet anchors = new AnchorSet(COPLANAR);
+		double[] target = new double[] { 4.0, 7.0, 12.0 };
+		double[] distances = distances(COPLANAR, target);
+
+		double[] result = new double[3];
+		anchors.getGeometry().solveReduced(distances, result);
+		assertArrayEquals(new double[] { 4.0, 7.0, 5.0 }, result, 1E-9);
+
+		assertTrue(new FixedDimensionSolver().solve(anchors, distances, null, result));
+		assertEquals(0, SolverWorkspace.current().getIterations());
+		assertArrayEquals(new double[] { 4.0, 7.0, 5.0 }, result, 1E-9);
+
+		BoundedOptimum optimum = new NonLinearLeastSquaresSolver(anchors.createFunction(distances), new LevenbergMarquardtOptimizer()).solve(SolveOptions.DEFAULT);
+		assertEquals(BoundedOptimum.Status.REDUCED_DIMENSION, optimum.getStatus());
+		assertArrayEquals(new double[] { 4.0, 7.0, 5.0 }, optimum.getPoint().toArray(), 1E-9);
+
+		double[] linear = new LinearLeastSquaresSolver(new TrilaterationFunction(COPLANAR, distances.clone())).solve().toArray();
+		assertArrayEquals(new double[] { 4.0, 7.0, 5.0 }, linear, 1E-9);
+	}
+
+	@Test
+	public void initialPointPicksTheSideOfTheHull() {
+		AnchorSet anchors = new AnchorSet(COPLANAR);
+		double[] target = new double[] { 4.0, 7.0, 1.0 };
+		double[] distances = distances(COPLANAR, target);
+		double[] initialPoint = new double[] { 4.0, 7.0, 0.0 };
+
+		double[] result = new double[3];
+		assertEquals(4.0, anchors.getGeometry().solveOffHull(distances, initialPoint, result), 1E-9);
+		assertArrayEquals(target, result, 1E-9);
+		anchors.getGeometry().solveOffHull(distances, new double[] { 0.0, 0.0, 9.0 }, result);
+		assertArrayEquals(new double[] { 4.0, 7.0, 9.0 }, result, 1E-9);
+
+		// the mirror image fits as well, so neither solver claims convergence
+		assertFalse(new FixedDimensionSolver().solve(anchors, distances, initialPoint, result));
+		assertArrayEquals(target, result, 1E-9);
+
+		BoundedOptimum optimum = new NonLinearLeastSquaresSolver(anchors.createFunction(distances), new LevenbergMarquardtOptimizer()).solve(initialPoint,
+				SolveOptions.DEFAULT);
+		assertEquals(BoundedOptimum.Status.AMBIGUOUS, optimum.getStatus());
+		assertFalse(optimum.isConverged());
+		assertArrayEquals(target, optimum.getPoint().toArray(), 1E-9);
+		assertEquals(0.0, optimum.getRMS(), 1E-9);
+	}
+
+	@Test(expected = DegenerateGeometryException.class)
+	public void failsFastOnDegenerateAnchors() {
+		double[] distances = distances(COPLANAR, new double[] { 4.0, 7.0, 12.0 });
+		new NonLinearLeastSquaresSolver(new TrilaterationFunction(COPLANAR, distances), new LevenbergMarquardtOptimizer())
+				.solve(SolveOptions.builder().degenerateGeometry(SolveOptions.DegenerateGeometry.FAIL).build());
+	}
+
+	@Test(expected = DegenerateGeometryException.class)
+	public void failsFastAboveMaxGDOP() {
+		// nearly collinear
+		double[][] positions = new double[][] { { 0.0, 0.0 }, { 0.0, 0.01 }, { 100.0, 0.0 }, { 100.0, 0.01 } };
+		double[] distances = distances(positions, new double[] { 40.0, 30.0 });
+		new NonLinearLeastSquaresSolver(new TrilaterationFunction(positions, distances), new LevenbergMarquardtOptimizer())
+				.solve(SolveOptions.builder().maxGDOP(100.0).build());
+	}
+
+	@Test
+	public void rawPositionsShareTheirGeometry() {
+		double[][] positions = new double[][] { { 5.0, -6.0, 1.0 }, { 13.0, -15.0, 2.0 }, { 21.0, -3.0, 3.0 }, { 12.4, -21.2, 4.0 } };
+		AnchorGeometry geometry = new TrilaterationFunction(positions, distances(positions, new double[] { 10.0, -10.0, 2.0 })).getGeometry();
+		assertSame(geometry, new TrilaterationFunction(positions, distances(positions, new double[] { 12.0, -8.0, 3.0 })).getGeometry());
+
+		positions[3][2] = 5.0;
+		assertNotSame(geometry, new TrilaterationFunction(positions, distances(positions, new double[] { 10.0, -10.0, 2.0 })).getGeometry());
+	}
+
+	private static double[] distances(double[][] positions, double[] target) {
+		double[] distances = new double[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			double distanceSquared = 0.0;
+			for (int j = 0; j < target.length; j++) {
+				double delta = positions[i][j] - target[j];
+				distanceSquared += delta * delta;
+			}
+			distances[i] = Math.sqrt(distanceSquared);
+		}
+		return distances;
+	}
+}
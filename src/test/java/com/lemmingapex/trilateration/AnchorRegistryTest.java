@@ -0,0 +1,93 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.junit.Test;
+
+/**
+ * Anchor preselection on a large random field of anchors.
+ */
+public class AnchorRegistryTest {
+
+	private static final int NUMBER_OF_ANCHORS = 5000;
+
+	private final double[][] positions = new double[NUMBER_OF_ANCHORS][2];
+	private final AnchorRegistry registry;
+
+	public AnchorRegistryTest() {
+		Random random = new Random(17);
+		for (int i = 0; i < NUMBER_OF_ANCHORS; i++) {
+			positions[i][0] = 1000.0 * random.nextDouble();
+			positions[i][1] = 1000.0 * random.nextDouble();
+		}
+		registry = new AnchorRegistry(positions);
+	}
+
+	@Test
+	public void nearestMatchesBruteForce() throws Exception {
+		Random random = new Random(19);
+		for (int trial = 0; trial < 50; trial++) {
+			double[] point = new double[]{1000.0 * random.nextDouble(), 1000.0 * random.nextDouble()};
+			int[] nearest = registry.nearest(point, 10);
+
+			Integer[] all = new Integer[NUMBER_OF_ANCHORS];
+			for (int i = 0; i < NUMBER_OF_ANCHORS; i++) {
+				all[i] = i;
+			}
+			final double[] distances = new double[NUMBER_OF_ANCHORS];
+			for (int i = 0; i < NUMBER_OF_ANCHORS; i++) {
+				distances[i] = distance(point, positions[i]);
+			}
+			Arrays.sort(all, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(distances[a], distances[b]);
+				}
+			});
+			for (int k = 0; k < nearest.length; k++) {
+				assertEquals(distances[all[k]], distances[nearest[k]], 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void selectionBeatsNearestGeometry() throws Exception {
+		// anchors along a line next to the target have a poor geometry
+		double[][] line = new double[][]{{0.0, 1.0}, {1.0, 1.0}, {2.0, 1.0}, {3.0, 1.0}, {-1.0, 1.0}, {1.0, 8.0}, {1.0, -8.0}, {9.0, 0.0}};
+		AnchorRegistry lineRegistry = new AnchorRegistry(line);
+		double[] target = new double[]{1.0, 0.0};
+		int[] nearest = lineRegistry.nearest(target, 3);
+		int[] selected = lineRegistry.selectAnchors(target, 3);
+		assertTrue(lineRegistry.gdop(target, selected) < lineRegistry.gdop(target, nearest));
+		assertEquals(Double.POSITIVE_INFINITY, lineRegistry.gdop(target, new int[]{1, 5}), 0.0);
+	}
+
+	@Test
+	public void functionFromHeardAnchorsLocatesTarget() throws Exception {
+		double[] target = new double[]{480.0, 515.0};
+		int[] heard = registry.nearest(target, 300);
+		double[] ranges = new double[heard.length];
+		Random random = new Random(23);
+		for (int h = 0; h < heard.length; h++) {
+			ranges[h] = distance(target, positions[heard[h]]) + 0.1 * random.nextGaussian();
+		}
+
+		TrilaterationFunction function = registry.createFunction(heard, ranges, 8);
+		assertEquals(8, function.getPositions().length);
+		double[] position = new NonLinearLeastSquaresSolver(function, new LevenbergMarquardtOptimizer()).solve().getPoint().toArray();
+		assertArrayEquals(target, position, 0.5);
+	}
+
+	private static double distance(double[] a, double[] b) {
+		double dx = a[0] - b[0];
+		double dy = a[1] - b[1];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+}
@@ -0,0 +1,100 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
+import org.junit.Test;
+
+/**
+ * Checks that an {@link AnchorSet} is isolated from the caller's arrays and gives the same answers as raw positions.
+ */
+public class AnchorSetTest {
+
+	private static final double[][] POSITIONS = new double[][] { { 5.0, -6.0 }, { 13.0, -15.0 }, { 21.0, -3.0 }, { 12.4, -21.2 } };
+	private static final double[] DISTANCES = new double[] { 8.06, 13.97, 23.32, 15.31 };
+
+	@Test
+	public void copiesCallerArrays() {
+		double[][] positions = new double[][] { { 1.0, 2.0 }, { 3.0, 4.0 } };
+		AnchorSet anchors = new AnchorSet(positions);
+		positions[0][0] = 100.0;
+
+		assertEquals(1.0, anchors.getCoordinate(0, 0), 0.0);
+		anchors.getPositions()[1][1] = 100.0;
+		assertEquals(4.0, anchors.getCoordinate(1, 1), 0.0);
+		assertArrayEquals(new double[] { 1.0, 2.0, 3.0, 4.0 }, anchors.getPackedPositions(), 0.0);
+	}
+
+	@Test
+	public void functionDoesNotExposeTheAnchors() {
+		AnchorSet anchors = new AnchorSet(new double[][] { { 1.0, 2.0 }, { 3.0, 4.0 } });
+		TrilaterationFunction function = anchors.createFunction(new double[] { 1.0, 1.0 });
+		function.getPositions()[0][0] = 100.0;
+
+		assertEquals(1.0, anchors.getCoordinate(0, 0), 0.0);
+		assertEquals(1.0, function.getPositions()[0][0], 0.0);
+		assertEquals(1.0, anchors.createFunction(new double[] { 1.0, 1.0 }).getPositions()[0][0], 0.0);
+	}
+
+	@Test
+	public void functionDoesNotModifyDistances() {
+		double[] distances = new double[] { 0.0, 5.0 };
+		TrilaterationFunction function = new AnchorSet(new double[][] { { 1.0, 2.0 }, { 3.0, 4.0 } }).createFunction(distances);
+
+		assertEquals(0.0, distances[0], 0.0);
+		assertTrue(function.getDistances()[0] > 0.0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNonFiniteCoordinates() {
+		new AnchorSet(new double[][] { { 1.0, 2.0 }, { 3.0, Double.NaN } });
+	}
+
+	@Test
+	public void sharedAcrossThreadsMatchesRawPositions() throws Exception {
+		Optimum expected = new NonLinearLeastSquaresSolver(new TrilaterationFunction(copy(POSITIONS), DISTANCES.clone()), new LevenbergMarquardtOptimizer()).solve();
+		final double[] expectedPoint = expected.getPoint().toArray();
+		final AnchorSet anchors = new AnchorSet(POSITIONS);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<double[][]>> futures = new ArrayList<Future<double[][]>>();
+			for (int t = 0; t < 8; t++) {
+				futures.add(executor.submit(new Callable<double[][]>() {
+					@Override
+					public double[][] call() {
+						double[] fixed = new double[2];
+						new FixedDimensionSolver().solve(anchors, DISTANCES, null, fixed);
+						Optimum optimum = new NonLinearLeastSquaresSolver(anchors.createFunction(DISTANCES), new LevenbergMarquardtOptimizer()).solve();
+						return new double[][] { optimum.getPoint().toArray(), fixed };
+					}
+				}));
+			}
+			for (Future<double[][]> future : futures) {
+				double[][] points = future.get();
+				assertArrayEquals(expectedPoint, points[0], 0.0);
+				assertArrayEquals(expectedPoint, points[1], 1E-4);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static double[][] copy(double[][] positions) {
+		double[][] copy = new double[positions.length][];
+		for (int i = 0; i < positions.length; i++) {
+			copy[i] = positions[i].clone();
+		}
+		return copy;
+	}
+}
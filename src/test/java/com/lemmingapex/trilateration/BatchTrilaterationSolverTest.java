@@ -0,0 +1,78 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link BatchTrilaterationSolver} gives the same answers as solving each problem on its own.
+ */
+public class BatchTrilaterationSolverTest {
+
+	@Test
+	public void batchMatchesIndividualSolves() throws Exception {
+		int dimension = 3;
+		int numberOfProblems = 1000;
+		Random random = new Random(11);
+
+		int[] offsets = new int[numberOfProblems + 1];
+		for (int p = 0; p < numberOfProblems; p++) {
+			offsets[p + 1] = offsets[p] + 4 + random.nextInt(12);
+		}
+		double[] positions = new double[offsets[numberOfProblems] * dimension];
+		double[] distances = new double[offsets[numberOfProblems]];
+		double[] expected = new double[numberOfProblems * dimension];
+		for (int p = 0; p < numberOfProblems; p++) {
+			for (int j = 0; j < dimension; j++) {
+				expected[p * dimension + j] = 100.0 * random.nextDouble();
+			}
+			for (int i = offsets[p]; i < offsets[p + 1]; i++) {
+				double distanceSquared = 0.0;
+				for (int j = 0; j < dimension; j++) {
+					positions[i * dimension + j] = 100.0 * random.nextDouble();
+					double delta = positions[i * dimension + j] - expected[p * dimension + j];
+					distanceSquared += delta * delta;
+				}
+				distances[i] = Math.sqrt(distanceSquared);
+			}
+		}
+
+		double[] results = new double[numberOfProblems * dimension];
+		int[] iterations = new int[numberOfProblems];
+		boolean[] converged = new boolean[numberOfProblems];
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			new BatchTrilaterationSolver(new FixedDimensionSolver(), pool, 16).solve(dimension, positions, distances, offsets, results, iterations, converged);
+		} finally {
+			pool.shutdown();
+		}
+
+		FixedDimensionSolver solver = new FixedDimensionSolver();
+		SolverWorkspace workspace = new SolverWorkspace();
+		double[] result = new double[dimension];
+		for (int p = 0; p < numberOfProblems; p++) {
+			int offset = offsets[p];
+			boolean problemConverged = solver.solve(dimension, positions, distances, null, offset, offsets[p + 1] - offset, null, result, 0, workspace);
+			assertEquals(problemConverged, converged[p]);
+			assertEquals(workspace.getIterations(), iterations[p]);
+			assertTrue(Arrays.equals(result, Arrays.copyOfRange(results, p * dimension, p * dimension + dimension)));
+		}
+	}
+
+	@Test
+	public void smallBatchWithoutOptionalOutputs() throws Exception {
+		double[] positions = new double[]{1.0, 1.0, 3.0, 1.0, 2.0, 2.0, 0.0, 0.0, -1.0, 0.0, 0.0, -1.0};
+		double[] distances = new double[]{1.0, 1.0, 1.0, Math.sqrt(2.0), 1.0, 1.0};
+		double[] results = new double[4];
+		new BatchTrilaterationSolver().solve(2, positions, distances, new int[]{0, 3, 6}, results, null, null);
+		assertEquals(2.0, results[0], 0.0001);
+		assertEquals(1.0, results[1], 0.0001);
+		assertEquals(-1.0, results[2], 0.0001);
+		assertEquals(-1.0, results[3], 0.0001);
+	}
+}
@@ -0,0 +1,134 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
+import org.junit.Test;
+
+/**
+ * Checks the direct solutions of {@link ClosedFormSolver} and that the solvers dispatch to them.
+ */
+public class ClosedFormSolverTest {
+
+	@Test
+	public void solvesMinimalProblems() {
+		Random random = new Random(23);
+		for (int dimension = 1; dimension <= 3; dimension++) {
+			for (int trial = 0; trial < 100; trial++) {
+				double[] target = randomPoint(random, dimension);
+				double[] positions = new double[(dimension + 1) * dimension];
+				for (int i = 0; i < positions.length; i++) {
+					positions[i] = 100.0 * random.nextDouble();
+				}
+				double[] distances = distances(dimension, positions, target);
+
+				double[] result = new double[dimension];
+				assertTrue(ClosedFormSolver.solve(dimension, positions, distances, 0, result));
+				assertArrayEquals(target, result, 1E-6);
+				assertTrue(ClosedFormSolver.isExact(dimension, positions, distances, 0, dimension + 1, result));
+
+				assertTrue(new FixedDimensionSolver().solve(dimension, positions, distances, null, result));
+				assertEquals(0, SolverWorkspace.current().getIterations());
+				assertArrayEquals(target, result, 1E-6);
+			}
+		}
+	}
+
+	@Test
+	public void intersectsInTwoCandidates() {
+		double[] positions2D = new double[] { 0.0, 0.0, 10.0, 0.0 };
+		double[] first = new double[2];
+		double[] second = new double[2];
+		assertEquals(2, ClosedFormSolver.intersect(2, positions2D, distances(2, positions2D, new double[] { 3.0, 4.0 }), 0, first, second));
+		assertCandidates(new double[] { 3.0, 4.0 }, new double[] { 3.0, -4.0 }, first, second);
+
+		// circles too far apart to meet, the closest point between them
+		assertEquals(1, ClosedFormSolver.intersect(2, positions2D, new double[] { 2.0, 2.0 }, 0, first, second));
+		assertArrayEquals(new double[] { 5.0, 0.0 }, first, 1E-12);
+
+		double[] positions3D = new double[] { 0.0, 0.0, 0.0, 10.0, 0.0, 0.0, 0.0, 10.0, 0.0 };
+		first = new double[3];
+		second = new double[3];
+		assertEquals(2, ClosedFormSolver.intersect(3, positions3D, distances(3, positions3D, new double[] { 2.0, 3.0, 4.0 }), 0, first, second));
+		assertCandidates(new double[] { 2.0, 3.0, 4.0 }, new double[] { 2.0, 3.0, -4.0 }, first, second);
+	}
+
+	@Test
+	public void nearPointPicksCandidate() {
+		double[] positions = new double[] { 0.0, 0.0, 0.0, 10.0, 0.0, 0.0, 0.0, 10.0, 0.0 };
+		double[] distances = distances(3, positions, new double[] { 2.0, 3.0, -4.0 });
+		double[] result = new double[3];
+		assertFalse(ClosedFormSolver.solveExact(3, positions, distances, 0, 3, null, result, new double[3]));
+		assertTrue(ClosedFormSolver.solveExact(3, positions, distances, 0, 3, new double[] { 0.0, 0.0, -1.0 }, result, new double[3]));
+		assertArrayEquals(new double[] { 2.0, 3.0, -4.0 }, result, 1E-9);
+
+		double[] warm = new double[] { 1.0, 1.0, -1.0 };
+		assertTrue(new FixedDimensionSolver().solve(3, positions, distances, warm, result));
+		assertEquals(0, SolverWorkspace.current().getIterations());
+		assertArrayEquals(new double[] { 2.0, 3.0, -4.0 }, result, 1E-9);
+	}
+
+	@Test
+	public void inconsistentRangesStillIterate() {
+		double[][] positions = new double[][] { { 5.0, -6.0 }, { 13.0, -15.0 }, { 21.0, -3.0 } };
+		double[] distances = new double[] { 8.06, 13.97, 23.32 };
+		double[] closedForm = new double[2];
+		assertTrue(ClosedFormSolver.solve(2, FixedDimensionSolver.pack(positions), distances, 0, closedForm));
+		assertFalse(ClosedFormSolver.isExact(2, FixedDimensionSolver.pack(positions), distances, 0, 3, closedForm));
+
+		Optimum optimum = new NonLinearLeastSquaresSolver(new TrilaterationFunction(positions, distances.clone()), new LevenbergMarquardtOptimizer()).solve();
+		assertTrue(optimum.getIterations() > 0);
+
+		double[] result = new double[2];
+		assertTrue(new FixedDimensionSolver().solve(2, FixedDimensionSolver.pack(positions), distances, null, result));
+		assertTrue(SolverWorkspace.current().getIterations() > 0);
+		assertArrayEquals(optimum.getPoint().toArray(), result, 1E-4);
+	}
+
+	@Test
+	public void nonLinearSolverReturnsExactSolution() {
+		double[][] positions = new double[][] { { 0.0, 0.0 }, { 10.0, 0.0 }, { 0.0, 10.0 } };
+		double[] distances = distances(2, FixedDimensionSolver.pack(positions), new double[] { 7.0, 2.0 });
+		BoundedOptimum optimum = new NonLinearLeastSquaresSolver(new TrilaterationFunction(positions, distances), new LevenbergMarquardtOptimizer()).solve(SolveOptions.DEFAULT);
+		assertEquals(BoundedOptimum.Status.CONVERGED, optimum.getStatus());
+		assertEquals(0, optimum.getIterations());
+		assertArrayEquals(new double[] { 7.0, 2.0 }, optimum.getPoint().toArray(), 1E-9);
+	}
+
+	private static void assertCandidates(double[] expectedFirst, double[] expectedSecond, double[] first, double[] second) {
+		if (Math.abs(first[first.length - 1] - expectedFirst[first.length - 1]) > 1E-6) {
+			double[] swap = first;
+			first = second;
+			second = swap;
+		}
+		assertArrayEquals(expectedFirst, first, 1E-9);
+		assertArrayEquals(expectedSecond, second, 1E-9);
+	}
+
+	private static double[] randomPoint(Random random, int dimension) {
+		double[] point = new double[dimension];
+		for (int j = 0; j < dimension; j++) {
+			point[j] = 100.0 * random.nextDouble();
+		}
+		return point;
+	}
+
+	private static double[] distances(int dimension, double[] positions, double[] target) {
+		double[] distances = new double[positions.length / dimension];
+		for (int i = 0; i < distances.length; i++) {
+			double distanceSquared = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				double delta = positions[i * dimension + j] - target[j];
+				distanceSquared += delta * delta;
+			}
+			distances[i] = Math.sqrt(distanceSquared);
+		}
+		return distances;
+	}
+}
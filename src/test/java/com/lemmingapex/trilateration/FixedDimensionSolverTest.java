@@ -0,0 +1,129 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Checks {@link FixedDimensionSolver} against the commons-math path of {@link NonLinearLeastSquaresSolver}.
+ */
+public class FixedDimensionSolverTest {
+
+	@Test
+	public void matchesLevenbergMarquardt2D() throws Exception {
+		assertMatchesLevenbergMarquardt(new double[][]{{1.0, 1.0}, {3.0, 1.0}, {2.0, 2.0}}, new double[]{1.0, 1.0, 1.0}, 0.0001);
+		assertMatchesLevenbergMarquardt(new double[][]{{1.0, 1.0}, {1.0, 3.0}, {8.0, 8.0}, {2.0, 2.0}}, new double[]{5.0, 5.0, 6.36, 3.9}, 0.0001);
+		assertMatchesLevenbergMarquardt(new double[][]{{5.0, -6.0}, {13.0, -15.0}, {21.0, -3.0}, {12.42, -21.2}}, new double[]{8.06, 13.97, 23.32, 15.31}, 0.0001);
+		assertMatchesLevenbergMarquardt(new double[][]{{1.0, 1.0}, {3.0, 1.0}, {2.0, 2.0}}, new double[]{0.5, 0.5, 0.5}, 0.0001);
+	}
+
+	@Test
+	public void matchesLevenbergMarquardt3D() throws Exception {
+		assertMatchesLevenbergMarquardt(new double[][]{{0.0, 0.0, 0.0}, {8.84, 4.57, 12.59}, {0.0, -8.84, 8.84}, {10.72, -8.96, 8.84}}, new double[]{8.84, 8.84, 8.84, 8.84}, 0.0001);
+	}
+
+	@Test
+	public void matchesLevenbergMarquardt1D() throws Exception {
+		assertMatchesLevenbergMarquardt(new double[][]{{1000.0}, {2000.0}, {3000.0}}, new double[]{1110, 110, 910}, 0.001);
+	}
+
+	@Test
+	public void matchesLevenbergMarquardtOnNoisyProblems() throws Exception {
+		Random random = new Random(7);
+		for (int dimension = 2; dimension <= 3; dimension++) {
+			for (int trial = 0; trial < 20; trial++) {
+				int anchors = 4 + random.nextInt(60);
+				double[] target = new double[dimension];
+				for (int j = 0; j < dimension; j++) {
+					target[j] = 20.0 + 60.0 * random.nextDouble();
+				}
+				double[][] positions = new double[anchors][dimension];
+				double[] distances = new double[anchors];
+				for (int i = 0; i < anchors; i++) {
+					double distanceSquared = 0.0;
+					for (int j = 0; j < dimension; j++) {
+						positions[i][j] = 100.0 * random.nextDouble();
+						distanceSquared += (positions[i][j] - target[j]) * (positions[i][j] - target[j]);
+					}
+					distances[i] = Math.sqrt(distanceSquared) + 0.5 * random.nextGaussian();
+				}
+				assertMatchesLevenbergMarquardt(positions, distances, 0.001);
+			}
+		}
+	}
+
+	@Test
+	public void gaussNewtonConverges() throws Exception {
+		double[][] positions = new double[][]{{0.0, 0.0}, {1000.0, 0.0}, {0.0, 1000.0}, {1000.0, 1000.0}};
+		double[] distances = new double[]{Math.sqrt(2.0) * 500.0, Math.sqrt(2.0) * 500.0, Math.sqrt(2.0) * 500.0, Math.sqrt(2.0) * 500.0};
+		double[] result = new double[2];
+		FixedDimensionSolver solver = new FixedDimensionSolver(FixedDimensionSolver.Method.GAUSS_NEWTON);
+		assertTrue(solver.solve(2, FixedDimensionSolver.pack(positions), distances, new double[]{400.0, 700.0}, result));
+		assertEquals(500.0, result[0], 0.0001);
+		assertEquals(500.0, result[1], 0.0001);
+	}
+
+	@Test
+	public void solvesSliceOfAnchors() throws Exception {
+		// the first two anchors do not belong to the problem
+		double[] positions = new double[]{-50.0, 3.0, 7.0, 7.0, 1.0, 1.0, 3.0, 1.0, 2.0, 2.0};
+		double[] distances = new double[]{9.0, 9.0, 1.0, 1.0, 1.0};
+		double[] result = new double[]{Double.NaN, 0.0, 0.0};
+		SolverWorkspace workspace = new SolverWorkspace();
+		assertTrue(new FixedDimensionSolver().solve(2, positions, distances, null, 2, 3, null, result, 1, workspace));
+		assertTrue(Double.isNaN(result[0]));
+		assertEquals(2.0, result[1], 0.0001);
+		assertEquals(1.0, result[2], 0.0001);
+		// three consistent anchors in 2D are solved in closed form
+		assertEquals(0, workspace.getIterations());
+		assertEquals(0.0, workspace.getRMS(), 0.0001);
+	}
+
+	@Test
+	public void warmSolveDoesNotAllocate() throws Exception {
+		java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported());
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		long thread = Thread.currentThread().getId();
+
+		// four anchors in 3D with inconsistent ranges go through the closed form, then iterate from it
+		double[] positions = FixedDimensionSolver.pack(new double[][]{{0.0, 0.0, 0.0}, {8.84, 4.57, 12.59}, {0.0, -8.84, 8.84}, {10.72, -8.96, 8.84}});
+		double[] distances = new double[]{8.84, 8.5, 9.2, 8.84};
+		double[] result = new double[3];
+		FixedDimensionSolver solver = new FixedDimensionSolver();
+		SolverWorkspace workspace = new SolverWorkspace();
+		for (int i = 0; i < 20000; i++) {
+			solver.solve(3, positions, distances, null, 0, 4, null, result, 0, workspace);
+		}
+
+		long before = allocations.getThreadAllocatedBytes(thread);
+		long calibration = allocations.getThreadAllocatedBytes(thread) - before;
+		before = allocations.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < 1000; i++) {
+			solver.solve(3, positions, distances, null, 0, 4, null, result, 0, workspace);
+		}
+		long allocated = allocations.getThreadAllocatedBytes(thread) - before - calibration;
+		assertTrue(workspace.getIterations() > 0);
+		assertEquals(0, allocated);
+	}
+
+	private void assertMatchesLevenbergMarquardt(double[][] positions, double[] distances, double delta) {
+		int dimension = positions[0].length;
+		Optimum optimum = new NonLinearLeastSquaresSolver(new TrilaterationFunction(positions, distances.clone()), new LevenbergMarquardtOptimizer()).solve();
+		double[] expected = optimum.getPoint().toArray();
+
+		double[] result = new double[dimension];
+		boolean converged = new FixedDimensionSolver().solve(dimension, FixedDimensionSolver.pack(positions), distances, null, result);
+		assertTrue(converged);
+		for (int j = 0; j < dimension; j++) {
+			assertEquals(expected[j], result[j], delta);
+		}
+		assertEquals(optimum.getRMS(), SolverWorkspace.current().getRMS(), delta);
+	}
+}
@@ -0,0 +1,172 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Round trips records through {@link MeasurementLogWriter} and {@link MeasurementLogReader}, and solves a log with {@link MeasurementLogSolver}.
+ */
+public class MeasurementLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void recordsRoundTripAcrossRegions() throws Exception {
+		File file = folder.newFile("ranges.log");
+		// small regions so records straddle region boundaries
+		MeasurementLogWriter writer = new MeasurementLogWriter(file, 100);
+		try {
+			for (int r = 0; r < 50; r++) {
+				double[] values = new double[r % 7];
+				for (int i = 0; i < values.length; i++) {
+					values[i] = r + i / 10.0;
+				}
+				writer.write(r % 3, 1000L * r, values);
+			}
+		} finally {
+			writer.close();
+		}
+
+		MeasurementLogReader reader = new MeasurementLogReader(file, 100);
+		try {
+			double[] values = new double[7];
+			for (int r = 0; r < 50; r++) {
+				assertTrue(reader.next());
+				assertEquals(r % 3, reader.getAnchorSetId());
+				assertEquals(1000L * r, reader.getTimestamp());
+				assertEquals(r % 7, reader.getCount());
+				reader.getValues(values);
+				for (int i = 0; i < reader.getCount(); i++) {
+					assertEquals(r + i / 10.0, values[i], 0.0);
+				}
+			}
+			assertFalse(reader.next());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void readsUpToTheLastFlushOfAWriterThatDidNotClose() throws Exception {
+		File file = folder.newFile("ranges.log");
+		MeasurementLogWriter writer = new MeasurementLogWriter(file, 100);
+		try {
+			// the first records span several regions before the flush
+			for (int r = 0; r < 20; r++) {
+				writer.write(r, r, new double[] { r, r + 0.5 });
+			}
+			writer.flush();
+			for (int r = 20; r < 25; r++) {
+				writer.write(r, r, new double[] { r });
+			}
+
+			// as left by a crash, the file extends past the records with zeros
+			assertTrue(file.length() > writer.size());
+			MeasurementLogReader reader = new MeasurementLogReader(file, 100);
+			try {
+				double[] values = new double[2];
+				for (int r = 0; r < 20; r++) {
+					assertTrue(reader.next());
+					assertEquals(r, reader.getAnchorSetId());
+					assertEquals(2, reader.getCount());
+					reader.getValues(values);
+					assertEquals(r + 0.5, values[1], 0.0);
+				}
+				assertFalse(reader.next());
+			} finally {
+				reader.close();
+			}
+		} finally {
+			writer.close();
+		}
+
+		MeasurementLogReader reader = new MeasurementLogReader(file, 100);
+		try {
+			int records = 0;
+			while (reader.next()) {
+				records++;
+			}
+			assertEquals(25, records);
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void solvesLogIntoFixes() throws Exception {
+		double[][] square = new double[][] { { 0.0, 0.0 }, { 100.0, 0.0 }, { 100.0, 100.0 }, { 0.0, 100.0 } };
+		double[][] cube = new double[][] { { 0.0, 0.0, 0.0 }, { 100.0, 0.0, 0.0 }, { 0.0, 100.0, 0.0 }, { 0.0, 0.0, 100.0 }, { 100.0, 100.0, 100.0 } };
+		Random random = new Random(5);
+
+		int numberOfRecords = 200;
+		double[][] expected = new double[numberOfRecords][];
+		File ranges = folder.newFile("ranges.log");
+		MeasurementLogWriter writer = new MeasurementLogWriter(ranges, 256);
+		try {
+			for (int r = 0; r < numberOfRecords; r++) {
+				double[][] anchors = r % 2 == 0 ? square : cube;
+				expected[r] = new double[anchors[0].length];
+				for (int j = 0; j < expected[r].length; j++) {
+					expected[r][j] = 10.0 + 80.0 * random.nextDouble();
+				}
+				double[] distances = new double[anchors.length];
+				for (int i = 0; i < anchors.length; i++) {
+					double distanceSquared = 0.0;
+					for (int j = 0; j < expected[r].length; j++) {
+						double delta = anchors[i][j] - expected[r][j];
+						distanceSquared += delta * delta;
+					}
+					distances[i] = Math.sqrt(distanceSquared);
+				}
+				writer.write(r % 2 == 0 ? 7L : -3L, r, distances);
+			}
+			// unknown anchor set
+			writer.write(42L, numberOfRecords, new double[] { 1.0, 2.0, 3.0 });
+		} finally {
+			writer.close();
+		}
+
+		MeasurementLogSolver solver = new MeasurementLogSolver();
+		solver.registerAnchorSet(7L, square);
+		solver.registerAnchorSet(-3L, cube);
+
+		File fixes = folder.newFile("fixes.log");
+		MeasurementLogReader reader = new MeasurementLogReader(ranges, 256);
+		writer = new MeasurementLogWriter(fixes, 256);
+		try {
+			assertEquals(numberOfRecords, solver.solve(reader, writer));
+		} finally {
+			reader.close();
+			writer.close();
+		}
+		assertEquals(numberOfRecords, solver.getSolved());
+		assertEquals(numberOfRecords, solver.getConverged());
+		assertEquals(1, solver.getSkipped());
+
+		reader = new MeasurementLogReader(fixes);
+		try {
+			double[] fix = new double[3];
+			for (int r = 0; r < numberOfRecords; r++) {
+				assertTrue(reader.next());
+				assertEquals(r, reader.getTimestamp());
+				assertEquals(expected[r].length, reader.getCount());
+				reader.getValues(fix);
+				for (int j = 0; j < expected[r].length; j++) {
+					assertEquals(expected[r][j], fix[j], 1E-4);
+				}
+			}
+			assertFalse(reader.next());
+		} finally {
+			reader.close();
+		}
+	}
+}
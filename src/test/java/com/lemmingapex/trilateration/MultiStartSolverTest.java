@@ -0,0 +1,135 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link MultiStartSolver} finds both mirrored solutions of ambiguous anchors and stops at a single solve otherwise.
+ */
+public class MultiStartSolverTest {
+
+	@Test
+	public void findsBothIntersectionsOfTwoAnchors() {
+		double[] positions = new double[] { 0.0, 0.0, 4.0, 0.0 };
+		double[] distances = new double[] { Math.sqrt(13.0), Math.sqrt(5.0) };
+
+		List<LocalMinimum> minima = new MultiStartSolver(0.0).solve(2, positions, distances);
+		assertTrue(minima.size() >= 2);
+		assertTrue(minima.get(0).getRMS() < 1E-9);
+		assertTrue(minima.get(1).getRMS() < 1E-9);
+		for (int k = 0; k < 2; k++) {
+			assertEquals(3.0, minima.get(k).getCoordinate(0), 1E-6);
+			assertEquals(2.0, Math.abs(minima.get(k).getCoordinate(1)), 1E-6);
+		}
+		assertEquals(0.0, minima.get(0).getCoordinate(1) + minima.get(1).getCoordinate(1), 1E-6);
+	}
+
+	@Test
+	public void findsMirrorOfCollinearAnchors() {
+		double[] target = new double[] { 3.0, -2.0 };
+		AnchorSet anchors = new AnchorSet(new double[][] { { 0.0, 0.0 }, { 2.0, 0.0 }, { 5.0, 0.0 } });
+		double[] distances = new double[anchors.size()];
+		for (int i = 0; i < distances.length; i++) {
+			double[] position = new double[2];
+			anchors.getPosition(i, position);
+			distances[i] = Math.hypot(position[0] - target[0], position[1] - target[1]);
+		}
+
+		List<LocalMinimum> minima = new MultiStartSolver(new FixedDimensionSolver(), null, MultiStartSolver.DEFAULT_MAX_SEEDS, MultiStartSolver.EXACT_NOISE_FLOOR).solve(anchors, distances);
+		assertTrue(minima.size() >= 2);
+		assertTrue(minima.get(1).getRMS() < 1E-9);
+		double[] first = minima.get(0).getPosition();
+		double[] second = minima.get(1).getPosition();
+		assertEquals(3.0, first[0], 1E-6);
+		assertEquals(3.0, second[0], 1E-6);
+		assertEquals(0.0, first[1] + second[1], 1E-6);
+		assertEquals(2.0, Math.abs(first[1]), 1E-6);
+	}
+
+	@Test
+	public void stopsAtTheFirstExactSolution() {
+		double[] target = new double[] { 1.0, 2.0, 3.0 };
+		double[][] positions = new double[][] { { 0.0, 0.0, 0.0 }, { 10.0, 0.0, 0.0 }, { 0.0, 10.0, 0.0 }, { 0.0, 0.0, 10.0 }, { 10.0, 10.0, 10.0 } };
+		double[] distances = new double[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			double sum = 0.0;
+			for (int j = 0; j < 3; j++) {
+				sum += (positions[i][j] - target[j]) * (positions[i][j] - target[j]);
+			}
+			distances[i] = Math.sqrt(sum);
+		}
+
+		List<LocalMinimum> minima = new MultiStartSolver(0.0).solve(new TrilaterationFunction(positions, distances));
+		assertEquals(1, minima.size());
+		assertEquals(1, minima.get(0).getSeeds());
+		assertArrayEquals(target, minima.get(0).getPosition(), 1E-6);
+	}
+
+	@Test
+	public void stopsAtTheFirstSolutionConsistentWithNoisyRanges() {
+		Random random = new Random(17);
+		double[] target = new double[] { 40.0, 55.0 };
+		double[][] positions = new double[][] { { 0.0, 0.0 }, { 100.0, 0.0 }, { 0.0, 100.0 }, { 100.0, 100.0 }, { 50.0, 10.0 }, { 90.0, 50.0 } };
+		double deviation = 0.5;
+		double[] distances = new double[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			distances[i] = Math.hypot(positions[i][0] - target[0], positions[i][1] - target[1]) + deviation * random.nextGaussian();
+		}
+		double[] packed = FixedDimensionSolver.pack(positions);
+
+		List<LocalMinimum> minima = new MultiStartSolver(new FixedDimensionSolver(), null, MultiStartSolver.DEFAULT_MAX_SEEDS, MultiStartSolver.noiseFloor(deviation))
+				.solve(2, packed, distances);
+		assertEquals(1, minima.size());
+		assertEquals(1, minima.get(0).getSeeds());
+		assertEquals(0.0, Math.hypot(minima.get(0).getCoordinate(0) - target[0], minima.get(0).getCoordinate(1) - target[1]), 3 * deviation);
+
+		// a floor meant for exact ranges searches every seed for the same minimum
+		List<LocalMinimum> exhaustive = new MultiStartSolver(new FixedDimensionSolver(), null, MultiStartSolver.DEFAULT_MAX_SEEDS, MultiStartSolver.EXACT_NOISE_FLOOR)
+				.solve(2, packed, distances);
+		assertTrue(exhaustive.get(0).getSeeds() > 1);
+		assertArrayEquals(minima.get(0).getPosition(), exhaustive.get(0).getPosition(), 1E-6);
+	}
+
+	@Test
+	public void errorsOfTheParallelSolvesPropagate() {
+		FixedDimensionSolver failing = new FixedDimensionSolver() {
+			@Override
+			public boolean solve(int dimension, double[] positions, double[] distances, double[] weights, int offset, int count,
+					double[] initialPoint, double[] result, int resultOffset, SolverWorkspace workspace) {
+				if (initialPoint != null) {
+					throw new InternalError("seed");
+				}
+				return super.solve(dimension, positions, distances, weights, offset, count, initialPoint, result, resultOffset, workspace);
+			}
+		};
+		try {
+			new MultiStartSolver(failing, ForkJoinPool.commonPool(), MultiStartSolver.DEFAULT_MAX_SEEDS, MultiStartSolver.EXACT_NOISE_FLOOR)
+					.solve(2, new double[] { 0.0, 0.0, 4.0, 0.0 }, new double[] { Math.sqrt(13.0), Math.sqrt(5.0) });
+			fail("expected the error of the seeds to propagate");
+		} catch (InternalError e) {
+			// expected, the pool may rethrow a copy of the error
+		}
+	}
+
+	@Test
+	public void interruptionIsNotReportedAsAResult() {
+		Thread.currentThread().interrupt();
+		try {
+			new MultiStartSolver(0.0).solve(2, new double[] { 0.0, 0.0, 4.0, 0.0 }, new double[] { Math.sqrt(13.0), Math.sqrt(5.0) });
+			fail("expected the interrupted solve to be cancelled");
+		} catch (CancellationException e) {
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Test;
+
+/**
+ * Checks the closed form covariance and error ellipses of {@link PositionUncertainty} against commons-math decompositions.
+ */
+public class PositionUncertaintyTest {
+
+	@Test
+	public void ellipseOf2DCovariance() {
+		// covariance with variances 4 and 1 along axes rotated by 30 degrees
+		double angle = Math.PI / 6;
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		double[] covariance = new double[] { 4 * cos * cos + sin * sin, 3 * cos * sin, 3 * cos * sin, 4 * sin * sin + cos * cos };
+		double[] normal = new double[4];
+		assertTrue(PositionUncertainty.invert(2, covariance, normal));
+
+		PositionUncertainty uncertainty = PositionUncertainty.fromNormalMatrix(2, normal);
+		assertFalse(uncertainty.isSingular());
+		assertEquals(2.0, uncertainty.getSemiAxis(0), 1E-12);
+		assertEquals(1.0, uncertainty.getSemiAxis(1), 1E-12);
+		assertEquals(angle, uncertainty.getOrientation(), 1E-12);
+		assertEquals(Math.sqrt(5.0), uncertainty.getRadius(), 1E-12);
+		for (int i = 0; i < 2; i++) {
+			for (int j = 0; j < 2; j++) {
+				assertEquals(covariance[i * 2 + j], uncertainty.getCovariance(i, j), 1E-12);
+			}
+		}
+	}
+
+	@Test
+	public void matchesCommonsIn3D() {
+		matchesCommons(3, new Random(17));
+	}
+
+	@Test
+	public void matchesCommonsAbove3D() {
+		// no closed form, the correlated axes come from an eigen decomposition
+		matchesCommons(4, new Random(19));
+		matchesCommons(5, new Random(23));
+	}
+
+	@Test
+	public void flagsSingularGeometry() {
+		// two anchors in 2D do not constrain the direction across the line joining them
+		double[][] positions = new double[][] { { 0.0, 0.0 }, { 10.0, 0.0 } };
+		double[] result = new double[2];
+		new FixedDimensionSolver().solve(2, FixedDimensionSolver.pack(positions), new double[] { 4.0, 6.0 }, null, result);
+		PositionUncertainty uncertainty = SolverWorkspace.current().getUncertainty();
+		assertTrue(uncertainty.isSingular());
+		assertEquals(Double.POSITIVE_INFINITY, uncertainty.getSemiAxis(0), 0.0);
+		assertTrue(uncertainty.getSemiAxis(1) < Double.POSITIVE_INFINITY);
+		double[] axis = new double[2];
+		uncertainty.getAxis(0, axis);
+		assertEquals(1.0, Math.abs(axis[1]), 1E-9);
+	}
+
+	@Test
+	public void workspaceMatchesOptimum() {
+		double[][] positions = new double[][] { { 5.0, -6.0 }, { 13.0, -15.0 }, { 21.0, -3.0 }, { 12.4, -21.2 } };
+		double[] distances = new double[] { 8.06, 13.97, 23.32, 15.31 };
+		BoundedOptimum optimum = new NonLinearLeastSquaresSolver(new TrilaterationFunction(positions, distances.clone()), new LevenbergMarquardtOptimizer()).solve(SolveOptions.DEFAULT);
+		double[] result = new double[2];
+		new FixedDimensionSolver().solve(2, FixedDimensionSolver.pack(positions), distances, null, result);
+
+		PositionUncertainty expected = optimum.getUncertainty();
+		PositionUncertainty actual = SolverWorkspace.current().getUncertainty();
+		for (int i = 0; i < 2; i++) {
+			for (int j = 0; j < 2; j++) {
+				assertEquals(expected.getCovariance(i, j), actual.getCovariance(i, j), 1E-4 * Math.abs(expected.getCovariance(i, i)));
+			}
+		}
+	}
+
+	private static void matchesCommons(int n, Random random) {
+		for (int trial = 0; trial < 100; trial++) {
+			double[][] m = new double[n + 2][n];
+			for (int i = 0; i < n + 2; i++) {
+				for (int j = 0; j < n; j++) {
+					m[i][j] = random.nextGaussian();
+				}
+			}
+			RealMatrix jacobian = new Array2DRowRealMatrix(m, false);
+			RealMatrix normal = jacobian.transpose().multiply(jacobian);
+			double[] flat = new double[n * n];
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					flat[i * n + j] = normal.getEntry(i, j);
+				}
+			}
+
+			PositionUncertainty uncertainty = PositionUncertainty.fromNormalMatrix(n, flat);
+			RealMatrix expected = new LUDecomposition(normal).getSolver().getInverse();
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					assertEquals(expected.getEntry(i, j), uncertainty.getCovariance(i, j), 1E-9 * Math.max(1.0, Math.abs(expected.getEntry(i, j))));
+				}
+			}
+
+			// each axis is an eigenvector of the covariance with the squared semi axis as eigenvalue
+			double[] eigenvalues = new EigenDecomposition(expected).getRealEigenvalues();
+			Arrays.sort(eigenvalues);
+			reverse(eigenvalues);
+			double[] axis = new double[n];
+			for (int k = 0; k < n; k++) {
+				assertEquals(Math.sqrt(eigenvalues[k]), uncertainty.getSemiAxis(k), 1E-7 * Math.max(1.0, uncertainty.getSemiAxis(0)));
+				uncertainty.getAxis(k, axis);
+				double value = uncertainty.getSemiAxis(k) * uncertainty.getSemiAxis(k);
+				for (int i = 0; i < n; i++) {
+					double product = 0.0;
+					for (int j = 0; j < n; j++) {
+						product += expected.getEntry(i, j) * axis[j];
+					}
+					assertEquals(value * axis[i], product, 1E-7 * Math.max(1.0, eigenvalues[0]));
+				}
+			}
+		}
+	}
+
+	private static void reverse(double[] values) {
+		for (int i = 0; i < values.length / 2; i++) {
+			double swap = values[i];
+			values[i] = values[values.length - 1 - i];
+			values[values.length - 1 - i] = swap;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link PreparedAnchorSet} against {@link LinearLeastSquaresSolver}.
+ */
+public class PreparedAnchorSetTest {
+
+	@Test
+	public void matchesLinearLeastSquaresSolver() throws Exception {
+		double[][] positions = new double[][]{{5.0, -6.0}, {13.0, -15.0}, {21.0, -3.0}, {12.42, -21.2}};
+		PreparedAnchorSet prepared = new PreparedAnchorSet(positions);
+		assertTrue(prepared.isNonSingular());
+
+		double[][] fixes = new double[][]{{8.06, 13.97, 23.32, 15.31}, {8.0, 14.0, 23.0, 15.0}, {1.0, 12.0, 16.5, 17.0}};
+		for (double[] distances : fixes) {
+			double[] expected = new LinearLeastSquaresSolver(new TrilaterationFunction(positions, distances.clone())).solve().toArray();
+			assertArrayEquals(expected, prepared.solve(distances).toArray(), 1E-9);
+		}
+	}
+
+	@Test
+	public void singularAnchorsSolveAlongTheirHull() throws Exception {
+		double[][] positions = new double[][]{{1.0, 1.0}, {1.0, 1.0}, {3.0, 1.0}};
+		PreparedAnchorSet prepared = new PreparedAnchorSet(positions);
+		assertFalse(prepared.isNonSingular());
+		assertArrayEquals(new double[]{2.0, 1.0}, prepared.solve(new double[]{1.0, 1.0, 1.0}).toArray(), 1E-9);
+	}
+
+	@Test
+	public void cacheEvictsLeastRecentlyUsed() throws Exception {
+		double[][] positions = new double[][]{{0.0, 0.0}, {1.0, 0.0}, {0.0, 1.0}};
+		PreparedAnchorSetCache<String> cache = new PreparedAnchorSetCache<String>(2);
+		PreparedAnchorSet a = cache.get("a", positions);
+		assertSame(a, cache.get("a", positions));
+		cache.get("b", positions);
+		cache.get("a");
+		cache.get("c", positions);
+
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+
+		cache.invalidate("a");
+		assertNull(cache.get("a"));
+		assertTrue(cache.size() == 1);
+	}
+}
@@ -0,0 +1,111 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.util.Pair;
+import org.junit.Test;
+
+/**
+ * Checks that the weights of a {@link RangeWeighting} are folded into the residuals of {@link TrilaterationFunction}.
+ */
+public class RangeWeightingTest {
+
+	private static final double[][] POSITIONS = new double[][] { { 5.0, -6.0 }, { 13.0, -15.0 }, { 21.0, -3.0 }, { 12.4, -21.2 } };
+	private static final double[] DISTANCES = new double[] { 8.06, 13.97, 23.32, 15.31 };
+
+	@Test
+	public void foldsSquareRootWeightsIntoResidualsAndJacobian() {
+		TrilaterationFunction function = new TrilaterationFunction(POSITIONS, DISTANCES.clone(), RangeWeighting.rssi(2.0, 4.0));
+		double[] point = new double[] { 2.0, -9.0 };
+		Pair<RealVector, RealMatrix> value = function.value(new ArrayRealVector(point));
+		double[] weights = function.getWeights();
+		for (int i = 0; i < POSITIONS.length; i++) {
+			double dx = point[0] - POSITIONS[i][0];
+			double dy = point[1] - POSITIONS[i][1];
+			double sqrtWeight = Math.sqrt(weights[i]);
+			assertEquals(sqrtWeight * (dx * dx + dy * dy - DISTANCES[i] * DISTANCES[i]), value.getFirst().getEntry(i), 1E-12);
+			assertEquals(sqrtWeight * 2 * dx, value.getSecond().getEntry(i, 0), 1E-12);
+			assertEquals(sqrtWeight * 2 * dy, value.getSecond().getEntry(i, 1), 1E-12);
+
+			double k = Math.log(10.0) * 4.0 / 20.0;
+			assertEquals(1 / (k * k * Math.pow(DISTANCES[i], 4)), weights[i], 1E-15);
+		}
+	}
+
+	@Test
+	public void functionIsASnapshotOfItsInputs() {
+		double[][] positions = new double[][] { { 5.0, -6.0 }, { 13.0, -15.0 }, { 21.0, -3.0 }, { 12.4, -21.2 } };
+		double[] distances = new double[] { 0.0, 13.97, 23.32, 15.31 };
+		TrilaterationFunction function = new TrilaterationFunction(positions, distances);
+		ArrayRealVector point = new ArrayRealVector(new double[] { 2.0, -9.0 });
+		RealVector before = function.value(point).getFirst();
+
+		assertEquals(0.0, distances[0], 0.0);
+		positions[1][0] = 100.0;
+		distances[2] = 1.0;
+		function.getPositions()[3][1] = 100.0;
+		function.getDistances()[3] = 1.0;
+
+		assertArrayEquals(before.toArray(), function.value(point).getFirst().toArray(), 0.0);
+		assertEquals(13.0, function.getPositions()[1][0], 0.0);
+		assertEquals(23.32, function.getDistances()[2], 0.0);
+		assertTrue(function.getDistances()[0] > 0.0);
+	}
+
+	@Test
+	public void explicitWeightsReplaceTheWeightingOfTheFunction() {
+		Optimum folded = new NonLinearLeastSquaresSolver(new TrilaterationFunction(POSITIONS, DISTANCES.clone()), new LevenbergMarquardtOptimizer()).solve();
+
+		double[] inverseSquare = new double[DISTANCES.length];
+		for (int i = 0; i < DISTANCES.length; i++) {
+			inverseSquare[i] = 1 / (DISTANCES[i] * DISTANCES[i]);
+		}
+		NonLinearLeastSquaresSolver constant = new NonLinearLeastSquaresSolver(new TrilaterationFunction(POSITIONS, DISTANCES.clone(), RangeWeighting.CONSTANT),
+				new LevenbergMarquardtOptimizer());
+		Optimum explicit = constant.solve(new double[DISTANCES.length], inverseSquare, new double[] { 12.85, -11.3 });
+
+		assertArrayEquals(folded.getPoint().toArray(), explicit.getPoint().toArray(), 1E-6);
+		assertEquals(folded.getRMS(), explicit.getRMS(), 1E-9);
+	}
+
+	@Test
+	public void perAnchorVarianceDiscountsNoisyAnchors() {
+		double[] target = new double[] { 4.0, 3.0 };
+		double[][] positions = new double[][] { { 0.0, 0.0 }, { 10.0, 0.0 }, { 0.0, 10.0 }, { 10.0, 10.0 } };
+		double[] distances = new double[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			distances[i] = Math.hypot(positions[i][0] - target[0], positions[i][1] - target[1]);
+		}
+		// the last anchor is far off
+		distances[3] += 3.0;
+
+		double[] equal = new NonLinearLeastSquaresSolver(new TrilaterationFunction(positions, distances.clone()), new LevenbergMarquardtOptimizer()).solve().getPoint()
+				.toArray();
+		TrilaterationFunction discounted = new TrilaterationFunction(positions, distances.clone(), RangeWeighting.perAnchorVariance(new double[] { 0.01, 0.01, 0.01, 100.0 }));
+		double[] weighted = new NonLinearLeastSquaresSolver(discounted, new LevenbergMarquardtOptimizer()).solve().getPoint().toArray();
+
+		assertTrue(error(weighted, target) < 0.05);
+		assertTrue(error(equal, target) > 10 * error(weighted, target));
+
+		double[] fixed = new double[2];
+		new FixedDimensionSolver().solve(2, FixedDimensionSolver.pack(positions), discounted.getDistances(), discounted.getWeights(), 0, positions.length, null, fixed, 0,
+				SolverWorkspace.current());
+		assertArrayEquals(weighted, fixed, 1E-4);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNonPositiveVariances() {
+		RangeWeighting.perAnchorVariance(new double[] { 1.0, 0.0 });
+	}
+
+	private static double error(double[] point, double[] target) {
+		return Math.hypot(point[0] - target[0], point[1] - target[1]);
+	}
+}
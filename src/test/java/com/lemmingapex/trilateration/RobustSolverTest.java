@@ -0,0 +1,160 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.junit.Test;
+
+/**
+ * Checks that {@link RobustSolver} rejects biased ranges that pull the plain least squares solution away.
+ */
+public class RobustSolverTest {
+
+	private static final int[] OUTLIERS = new int[] { 1, 4, 7 };
+
+	@Test
+	public void leastMedianOfSquaresRejectsOutliers() {
+		for (int dimension = 2; dimension <= 4; dimension++) {
+			Random random = new Random(5 + dimension);
+			double[] target = randomPoint(random, dimension);
+			double[][] positions = new double[12][];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = randomPoint(random, dimension);
+			}
+			double[] distances = corrupted(random, positions, target);
+
+			double[] plain = new NonLinearLeastSquaresSolver(new TrilaterationFunction(positions, distances.clone()), new LevenbergMarquardtOptimizer()).solve()
+					.getPoint().toArray();
+			RobustFix fix = RobustSolver.builder().seed(1).build().solve(positions, distances.clone());
+
+			assertTrue(error(fix.getPosition(), target) < 0.1);
+			assertTrue(error(plain, target) > 10 * error(fix.getPosition(), target));
+			assertOutliersRejected(fix, positions.length);
+			assertTrue(fix.isConfident());
+		}
+	}
+
+	@Test
+	public void ransacRejectsOutliers() {
+		Random random = new Random(3);
+		double[] target = randomPoint(random, 3);
+		double[][] positions = new double[12][];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = randomPoint(random, 3);
+		}
+		RobustFix fix = RobustSolver.builder().ransac(0.5).seed(2).build().solve(positions, corrupted(random, positions, target));
+
+		assertTrue(error(fix.getPosition(), target) < 0.1);
+		assertOutliersRejected(fix, positions.length);
+		assertTrue(fix.getOptimum().isConverged());
+	}
+
+	@Test
+	public void capsTheNumberOfHypotheses() {
+		Random random = new Random(8);
+		double[] target = randomPoint(random, 2);
+		double[][] positions = new double[12][];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = randomPoint(random, 2);
+		}
+		RobustFix fix = RobustSolver.builder().confidence(0.999999).maxHypotheses(3).seed(4).build().solve(positions, corrupted(random, positions, target));
+		assertTrue(fix.getHypotheses() <= 3);
+	}
+
+	@Test
+	public void hypothesesWithoutInliersAreNotConfident() {
+		Random random = new Random(10);
+		double[] target = randomPoint(random, 3);
+		double[][] positions = new double[12][];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = randomPoint(random, 3);
+		}
+		// a threshold far below the noise leaves every hypothesis without inliers
+		RobustFix fix = RobustSolver.builder().ransac(1E-9).maxHypotheses(50).seed(7).build().solve(positions, corrupted(random, positions, target));
+		assertEquals(50, fix.getHypotheses());
+		assertFalse(fix.isConfident());
+	}
+
+	@Test
+	public void timeoutBoundsTheRefinement() {
+		Random random = new Random(9);
+		double[] target = randomPoint(random, 3);
+		double[][] positions = new double[12][];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = randomPoint(random, 3);
+		}
+		double[] distances = corrupted(random, positions, target);
+
+		// an elapsed timeout stops the sampling and the refinement, which reports the deadline rather than running to convergence
+		RobustFix expired = RobustSolver.builder().timeout(0, TimeUnit.NANOSECONDS).seed(6).build().solve(positions, distances.clone());
+		assertEquals(0, expired.getHypotheses());
+		assertFalse(expired.isConfident());
+		assertEquals(BoundedOptimum.Status.DEADLINE, expired.getOptimum().getStatus());
+		assertEquals(1, expired.getOptimum().getEvaluations());
+
+		RobustFix generous = RobustSolver.builder().timeout(1, TimeUnit.MINUTES).seed(6).build().solve(positions, distances.clone());
+		assertTrue(generous.getOptimum().isConverged());
+		assertTrue(error(generous.getPosition(), target) < 0.1);
+	}
+
+	@Test
+	public void selectsTheKthSmallest() {
+		Random random = new Random(13);
+		for (int trial = 0; trial < 100; trial++) {
+			double[] values = new double[1 + random.nextInt(30)];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = random.nextInt(10);
+			}
+			double[] sorted = values.clone();
+			Arrays.sort(sorted);
+			int k = random.nextInt(values.length);
+			assertEquals(sorted[k], RobustSolver.select(values, values.length, k), 0.0);
+		}
+	}
+
+	private static void assertOutliersRejected(RobustFix fix, int count) {
+		assertEquals(count - OUTLIERS.length, fix.getInlierCount());
+		for (int i = 0; i < count; i++) {
+			assertEquals(Arrays.binarySearch(OUTLIERS, i) < 0, fix.isInlier(i));
+		}
+		for (int outlier : OUTLIERS) {
+			assertFalse(fix.getInliers()[outlier]);
+		}
+	}
+
+	/**
+	 * @return ranges with a little noise, the ranges of {@link #OUTLIERS} biased as by multipath
+	 */
+	private static double[] corrupted(Random random, double[][] positions, double[] target) {
+		double[] distances = new double[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			distances[i] = error(positions[i], target) + 0.01 * random.nextGaussian();
+		}
+		for (int outlier : OUTLIERS) {
+			distances[outlier] += 20.0 + 10.0 * random.nextDouble();
+		}
+		return distances;
+	}
+
+	private static double[] randomPoint(Random random, int dimension) {
+		double[] point = new double[dimension];
+		for (int j = 0; j < dimension; j++) {
+			point[j] = 100.0 * random.nextDouble();
+		}
+		return point;
+	}
+
+	private static double error(double[] point, double[] target) {
+		double sum = 0.0;
+		for (int j = 0; j < target.length; j++) {
+			sum += (point[j] - target[j]) * (point[j] - target[j]);
+		}
+		return Math.sqrt(sum);
+	}
+}
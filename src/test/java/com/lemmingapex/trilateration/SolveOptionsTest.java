@@ -0,0 +1,68 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.fitting.leastsquares.GaussNewtonOptimizer;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.junit.Test;
+
+/**
+ * Solves bounded by {@link SolveOptions} return their best point instead of throwing.
+ */
+public class SolveOptionsTest {
+
+	private static final double[][] POSITIONS = new double[][]{{5.0, -6.0}, {13.0, -15.0}, {21.0, -3.0}, {12.42, -21.2}};
+	private static final double[] DISTANCES = new double[]{8.06, 13.97, 23.32, 15.31};
+
+	@Test
+	public void defaultOptionsMatchUnboundedSolve() throws Exception {
+		NonLinearLeastSquaresSolver solver = new NonLinearLeastSquaresSolver(new TrilaterationFunction(POSITIONS, DISTANCES.clone()), new LevenbergMarquardtOptimizer());
+		Optimum expected = solver.solve();
+		BoundedOptimum optimum = solver.solve(SolveOptions.DEFAULT);
+		assertEquals(BoundedOptimum.Status.CONVERGED, optimum.getStatus());
+		assertEquals(expected.getPoint().getEntry(0), optimum.getPoint().getEntry(0), 0.0001);
+		assertEquals(expected.getPoint().getEntry(1), optimum.getPoint().getEntry(1), 0.0001);
+	}
+
+	@Test
+	public void iterationLimitReturnsBestPoint() throws Exception {
+		NonLinearLeastSquaresSolver solver = new NonLinearLeastSquaresSolver(new TrilaterationFunction(POSITIONS, DISTANCES.clone()), new LevenbergMarquardtOptimizer());
+		double[] initialPoint = new double[]{100.0, 100.0};
+		double initialCost = solver.solve(initialPoint, SolveOptions.builder().maxEvaluations(1).build()).getCost();
+
+		BoundedOptimum optimum = solver.solve(initialPoint, SolveOptions.builder().maxIterations(2).build());
+		assertEquals(BoundedOptimum.Status.MAX_ITERATIONS, optimum.getStatus());
+		assertEquals(2, optimum.getIterations());
+		assertTrue(optimum.getCost() < initialCost);
+	}
+
+	@Test
+	public void evaluationLimitReturnsBestPoint() throws Exception {
+		NonLinearLeastSquaresSolver solver = new NonLinearLeastSquaresSolver(new TrilaterationFunction(POSITIONS, DISTANCES.clone()), new LevenbergMarquardtOptimizer());
+		BoundedOptimum optimum = solver.solve(new double[]{100.0, 100.0}, SolveOptions.builder().maxEvaluations(3).build());
+		assertEquals(BoundedOptimum.Status.MAX_EVALUATIONS, optimum.getStatus());
+		assertEquals(3, optimum.getEvaluations());
+	}
+
+	@Test
+	public void expiredDeadlineStopsAfterFirstEvaluation() throws Exception {
+		NonLinearLeastSquaresSolver solver = new NonLinearLeastSquaresSolver(new TrilaterationFunction(POSITIONS, DISTANCES.clone()), new LevenbergMarquardtOptimizer());
+		BoundedOptimum optimum = solver.solve(new double[]{100.0, 100.0}, SolveOptions.builder().timeout(0, TimeUnit.NANOSECONDS).build());
+		assertEquals(BoundedOptimum.Status.DEADLINE, optimum.getStatus());
+		assertEquals(1, optimum.getEvaluations());
+		assertEquals(100.0, optimum.getPoint().getEntry(0), 0.0);
+	}
+
+	@Test
+	public void gaussNewtonUsesConfiguredChecker() throws Exception {
+		NonLinearLeastSquaresSolver solver = new NonLinearLeastSquaresSolver(new TrilaterationFunction(POSITIONS, DISTANCES.clone()), new GaussNewtonOptimizer());
+		BoundedOptimum optimum = solver.solve(SolveOptions.builder().positionTolerance(1E-6).build());
+		assertEquals(BoundedOptimum.Status.CONVERGED, optimum.getStatus());
+		assertEquals(-0.6, optimum.getPoint().getEntry(0), 1.0);
+		assertEquals(-11.8, optimum.getPoint().getEntry(1), 1.0);
+	}
+}
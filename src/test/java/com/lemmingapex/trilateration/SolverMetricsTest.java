@@ -0,0 +1,129 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.apache.commons.math3.linear.RealVector;
+import org.junit.Test;
+
+/**
+ * Checks the histogram buckets and that the solvers report to their listener.
+ */
+public class SolverMetricsTest {
+
+	@Test
+	public void histogramPercentilesWithinBucketPrecision() throws Exception {
+		ConcurrentHistogram histogram = new ConcurrentHistogram();
+		for (long value = 1; value <= 100000; value++) {
+			histogram.record(value);
+		}
+		assertEquals(100000, histogram.getCount());
+		assertEquals(100000, histogram.getMax());
+		assertEquals(50000.5, histogram.getMean(), 0.0001);
+		assertEquals(50000, histogram.getValueAtPercentile(50.0), 50000.0 / ConcurrentHistogram.SUB_BUCKETS);
+		assertEquals(99000, histogram.getValueAtPercentile(99.0), 99000.0 / ConcurrentHistogram.SUB_BUCKETS);
+		assertEquals(100000, histogram.getValueAtPercentile(100.0));
+	}
+
+	@Test
+	public void bucketsCoverAllValues() throws Exception {
+		long[] values = new long[]{0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE};
+		for (long value : values) {
+			int index = ConcurrentHistogram.bucketIndex(value);
+			assertTrue(value <= ConcurrentHistogram.bucketUpperBound(index));
+			assertTrue(index == 0 || value > ConcurrentHistogram.bucketUpperBound(index - 1));
+		}
+	}
+
+	@Test
+	public void concurrentRecordingLosesNothing() throws Exception {
+		final ConcurrentHistogram histogram = new ConcurrentHistogram();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 100000; i++) {
+						histogram.record(i % 1000);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(400000, histogram.getCount());
+		assertEquals(999, histogram.getMax());
+	}
+
+	@Test
+	public void solversReportToListener() throws Exception {
+		SolverMetrics metrics = new SolverMetrics();
+		double[][] positions = new double[][]{{1.0, 1.0}, {3.0, 1.0}, {2.0, 2.0}};
+		double[] distances = new double[]{1.0, 1.0, 1.0};
+		TrilaterationFunction function = new TrilaterationFunction(positions, distances);
+
+		// a consistent minimal problem is solved directly, the linear solve is exact too
+		new NonLinearLeastSquaresSolver(function, new LevenbergMarquardtOptimizer(), metrics).solve();
+		new LinearLeastSquaresSolver(function, metrics).solve();
+		new LinearLeastSquaresSolver(new TrilaterationFunction(new double[][]{{1.0, 1.0}, {1.0, 1.0}, {1.0, 1.0}}, new double[]{1.0, 1.0, 1.0}), metrics).solve();
+		assertEquals(3, metrics.getLatency().getCount());
+		assertEquals(3, metrics.getIterations().getCount());
+		assertEquals(0, metrics.getIterations().getMax());
+		assertEquals(1, metrics.getEvaluations().getMax());
+		assertEquals(0, metrics.getRms().getValueAtPercentile(50.0));
+		assertEquals(1, metrics.getSingularMatrixFallbacks());
+		assertEquals(0, metrics.getNotConverged());
+
+		// one more anchor than the minimal problem, so the solve iterates rather than being solved directly, and stops at the limit
+		metrics.reset();
+		TrilaterationFunction overdetermined = new TrilaterationFunction(new double[][]{{1.0, 1.0}, {3.0, 1.0}, {2.0, 2.0}, {5.0, 5.0}}, new double[]{1.0, 1.0, 1.0, 5.0});
+		BoundedOptimum bounded = new NonLinearLeastSquaresSolver(overdetermined, new LevenbergMarquardtOptimizer(), metrics).solve(SolveOptions.builder().maxEvaluations(1).build());
+		assertEquals(BoundedOptimum.Status.MAX_EVALUATIONS, bounded.getStatus());
+		assertEquals(1, metrics.getNotConverged());
+		assertEquals(1, metrics.getEvaluations().getMax());
+		assertEquals(Math.round(bounded.getRMS() * SolverMetrics.RMS_SCALE), metrics.getRms().getMax());
+
+		metrics.reset();
+		Optimum weighted = new NonLinearLeastSquaresSolver(new TrilaterationFunction(positions, new double[]{0.5, 0.5, 0.5}), new LevenbergMarquardtOptimizer(), metrics)
+				.solve(new double[3], new double[]{1.0, 1.0, 1.0}, new double[]{100.0, 100.0});
+		assertEquals(1, metrics.getLatency().getCount());
+		assertEquals(0, metrics.getNotConverged());
+		assertEquals(0, metrics.getFailures());
+		assertEquals(weighted.getIterations(), metrics.getIterations().getMax());
+		assertEquals(weighted.getEvaluations(), metrics.getEvaluations().getMax());
+		assertTrue(weighted.getRMS() > 0.0);
+		assertEquals(Math.round(weighted.getRMS() * SolverMetrics.RMS_SCALE), metrics.getRms().getMax());
+	}
+
+	@Test(expected = DegenerateGeometryException.class)
+	public void solvesThatThrowAreCounted() throws Exception {
+		SolverMetrics metrics = new SolverMetrics();
+		TrilaterationFunction collinear = new TrilaterationFunction(new double[][]{{0.0, 0.0}, {1.0, 1.0}, {3.0, 3.0}}, new double[]{1.0, 1.0, 3.0});
+		try {
+			new NonLinearLeastSquaresSolver(collinear, new LevenbergMarquardtOptimizer(), metrics)
+					.solve(SolveOptions.builder().degenerateGeometry(SolveOptions.DegenerateGeometry.FAIL).build());
+		} finally {
+			assertEquals(1, metrics.getFailures());
+			assertEquals(1, metrics.getLatency().getCount());
+			assertEquals(0, metrics.getIterations().getCount());
+			assertEquals(0, metrics.getRms().getCount());
+		}
+	}
+
+	@Test
+	public void linearSolverReportsTheRmsOfTheNonLinearFormulation() throws Exception {
+		SolverMetrics metrics = new SolverMetrics();
+		TrilaterationFunction function = new TrilaterationFunction(new double[][]{{5.0, -6.0}, {13.0, -15.0}, {21.0, -3.0}, {12.4, -21.2}},
+				new double[]{8.06, 13.97, 23.32, 15.31});
+		RealVector position = new LinearLeastSquaresSolver(function, metrics).solve();
+
+		// the residuals of the function are weighted by the square roots of its weights, r / d with the default weighting
+		double rms = function.value(position).getFirst().getNorm() / Math.sqrt(4);
+		assertTrue(rms > 0.01);
+		assertEquals(Math.round(rms * SolverMetrics.RMS_SCALE), metrics.getRms().getMax(), 1);
+	}
+}
@@ -0,0 +1,161 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Checks the answers and the backpressure of {@link TrilaterationService}.
+ */
+public class TrilaterationServiceTest {
+
+	private static final AnchorSet SQUARE = new AnchorSet(new double[][] { { 0.0, 0.0 }, { 100.0, 0.0 }, { 100.0, 100.0 }, { 0.0, 100.0 } });
+	private static final AnchorSet CUBE = new AnchorSet(new double[][] { { 0.0, 0.0, 0.0 }, { 100.0, 0.0, 0.0 }, { 0.0, 100.0, 0.0 }, { 0.0, 0.0, 100.0 }, { 100.0, 100.0, 100.0 } });
+
+	@Test
+	public void solvesConcurrentRequests() throws Exception {
+		TrilaterationService service = new TrilaterationService(4, true, 10000, 64);
+		Random random = new Random(3);
+		List<double[]> expected = new ArrayList<double[]>();
+		List<CompletableFuture<TrilaterationFix>> futures = new ArrayList<CompletableFuture<TrilaterationFix>>();
+		for (int r = 0; r < 2000; r++) {
+			AnchorSet anchors = r % 3 == 0 ? CUBE : SQUARE;
+			double[] target = new double[anchors.getDimension()];
+			for (int j = 0; j < target.length; j++) {
+				target[j] = 10.0 + 80.0 * random.nextDouble();
+			}
+			expected.add(target);
+			futures.add(service.submit(anchors, distances(anchors, target)));
+		}
+
+		for (int r = 0; r < futures.size(); r++) {
+			TrilaterationFix fix = futures.get(r).get(10, TimeUnit.SECONDS);
+			assertTrue(fix.isConverged());
+			for (int j = 0; j < fix.getDimension(); j++) {
+				assertEquals(expected.get(r)[j], fix.getCoordinate(j), 1E-4);
+			}
+		}
+
+		service.shutdown();
+		assertTrue(service.awaitTermination(10, TimeUnit.SECONDS));
+		try {
+			service.submit(SQUARE, distances(SQUARE, new double[] { 1.0, 1.0 }));
+			fail("expected the shut down service to reject requests");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void rejectsWhenSaturated() throws Exception {
+		final BlockingQueue<Runnable> held = new LinkedBlockingQueue<Runnable>();
+		Executor holding = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				held.add(command);
+			}
+		};
+		TrilaterationService service = new TrilaterationService(new FixedDimensionSolver(), holding, 1, 1, 1);
+		double[] distances = distances(SQUARE, new double[] { 30.0, 40.0 });
+
+		// at most one request with the executor, one waiting for it in the dispatcher and one in the queue
+		List<CompletableFuture<TrilaterationFix>> accepted = new ArrayList<CompletableFuture<TrilaterationFix>>();
+		try {
+			while (true) {
+				accepted.add(service.submit(SQUARE, distances));
+				assertTrue(accepted.size() <= 3);
+			}
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		assertFalse(accepted.isEmpty());
+		for (CompletableFuture<TrilaterationFix> future : accepted) {
+			assertFalse(future.isDone());
+		}
+
+		service.shutdown();
+		for (CompletableFuture<TrilaterationFix> future : accepted) {
+			while (!future.isDone()) {
+				Runnable next = held.poll(10, TimeUnit.SECONDS);
+				assertNotNull(next);
+				next.run();
+			}
+			assertEquals(30.0, future.get().getCoordinate(0), 1E-4);
+			assertEquals(40.0, future.get().getCoordinate(1), 1E-4);
+		}
+		assertTrue(service.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void failsPendingRequestsWhenTheDispatcherDies() throws Exception {
+		final CountDownLatch executing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Executor failing = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				executing.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new IllegalStateException("The executor is broken.");
+			}
+		};
+		TrilaterationService service = new TrilaterationService(new FixedDimensionSolver(), failing, 1, 16, 1);
+		double[] distances = distances(SQUARE, new double[] { 30.0, 40.0 });
+
+		// the first request is with the executor when it throws, the second is still queued
+		CompletableFuture<TrilaterationFix> first = service.submit(SQUARE, distances);
+		assertTrue(executing.await(10, TimeUnit.SECONDS));
+		CompletableFuture<TrilaterationFix> second = service.submit(SQUARE, distances);
+		release.countDown();
+
+		for (CompletableFuture<TrilaterationFix> future : Arrays.asList(first, second)) {
+			try {
+				future.get(10, TimeUnit.SECONDS);
+				fail("expected the request to fail with the dispatcher");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof RejectedExecutionException);
+				assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+			}
+		}
+		assertTrue(service.awaitTermination(10, TimeUnit.SECONDS));
+		try {
+			service.submit(SQUARE, distances);
+			fail("expected the service to reject requests once its dispatcher stopped");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+	}
+
+	private static double[] distances(AnchorSet anchors, double[] target) {
+		double[] distances = new double[anchors.size()];
+		for (int i = 0; i < anchors.size(); i++) {
+			double distanceSquared = 0.0;
+			for (int j = 0; j < target.length; j++) {
+				double delta = anchors.getCoordinate(i, j) - target[j];
+				distanceSquared += delta * delta;
+			}
+			distances[i] = Math.sqrt(distanceSquared);
+		}
+		return distances;
+	}
+}
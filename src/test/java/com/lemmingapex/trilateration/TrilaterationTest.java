@@ -24,6 +24,7 @@ public class TrilaterationTest {
 
 	private RealVector linearCalculatedPosition;
 	private Optimum nonLinearOptimum;
+	private Optimum linearSeededOptimum;
 
 	public TrilaterationTest(double[][] positions, double[] distances, double[] expectedPosition, double acceptedDelta) {
 		this.positions = positions;
@@ -42,6 +43,7 @@ public class TrilaterationTest {
 
 		linearCalculatedPosition = lSolver.solve();
 		nonLinearOptimum = nlSolver.solve();
+		linearSeededOptimum = nlSolver.solveFromLinearEstimate(0.0);
 	}
 
 	private void outputResult() {
@@ -51,12 +53,15 @@ public class TrilaterationTest {
 		printDoubleArray("non-linear calculatedPosition: ", nonLinearOptimum.getPoint().toArray());
 		output.append("numberOfIterations: ").append(nonLinearOptimum.getIterations()).append("\n");
 		output.append("numberOfEvaluations: ").append(nonLinearOptimum.getEvaluations()).append("\n");
+		printDoubleArray("linear seeded calculatedPosition: ", linearSeededOptimum.getPoint().toArray());
+		output.append("linear seeded numberOfIterations: ").append(linearSeededOptimum.getIterations()).append("\n");
 		try {
 			RealVector standardDeviation = nonLinearOptimum.getSigma(0);
 			printDoubleArray("standardDeviation: ", standardDeviation.toArray());
 			output.append("Norm of deviation: ").append(standardDeviation.getNorm()).append("\n");
 			RealMatrix covarianceMatrix = nonLinearOptimum.getCovariances(0);
 			output.append("covarianceMatrix: ").append(covarianceMatrix).append("\n");
+			compareUncertainty(covarianceMatrix);
 		} catch (SingularMatrixException e) {
 			System.err.println(e.getMessage());
 		}
@@ -69,6 +74,26 @@ public class TrilaterationTest {
 		for (int i = 0; i < calculatedPosition.length; i++) {
 			assertEquals(expectedPosition[i], calculatedPosition[i], acceptedDelta);
 		}
+		double[] linearSeededPosition = linearSeededOptimum.getPoint().toArray();
+		for (int i = 0; i < linearSeededPosition.length; i++) {
+			assertEquals(expectedPosition[i], linearSeededPosition[i], acceptedDelta);
+		}
+	}
+
+	/**
+	 * The closed form covariance should agree with the one of commons-math whenever the latter can be computed
+	 */
+	private void compareUncertainty(RealMatrix covarianceMatrix) {
+		PositionUncertainty uncertainty = PositionUncertainty.of(nonLinearOptimum);
+		if (uncertainty.isSingular()) {
+			return;
+		}
+		for (int i = 0; i < covarianceMatrix.getRowDimension(); i++) {
+			for (int j = 0; j < covarianceMatrix.getColumnDimension(); j++) {
+				double expected = covarianceMatrix.getEntry(i, j);
+				assertEquals(expected, uncertainty.getCovariance(i, j), 1E-6 * Math.max(1.0, Math.abs(expected)));
+			}
+		}
 	}
 
 	private void printDoubleArray(String tag, double[] values) {
@@ -0,0 +1,146 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Follows a target moving at constant velocity through a field of anchors.
+ */
+public class TrilaterationTrackerTest {
+
+	private static final double[] ANCHORS = new double[]{0.0, 0.0, 100.0, 0.0, 0.0, 100.0, 100.0, 100.0, 50.0, 120.0};
+
+	@Test
+	public void warmStartNeedsFewerIterations() throws Exception {
+		TrilaterationTracker<String> tracker = new TrilaterationTracker<String>(2, new FixedDimensionSolver(), 1000L);
+		FixedDimensionSolver solver = new FixedDimensionSolver();
+		Random random = new Random(3);
+		double[] distances = new double[ANCHORS.length / 2];
+		double[] result = new double[2];
+
+		int trackedIterations = 0;
+		int coldIterations = 0;
+		for (int step = 0; step < 200; step++) {
+			long timestamp = step * 50L;
+			measure(10.0 + 0.2 * step, 20.0 + 0.1 * step, random, 0.05, distances);
+
+			assertTrue(solver.solve(2, ANCHORS, distances, null, result));
+			coldIterations += SolverWorkspace.current().getIterations();
+
+			assertTrue(tracker.update("tag", timestamp, ANCHORS, distances, result));
+			trackedIterations += SolverWorkspace.current().getIterations();
+			assertEquals(10.0 + 0.2 * step, result[0], 0.5);
+			assertEquals(20.0 + 0.1 * step, result[1], 0.5);
+		}
+		assertTrue(trackedIterations < coldIterations);
+		assertFalse(tracker.getVelocity("tag", result));
+	}
+
+	@Test
+	public void kalmanFilterEstimatesVelocity() throws Exception {
+		TrilaterationTracker<String> tracker = new TrilaterationTracker<String>(2, new FixedDimensionSolver(), 1000L, 0.01, 0.25);
+		Random random = new Random(5);
+		double[] distances = new double[ANCHORS.length / 2];
+		double[] result = new double[2];
+
+		// 20 Hz, moving at (4, -2) units per second
+		for (int step = 0; step < 400; step++) {
+			measure(10.0 + 0.2 * step, 90.0 - 0.1 * step, random, 0.5, distances);
+			tracker.update("tag", step * 50L, ANCHORS, distances, result);
+		}
+		assertEquals(10.0 + 0.2 * 399, result[0], 0.5);
+		assertEquals(90.0 - 0.1 * 399, result[1], 0.5);
+
+		double[] velocity = new double[2];
+		assertTrue(tracker.getVelocity("tag", velocity));
+		assertEquals(4.0, velocity[0], 0.5);
+		assertEquals(-2.0, velocity[1], 0.5);
+	}
+
+	@Test
+	public void failedFirstUpdateLeavesNoTrack() throws Exception {
+		TrilaterationTracker<Integer> tracker = new TrilaterationTracker<Integer>(2, new FixedDimensionSolver(), 1000L);
+		double[] distances = new double[ANCHORS.length / 2];
+		double[] result = new double[2];
+		measure(50.0, 50.0, new Random(1), 0.0, distances);
+		try {
+			// fewer positions than distances
+			tracker.update(1, 0L, new double[] { 0.0, 0.0, 100.0, 0.0 }, distances, result);
+			fail("expected the solve to reject the anchors");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(0, tracker.size());
+
+		assertTrue(tracker.update(1, 50L, ANCHORS, distances, result));
+		assertEquals(1, tracker.size());
+		assertTrue(tracker.getPosition(1, result));
+		assertEquals(50.0, result[0], 0.0001);
+	}
+
+	@Test
+	public void idleTracksAreEvicted() throws Exception {
+		TrilaterationTracker<Integer> tracker = new TrilaterationTracker<Integer>(2, new FixedDimensionSolver(), 1000L);
+		double[] distances = new double[ANCHORS.length / 2];
+		double[] result = new double[2];
+		measure(50.0, 50.0, new Random(1), 0.0, distances);
+		tracker.update(1, 0L, ANCHORS, distances, result);
+		tracker.update(2, 800L, ANCHORS, distances, result);
+		assertEquals(2, tracker.size());
+
+		assertEquals(1, tracker.evictIdle(1500L));
+		assertFalse(tracker.getPosition(1, result));
+		assertTrue(tracker.getPosition(2, result));
+		assertEquals(50.0, result[0], 0.0001);
+	}
+
+	@Test
+	public void evictionDoesNotLoseNewTracks() throws Exception {
+		final TrilaterationTracker<Integer> tracker = new TrilaterationTracker<Integer>(2, new FixedDimensionSolver(), 1000L);
+		final long now = 1000000L;
+		final AtomicBoolean updating = new AtomicBoolean(true);
+		Thread evictor = new Thread() {
+			@Override
+			public void run() {
+				while (updating.get()) {
+					// every track is updated at now, none is idle
+					tracker.evictIdle(now);
+				}
+			}
+		};
+		evictor.start();
+
+		double[] distances = new double[ANCHORS.length / 2];
+		double[] result = new double[2];
+		measure(50.0, 50.0, new Random(1), 0.0, distances);
+		int targets = 20000;
+		try {
+			for (int target = 0; target < targets; target++) {
+				tracker.update(target, now, ANCHORS, distances, result);
+			}
+		} finally {
+			updating.set(false);
+			evictor.join();
+		}
+
+		assertEquals(targets, tracker.size());
+		for (int target = 0; target < targets; target++) {
+			assertTrue(tracker.getPosition(target, result));
+		}
+	}
+
+	private static void measure(double x, double y, Random random, double noise, double[] distances) {
+		for (int i = 0; i < distances.length; i++) {
+			double dx = x - ANCHORS[2 * i];
+			double dy = y - ANCHORS[2 * i + 1];
+			distances[i] = Math.sqrt(dx * dx + dy * dy) + noise * random.nextGaussian();
+		}
+	}
+}
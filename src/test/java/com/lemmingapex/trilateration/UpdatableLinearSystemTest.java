@@ -0,0 +1,109 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link UpdatableLinearSystem} solves like a {@link PreparedAnchorSet} built from scratch while anchors churn.
+ */
+public class UpdatableLinearSystemTest {
+
+	@Test
+	public void matchesRefactoringAfterEveryChange() {
+		Random random = new Random(11);
+		for (int dimension = 2; dimension <= 3; dimension++) {
+			double[] target = randomPoint(random, dimension);
+			UpdatableLinearSystem system = new UpdatableLinearSystem(dimension);
+			for (int i = 0; i < dimension + 3; i++) {
+				system.add(randomPoint(random, dimension));
+			}
+			for (int change = 0; change < 500; change++) {
+				int operation = random.nextInt(4);
+				if (operation == 0 || system.size() <= dimension + 2) {
+					system.add(randomPoint(random, dimension));
+				} else if (operation == 1) {
+					system.remove(random.nextInt(system.size()));
+				} else if (operation == 2) {
+					system.replace(random.nextInt(system.size()), randomPoint(random, dimension));
+				} else {
+					system.setReference(random.nextInt(system.size()));
+				}
+
+				double[][] positions = new double[system.size()][dimension];
+				for (int i = 0; i < positions.length; i++) {
+					system.getPosition(i, positions[i]);
+				}
+				double[] distances = distances(positions, target);
+				for (int i = 0; i < distances.length; i++) {
+					distances[i] += 0.5 * random.nextGaussian();
+				}
+				PreparedAnchorSet prepared = new PreparedAnchorSet(positions);
+				assertTrue(system.isNonSingular());
+				assertArrayEquals(prepared.solve(distances).toArray(), system.solve(distances).toArray(), 1E-8);
+			}
+		}
+	}
+
+	@Test
+	public void solvesAlongTheHullWhenRemovalsLeaveCollinearAnchors() {
+		UpdatableLinearSystem system = new UpdatableLinearSystem(new double[][] { { 1.0, 1.0 }, { 3.0, 1.0 }, { 2.0, 2.0 }, { 5.0, 1.0 } });
+		assertTrue(system.isNonSingular());
+		system.remove(2);
+		assertEquals(3, system.size());
+		assertFalse(system.isNonSingular());
+		assertArrayEquals(new double[] { 2.0, 1.0 }, system.solve(new double[] { 1.0, 1.0, 3.0 }).toArray(), 1E-9);
+
+		system.add(new double[] { 2.0, 2.0 });
+		assertTrue(system.isNonSingular());
+		assertArrayEquals(new double[] { 2.0, 1.0 }, system.solve(new double[] { 1.0, 1.0, 3.0, 1.0 }).toArray(), 1E-9);
+	}
+
+	@Test
+	public void removingTheReferencePromotesTheNextAnchor() {
+		double[] target = new double[] { 4.0, 7.0 };
+		UpdatableLinearSystem system = new UpdatableLinearSystem(new double[][] { { 0.0, 0.0 }, { 10.0, 0.0 }, { 0.0, 10.0 }, { 10.0, 10.0 } });
+		system.remove(0);
+		double[] position = new double[2];
+		system.getPosition(0, position);
+		assertArrayEquals(new double[] { 10.0, 0.0 }, position, 0.0);
+		double[][] positions = new double[][] { { 10.0, 0.0 }, { 0.0, 10.0 }, { 10.0, 10.0 } };
+		assertArrayEquals(target, system.solve(distances(positions, target)).toArray(), 1E-9);
+	}
+
+	@Test
+	public void rejectsNoPositions() {
+		try {
+			new UpdatableLinearSystem(new double[0][]);
+			fail("expected the empty positions to be rejected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Need at least one position.", e.getMessage());
+		}
+	}
+
+	private static double[] randomPoint(Random random, int dimension) {
+		double[] point = new double[dimension];
+		for (int j = 0; j < dimension; j++) {
+			point[j] = 100.0 * random.nextDouble();
+		}
+		return point;
+	}
+
+	private static double[] distances(double[][] positions, double[] target) {
+		double[] distances = new double[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			double sum = 0.0;
+			for (int j = 0; j < target.length; j++) {
+				sum += (positions[i][j] - target[j]) * (positions[i][j] - target[j]);
+			}
+			distances[i] = Math.sqrt(sum);
+		}
+		return distances;
+	}
+}